@@ -0,0 +1,42 @@
+package org.johntipper.blog.lambda.jmh;
+
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static byte[] event(String name) {
+        return resource("events", name);
+    }
+
+    /**
+     * @return the same request as {@link #event(String)} of the same name, as an HTTP API (payload v2) event
+     */
+    public static byte[] httpEvent(String name) {
+        return resource("events-v2", name);
+    }
+
+    private static byte[] resource(String directory, String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream(String.format("/%s/%s", directory, name))) {
+            if (in == null) {
+                throw new IllegalArgumentException(String.format("No event fixture named %s", name));
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static InvocationMetrics discardedMetrics() {
+        // still recorded and flushed, but not into the benchmark output
+        return InvocationMetrics.forHandler("jmh", new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
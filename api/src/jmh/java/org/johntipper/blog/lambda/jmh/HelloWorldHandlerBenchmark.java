@@ -0,0 +1,91 @@
+package org.johntipper.blog.lambda.jmh;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.api.HelloWorldResponse;
+import org.johntipper.blog.lambda.HelloWorldHandler;
+import org.johntipper.blog.lambda.HelloWorldStreamHandler;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.runtime.RuntimeContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-invocation cost of the api handler. {@code databindRoundTrip} is what the managed runtime does for every
+ * invocation: bind the event, call the handler, serialize the response event. {@code streamRoundTrip} is the same
+ * invocation through {@link HelloWorldStreamHandler}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HelloWorldHandlerBenchmark {
+
+    @Param({"hello-get.json"})
+    public String fixture;
+
+    private byte[] eventBytes;
+
+    private APIGatewayProxyRequestEvent event;
+
+    private ObjectMapper mapper;
+
+    private HelloWorldHandler handler;
+
+    private HelloWorldStreamHandler streamHandler;
+
+    private ByteArrayOutputStream streamOutput;
+
+    private RuntimeContext context;
+
+    @Setup
+    public void setUp() throws IOException {
+        // configured the same way as LambdaRuntime
+        mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                                   .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        eventBytes = Fixtures.event(fixture);
+        event = mapper.readValue(eventBytes, APIGatewayProxyRequestEvent.class);
+        // the fixture is one client replayed: keep the rate limiter's cost in the numbers without it shedding anything
+        handler = new HelloWorldHandler(new TokenBucketLimiter(4096, Double.MAX_VALUE, 1), Fixtures.discardedMetrics());
+        streamHandler = new HelloWorldStreamHandler(new HelloWorldHandler(new TokenBucketLimiter(4096, Double.MAX_VALUE, 1), Fixtures.discardedMetrics()));
+        streamOutput = new ByteArrayOutputStream(1024);
+        context = new RuntimeContext("00000000-0000-4000-8000-000000000000", "arn:aws:lambda:eu-west-2:000000000000:function:jmh", Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent handleRequest() {
+        return handler.handleRequest(event, context);
+    }
+
+    @Benchmark
+    public String serializeResponseBody() throws IOException {
+        // the work a response cache hit avoids
+        HelloWorldResponse helloWorldResponse = new HelloWorldResponse();
+        helloWorldResponse.setMessage("Hello World!");
+        return mapper.writeValueAsString(helloWorldResponse);
+    }
+
+    @Benchmark
+    public APIGatewayProxyRequestEvent bindEvent() throws IOException {
+        return mapper.readValue(eventBytes, APIGatewayProxyRequestEvent.class);
+    }
+
+    @Benchmark
+    public byte[] databindRoundTrip() throws IOException {
+        APIGatewayProxyRequestEvent request = mapper.readValue(eventBytes, APIGatewayProxyRequestEvent.class);
+        return mapper.writeValueAsBytes(handler.handleRequest(request, context));
+    }
+
+    @Benchmark
+    public int streamRoundTrip() throws IOException {
+        streamOutput.reset();
+        streamHandler.handleRequest(new ByteArrayInputStream(eventBytes), streamOutput, context);
+        return streamOutput.size();
+    }
+}
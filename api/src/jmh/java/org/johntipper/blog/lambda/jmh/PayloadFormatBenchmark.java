@@ -0,0 +1,71 @@
+package org.johntipper.blog.lambda.jmh;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.lambda.ApiHandler;
+import org.johntipper.blog.lambda.HelloWorldHandler;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.runtime.LambdaRuntime;
+import org.johntipper.blog.lambda.runtime.RuntimeContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same request in REST API (v1) and HTTP API (v2) payload formats: binding the event alone, and the whole
+ * invocation as {@link LambdaRuntime} does it, binding the event, calling the handler through its {@link ApiHandler}
+ * entry point for the format and serializing the response. v2 drops {@code multiValueHeaders} and most of the
+ * request context, so there is less to parse.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PayloadFormatBenchmark {
+
+    @Param({"hello-get.json", "hello-get-query.json"})
+    public String fixture;
+
+    private byte[] restEventBytes;
+
+    private byte[] httpEventBytes;
+
+    private ObjectMapper mapper;
+
+    private HelloWorldHandler handler;
+
+    private RuntimeContext context;
+
+    @Setup
+    public void setUp() {
+        mapper = LambdaRuntime.eventMapper();
+        restEventBytes = Fixtures.event(fixture);
+        httpEventBytes = Fixtures.httpEvent(fixture);
+        // the fixture is one client replayed: keep the rate limiter's cost in the numbers without it shedding anything
+        handler = new HelloWorldHandler(new TokenBucketLimiter(4096, Double.MAX_VALUE, 1), Fixtures.discardedMetrics());
+        context = new RuntimeContext("00000000-0000-4000-8000-000000000000", "arn:aws:lambda:eu-west-2:000000000000:function:jmh", Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public APIGatewayProxyRequestEvent bindRestEvent() throws IOException {
+        return mapper.readValue(restEventBytes, APIGatewayProxyRequestEvent.class);
+    }
+
+    @Benchmark
+    public APIGatewayV2HTTPEvent bindHttpEvent() throws IOException {
+        return mapper.readValue(httpEventBytes, APIGatewayV2HTTPEvent.class);
+    }
+
+    @Benchmark
+    public byte[] restRoundTrip() throws IOException {
+        APIGatewayProxyRequestEvent request = mapper.readValue(restEventBytes, APIGatewayProxyRequestEvent.class);
+        return mapper.writeValueAsBytes(handler.handleRequest(request, context));
+    }
+
+    @Benchmark
+    public byte[] httpRoundTrip() throws IOException {
+        APIGatewayV2HTTPEvent request = mapper.readValue(httpEventBytes, APIGatewayV2HTTPEvent.class);
+        return mapper.writeValueAsBytes(handler.handleHttpRequest(request, context));
+    }
+}
@@ -0,0 +1,45 @@
+package org.johntipper.blog.lambda.jmh;
+
+import org.johntipper.blog.lambda.search.SearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load time and query latency of the search index built by {@code :api:buildSearchIndex} (whose output also reports
+ * the index size): mapping and opening it, as at init, and queries of one term, several terms, a term in every post
+ * and a term in none. Run with the gc profiler, the allocation per query is the tokenized query and the hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SearchIndexBenchmark {
+
+    @Param({"cdk", "gradle plugin testing", "aws", "kubernetes"})
+    public String query;
+
+    private Path indexFile;
+
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() throws IOException {
+        indexFile = Paths.get(System.getProperty("search.index", "build/search-index/search-index.bin"));
+        index = SearchIndex.open(indexFile);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SearchIndex open() throws IOException {
+        return SearchIndex.open(indexFile);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> search() {
+        return index.search(query, 10);
+    }
+}
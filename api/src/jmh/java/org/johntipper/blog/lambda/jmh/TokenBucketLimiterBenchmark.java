@@ -0,0 +1,93 @@
+package org.johntipper.blog.lambda.jmh;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.ratelimit.LoadShedder;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the rate limiter adds to every request: admitting a client alone and with 8 threads contending on one bucket or
+ * spread over many, rejecting one that is over its limit, and the whole per-call check the handlers make, origin
+ * secret check and client key from {@code X-Forwarded-For} included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenBucketLimiterBenchmark {
+
+    private static final String ORIGIN_SECRET = "9d0b6c4e2f7a41b8a3e5c1d7f0b2a4c6";
+
+    private TokenBucketLimiter admitting;
+
+    private TokenBucketLimiter shedding;
+
+    private LoadShedder loadShedder;
+
+    // as API Gateway passes on a request through CloudFront, with a typical browser's headers
+    private final ApiRequest forwardedRequest = new ApiRequest("GET", "/api/hello", "/hello", Map.of(),
+                                                               Map.of("Accept", "application/json",
+                                                                      "Accept-Encoding", "gzip, deflate, br",
+                                                                      "User-Agent", "Mozilla/5.0",
+                                                                      "Via", "2.0 1a2b3c.cloudfront.net (CloudFront)",
+                                                                      "X-Forwarded-For", "81.2.69.160, 70.132.1.1",
+                                                                      LoadShedder.ORIGIN_SECRET_HEADER, ORIGIN_SECRET),
+                                                               "70.132.1.1");
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private static final AtomicInteger NEXT = new AtomicInteger();
+
+        private final String sourceIp;
+
+        public Client() {
+            int n = NEXT.getAndIncrement();
+            sourceIp = String.format("81.2.%d.%d", n / 256, n % 256);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // never runs dry, so every call takes the compare-and-set path
+        admitting = new TokenBucketLimiter(4096, Double.MAX_VALUE, 1);
+        // one token a day, spent on the first call
+        shedding = new TokenBucketLimiter(4096, 1.0 / 86400, 1);
+        shedding.tryAcquire("81.2.69.160");
+        loadShedder = new LoadShedder(new TokenBucketLimiter(4096, Double.MAX_VALUE, 1), ORIGIN_SECRET);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long admit() {
+        return admitting.tryAcquire("81.2.69.160");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long admitContendedClient() {
+        return admitting.tryAcquire("81.2.69.160");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long admitDistinctClients(Client client) {
+        return admitting.tryAcquire(client.sourceIp);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long reject() {
+        return shedding.tryAcquire("81.2.69.160");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CachedResponse shedForwardedRequest() {
+        return loadShedder.shed(forwardedRequest);
+    }
+}
@@ -0,0 +1,64 @@
+package org.johntipper.blog.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+
+/**
+ * What the api handlers share: an invocation in either API Gateway payload format is read into an {@link ApiRequest},
+ * answered by {@link #respond(ApiRequest)} and written back in the same format. A REST API invokes
+ * {@code handleRequest} with the v1 proxy event, an HTTP API {@code handleHttpRequest} with the v2 one.
+ */
+public abstract class ApiHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    public static final String HTTP_HANDLER_METHOD = "handleHttpRequest";
+
+    private final InvocationMetrics metrics;
+
+    protected ApiHandler(InvocationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+        long start = metrics.start();
+        CachedResponse response = null;
+        try {
+            response = respond(ApiRequest.fromEvent(input));
+            return response.toResponseEvent();
+        } finally {
+            record(start, response);
+        }
+    }
+
+    public APIGatewayV2HTTPResponse handleHttpRequest(APIGatewayV2HTTPEvent input, Context context) {
+        long start = metrics.start();
+        CachedResponse response = null;
+        try {
+            response = respond(ApiRequest.fromHttpEvent(input));
+            return response.toHttpResponseEvent();
+        } finally {
+            record(start, response);
+        }
+    }
+
+    public abstract CachedResponse respond(ApiRequest request);
+
+    // in a finally block, so an invocation that throws is still recorded, as an error
+    private void record(long start, CachedResponse response) {
+        if (response == null) {
+            metrics.recordFailure(start);
+        } else {
+            metrics.record(start, response.getBodyBytes().length);
+        }
+    }
+
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+}
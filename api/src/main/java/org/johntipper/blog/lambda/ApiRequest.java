@@ -0,0 +1,88 @@
+package org.johntipper.blog.lambda;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+
+import java.util.Map;
+
+/**
+ * The parts of an API Gateway proxy request the handlers actually look at, independent of how the event was read and
+ * of its payload format.
+ */
+public class ApiRequest {
+
+    private final String httpMethod;
+
+    private final String path;
+
+    // the matched API Gateway resource, e.g. /posts/{slug}, independent of stage and base path
+    private final String resource;
+
+    private final Map<String, String> queryStringParameters;
+
+    private final Map<String, String> headers;
+
+    // from requestContext.identity: behind CloudFront, the edge location's address rather than the client's
+    private final String sourceIp;
+
+    public ApiRequest(String httpMethod, String path, String resource, Map<String, String> queryStringParameters, Map<String, String> headers, String sourceIp) {
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.resource = resource;
+        this.queryStringParameters = queryStringParameters == null ? Map.of() : queryStringParameters;
+        this.headers = headers == null ? Map.of() : headers;
+        this.sourceIp = sourceIp;
+    }
+
+    public static ApiRequest fromEvent(APIGatewayProxyRequestEvent event) {
+        APIGatewayProxyRequestEvent.RequestIdentity identity = event.getRequestContext() == null ? null : event.getRequestContext().getIdentity();
+        return new ApiRequest(event.getHttpMethod(), event.getPath(), event.getResource(), event.getQueryStringParameters(), event.getHeaders(),
+                              identity == null ? null : identity.getSourceIp());
+    }
+
+    /**
+     * From an HTTP API's v2 payload, whose route key ({@code GET /hello}) stands in for the REST resource.
+     */
+    public static ApiRequest fromHttpEvent(APIGatewayV2HTTPEvent event) {
+        APIGatewayV2HTTPEvent.RequestContext.Http http = event.getRequestContext() == null ? null : event.getRequestContext().getHttp();
+        String routeKey = event.getRouteKey();
+        return new ApiRequest(http == null ? null : http.getMethod(), event.getRawPath(),
+                              routeKey == null ? null : routeKey.substring(routeKey.indexOf(' ') + 1),
+                              event.getQueryStringParameters(), event.getHeaders(),
+                              http == null ? null : http.getSourceIp());
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public Map<String, String> getQueryStringParameters() {
+        return queryStringParameters;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getSourceIp() {
+        return sourceIp;
+    }
+
+    public String getHeader(String name) {
+        // API Gateway preserves the client's header casing, so match case-insensitively
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+}
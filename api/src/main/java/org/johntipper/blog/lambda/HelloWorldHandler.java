@@ -1,29 +1,74 @@
 package org.johntipper.blog.lambda;
 
-import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
-import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.johntipper.blog.api.HelloWorldResponse;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.cache.ResponseCache;
+import org.johntipper.blog.lambda.http.ResponsePipeline;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+import org.johntipper.blog.lambda.ratelimit.LoadShedder;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
 
-public class HelloWorldHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+public class HelloWorldHandler extends ApiHandler {
+
+    private static final CachedResponse EMPTY_OK = new CachedResponse(200, Map.of(), null);
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // survives between invocations in a warm container, so repeat requests skip serialization entirely
+    private final ResponseCache responseCache = new ResponseCache(256, Duration.ofMinutes(5), List.of("Accept"));
+
+    private final ResponsePipeline responsePipeline = ResponsePipeline.fromRouteResource();
+
+    // per container: API Gateway's stage throttling is the overall limit, this sheds single noisy clients
+    private final LoadShedder loadShedder;
+
+    public HelloWorldHandler() {
+        this(LoadShedder.limiterFromEnvironment());
+    }
+
+    public HelloWorldHandler(TokenBucketLimiter rateLimiter) {
+        this(rateLimiter, InvocationMetrics.forHandler("HelloWorldHandler"));
+    }
+
+    public HelloWorldHandler(TokenBucketLimiter rateLimiter, InvocationMetrics metrics) {
+        super(metrics);
+        this.loadShedder = new LoadShedder(rateLimiter);
+    }
+
     @Override
-    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
-        response.withStatusCode(200);
+    public CachedResponse respond(ApiRequest request) {
+        CachedResponse tooManyRequests = loadShedder.shed(request);
+        if (tooManyRequests != null) {
+            return tooManyRequests;
+        }
+
+        // ETag, Cache-Control and compression are worked out once per rendered body and cached with it
+        CachedResponse response = responseCache.get(request, () -> prepare(request, render()));
+        return responsePipeline.negotiate(request, response == null ? EMPTY_OK : response);
+    }
+
+    private CachedResponse prepare(ApiRequest request, CachedResponse rendered) {
+        return rendered == null ? null : responsePipeline.prepare(request, rendered);
+    }
+
+    private CachedResponse render() {
         try {
             HelloWorldResponse helloWorldResponse = new HelloWorldResponse();
             helloWorldResponse.setMessage("Hello World!");
-            response.withBody(mapper.writeValueAsString(helloWorldResponse));
+            return new CachedResponse(200, Map.of(), mapper.writeValueAsString(helloWorldResponse));
 
         } catch (JsonProcessingException ignore) {
+            return null;
         }
-        return response;
+    }
 
+    public ResponseCache getResponseCache() {
+        return responseCache;
     }
 }
@@ -0,0 +1,37 @@
+package org.johntipper.blog.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.stream.ProxyEventCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Same behaviour as {@link HelloWorldHandler}, but reads the proxy event and writes the proxy response directly on the
+ * invocation streams instead of having the runtime bind the whole {@code APIGatewayProxyRequestEvent}.
+ */
+public class HelloWorldStreamHandler implements RequestStreamHandler {
+
+    private final ProxyEventCodec codec = new ProxyEventCodec();
+
+    private final HelloWorldHandler handler;
+
+    public HelloWorldStreamHandler() {
+        this(new HelloWorldHandler());
+    }
+
+    public HelloWorldStreamHandler(HelloWorldHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        long start = handler.getMetrics().start();
+        CachedResponse response = handler.respond(codec.read(input));
+        codec.write(response, output);
+        handler.getMetrics().record(start, response.getBodyBytes().length);
+    }
+}
@@ -0,0 +1,108 @@
+package org.johntipper.blog.lambda;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.api.SearchResponse;
+import org.johntipper.blog.api.SearchResult;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.cache.ResponseCache;
+import org.johntipper.blog.lambda.http.ResponsePipeline;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+import org.johntipper.blog.lambda.ratelimit.LoadShedder;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.search.SearchIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full-text search over the blog posts, {@code GET /search?q=...}, answered from the {@link SearchIndex} built into the
+ * lambda zip. The index is mapped once per container, at init.
+ */
+public class SearchHandler extends ApiHandler {
+
+    public static final int MAX_RESULTS = 10;
+
+    // as in api.yaml
+    public static final int MAX_QUERY_LENGTH = 200;
+
+    private static final CachedResponse BAD_REQUEST = new CachedResponse(400, Map.of(), null);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ResponseCache responseCache = new ResponseCache(256, Duration.ofMinutes(5), List.of("Accept"));
+
+    private final ResponsePipeline responsePipeline = ResponsePipeline.fromRouteResource();
+
+    private final SearchIndex index;
+
+    private final LoadShedder loadShedder;
+
+    public SearchHandler() {
+        this(openDefaultIndex(), LoadShedder.limiterFromEnvironment());
+    }
+
+    public SearchHandler(SearchIndex index, TokenBucketLimiter rateLimiter) {
+        this(index, rateLimiter, InvocationMetrics.forHandler("SearchHandler"));
+    }
+
+    public SearchHandler(SearchIndex index, TokenBucketLimiter rateLimiter, InvocationMetrics metrics) {
+        super(metrics);
+        this.index = index;
+        this.loadShedder = new LoadShedder(rateLimiter);
+    }
+
+    private static SearchIndex openDefaultIndex() {
+        try {
+            return SearchIndex.open(SearchIndex.defaultPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CachedResponse respond(ApiRequest request) {
+        CachedResponse tooManyRequests = loadShedder.shed(request);
+        if (tooManyRequests != null) {
+            return tooManyRequests;
+        }
+
+        String query = request.getQueryStringParameters().get("q");
+        if (query == null || query.isBlank() || query.length() > MAX_QUERY_LENGTH) {
+            return BAD_REQUEST;
+        }
+
+        CachedResponse response = responseCache.get(request, () -> responsePipeline.prepare(request, render(query)));
+        return responsePipeline.negotiate(request, response);
+    }
+
+    private CachedResponse render(String query) {
+        List<SearchResult> results = new ArrayList<>();
+        for (SearchIndex.Hit hit : index.search(query, MAX_RESULTS)) {
+            SearchResult result = new SearchResult();
+            result.setPath(hit.getPath());
+            result.setTitle(hit.getTitle());
+            result.setDate(hit.getDate());
+            result.setExcerpt(hit.getExcerpt());
+            result.setScore(hit.getScore());
+            results.add(result);
+        }
+
+        SearchResponse searchResponse = new SearchResponse();
+        searchResponse.setQuery(query);
+        searchResponse.setResults(results);
+        try {
+            return new CachedResponse(200, Map.of(), mapper.writeValueAsString(searchResponse));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public SearchIndex getIndex() {
+        return index;
+    }
+}
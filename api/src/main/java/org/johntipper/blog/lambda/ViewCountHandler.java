@@ -0,0 +1,102 @@
+package org.johntipper.blog.lambda;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.api.ViewCountResponse;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.http.ResponsePipeline;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+import org.johntipper.blog.lambda.ratelimit.LoadShedder;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.search.SearchIndex;
+import org.johntipper.blog.lambda.views.DynamoDbViewStore;
+import org.johntipper.blog.lambda.views.ViewCounter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts a view of a blog post, {@code POST /views/{page}}, and returns the post's count. Views are coalesced by a
+ * {@link ViewCounter} per container; only the posts in the {@link SearchIndex} are counted, so made-up pages can't
+ * fill the table.
+ */
+public class ViewCountHandler extends ApiHandler {
+
+    private static final CachedResponse NOT_FOUND = new CachedResponse(404, Map.of(), null);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ResponsePipeline responsePipeline = ResponsePipeline.fromRouteResource();
+
+    private final Set<String> pages;
+
+    private final ViewCounter counter;
+
+    private final LoadShedder loadShedder;
+
+    public ViewCountHandler() {
+        this(indexedPages(), new ViewCounter(DynamoDbViewStore.fromEnvironment()), LoadShedder.limiterFromEnvironment());
+    }
+
+    public ViewCountHandler(Set<String> pages, ViewCounter counter, TokenBucketLimiter rateLimiter) {
+        this(pages, counter, rateLimiter, InvocationMetrics.forHandler("ViewCountHandler"));
+    }
+
+    public ViewCountHandler(Set<String> pages, ViewCounter counter, TokenBucketLimiter rateLimiter, InvocationMetrics metrics) {
+        super(metrics);
+        this.pages = pages;
+        this.counter = counter;
+        this.loadShedder = new LoadShedder(rateLimiter);
+    }
+
+    /**
+     * @return the page names of the posts in the search index, their permalinks without slashes
+     */
+    public static Set<String> indexedPages() {
+        try {
+            SearchIndex index = SearchIndex.open(SearchIndex.defaultPath());
+            Set<String> pages = new HashSet<>();
+            for (int document = 0; document < index.getDocumentCount(); document++) {
+                pages.add(index.getPath(document).replace("/", ""));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CachedResponse respond(ApiRequest request) {
+        CachedResponse tooManyRequests = loadShedder.shed(request);
+        if (tooManyRequests != null) {
+            return tooManyRequests;
+        }
+
+        // the {page} path parameter, whatever stage or base path it is under
+        String path = request.getPath() == null ? "" : request.getPath();
+        String page = path.substring(path.lastIndexOf('/') + 1);
+        if (!pages.contains(page)) {
+            return NOT_FOUND;
+        }
+
+        return responsePipeline.negotiate(request, responsePipeline.prepare(request, render(page, counter.increment(page))));
+    }
+
+    private CachedResponse render(String page, long views) {
+        ViewCountResponse viewCountResponse = new ViewCountResponse();
+        viewCountResponse.setPage(page);
+        viewCountResponse.setViews(views);
+        try {
+            return new CachedResponse(200, Map.of(), mapper.writeValueAsString(viewCountResponse));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ViewCounter getCounter() {
+        return counter;
+    }
+}
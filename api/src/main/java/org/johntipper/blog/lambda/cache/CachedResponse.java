@@ -0,0 +1,83 @@
+package org.johntipper.blog.lambda.cache;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A fully rendered response whose body has already been serialized, so serving it again costs no Jackson work. The
+ * body may be {@code null} for responses without one, and is base64 for binary (e.g. compressed) bodies. A response may
+ * carry a gzip-encoded variant of itself, compressed once when rendered and chosen per request.
+ */
+public class CachedResponse {
+
+    private final int statusCode;
+
+    private final Map<String, String> headers;
+
+    private final String body;
+
+    private final byte[] bodyBytes;
+
+    private final boolean base64Encoded;
+
+    private final CachedResponse gzipped;
+
+    public CachedResponse(int statusCode, Map<String, String> headers, String body) {
+        this(statusCode, headers, body, false, null);
+    }
+
+    public CachedResponse(int statusCode, Map<String, String> headers, String body, boolean base64Encoded, CachedResponse gzipped) {
+        this.statusCode = statusCode;
+        this.headers = Map.copyOf(headers);
+        this.body = body;
+        this.bodyBytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        this.base64Encoded = base64Encoded;
+        this.gzipped = gzipped;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public byte[] getBodyBytes() {
+        return bodyBytes;
+    }
+
+    public boolean isBase64Encoded() {
+        return base64Encoded;
+    }
+
+    /**
+     * @return the gzip-encoded variant, or {@code null} if the body was too small or didn't compress
+     */
+    public CachedResponse getGzipped() {
+        return gzipped;
+    }
+
+    public APIGatewayProxyResponseEvent toResponseEvent() {
+        return new APIGatewayProxyResponseEvent().withStatusCode(statusCode)
+                                                 .withHeaders(headers)
+                                                 .withBody(body)
+                                                 .withIsBase64Encoded(base64Encoded);
+    }
+
+    public APIGatewayV2HTTPResponse toHttpResponseEvent() {
+        return APIGatewayV2HTTPResponse.builder()
+                                       .withStatusCode(statusCode)
+                                       .withHeaders(headers)
+                                       .withBody(body)
+                                       .withIsBase64Encoded(base64Encoded)
+                                       .build();
+    }
+}
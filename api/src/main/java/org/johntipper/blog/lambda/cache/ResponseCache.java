@@ -0,0 +1,171 @@
+package org.johntipper.blog.lambda.cache;
+
+import org.johntipper.blog.lambda.ApiRequest;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, TTL-expiring LRU cache of rendered responses, living for the lifetime of a warm Lambda container. Keys are
+ * built from the method, normalized path, sorted query string and the values of a fixed set of headers that the
+ * responses vary on.
+ */
+public class ResponseCache {
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    private final List<String> varyHeaders;
+
+    private final LongSupplier nanoClock;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResponseCache(int maxEntries, Duration ttl, Collection<String> varyHeaders) {
+        this(maxEntries, ttl, varyHeaders, System::nanoTime);
+    }
+
+    public ResponseCache(int maxEntries, Duration ttl, Collection<String> varyHeaders, LongSupplier nanoClock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+
+        List<String> sortedVaryHeaders = new ArrayList<>(varyHeaders);
+        sortedVaryHeaders.sort(String.CASE_INSENSITIVE_ORDER);
+        this.varyHeaders = List.copyOf(sortedVaryHeaders);
+
+        // access-ordered, so iteration order is least recently used first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResponseCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached response for the request, rendering and storing it on a miss. A {@code null} from the
+     * renderer is passed through and not cached.
+     */
+    public CachedResponse get(ApiRequest request, Supplier<CachedResponse> renderer) {
+        String key = keyFor(request);
+        long now = nanoClock.getAsLong();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.expiresAtNanos < 0) {
+                hits.incrementAndGet();
+                return entry.response;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        CachedResponse response = renderer.get();
+        if (response != null) {
+            synchronized (entries) {
+                entries.put(key, new Entry(response, now + ttlNanos));
+            }
+        }
+        return response;
+    }
+
+    public String keyFor(ApiRequest request) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(request.getHttpMethod())
+           .append(' ')
+           .append(normalizePath(request.getPath()));
+
+        Map<String, String> queryParameters = request.getQueryStringParameters();
+        if (!queryParameters.isEmpty()) {
+            char separator = '?';
+            for (Map.Entry<String, String> parameter : new TreeMap<>(queryParameters).entrySet()) {
+                // escaped, or {q: "x", r: "y"} and {q: "x&r=y"} would share a key, and one search get the other's results
+                key.append(separator)
+                   .append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8))
+                   .append('=')
+                   .append(URLEncoder.encode(Objects.toString(parameter.getValue(), ""), StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+
+        for (String header : varyHeaders) {
+            key.append('\n')
+               .append(header)
+               .append(':')
+               .append(Objects.toString(request.getHeader(header), ""));
+        }
+        return key.toString();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    static String normalizePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder normalized = new StringBuilder(path.length() + 1);
+        if (path.charAt(0) != '/') {
+            normalized.append('/');
+        }
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            // collapse repeated slashes
+            if (c == '/' && normalized.length() > 0 && normalized.charAt(normalized.length() - 1) == '/') {
+                continue;
+            }
+            normalized.append(c);
+        }
+        if (normalized.length() > 1 && normalized.charAt(normalized.length() - 1) == '/') {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString();
+    }
+
+    private static final class Entry {
+
+        private final CachedResponse response;
+
+        private final long expiresAtNanos;
+
+        private Entry(CachedResponse response, long expiresAtNanos) {
+            this.response = response;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.johntipper.blog.lambda.http;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP semantics for rendered responses, in two steps. {@link #prepare} runs once per rendered body (i.e. on response
+ * cache misses): it adds a strong {@code ETag} and the route's {@code Cache-Control}, and compresses bodies large enough
+ * to be worth it. {@link #negotiate} runs on every request: it answers a matching {@code If-None-Match} with a 304 and
+ * picks the gzip variant when the client accepts it.
+ * <p>
+ * Route {@code Cache-Control} values come from the {@code x-cache-control} extension on each operation in
+ * {@code api.yaml}, which the build writes to {@value #ROUTE_CACHE_CONTROL_RESOURCE}.
+ */
+public class ResponsePipeline {
+
+    public static final String ROUTE_CACHE_CONTROL_RESOURCE = "/route-cache-control.properties";
+
+    // CloudFront won't compress below 1,000 bytes either: the gzip framing eats most of the saving
+    public static final int DEFAULT_COMPRESS_THRESHOLD_BYTES = 1000;
+
+    private static final String GZIP = "gzip";
+
+    // keyed "GET /hello", by API Gateway resource
+    private final Map<String, String> cacheControlByRoute;
+
+    private final int compressThresholdBytes;
+
+    public ResponsePipeline(Map<String, String> cacheControlByRoute, int compressThresholdBytes) {
+        this.cacheControlByRoute = Map.copyOf(cacheControlByRoute);
+        this.compressThresholdBytes = compressThresholdBytes;
+    }
+
+    public static ResponsePipeline fromRouteResource() {
+        Properties routes = new Properties();
+        try (InputStream in = ResponsePipeline.class.getResourceAsStream(ROUTE_CACHE_CONTROL_RESOURCE)) {
+            if (in != null) {
+                routes.load(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, String> cacheControlByRoute = new HashMap<>();
+        routes.stringPropertyNames().forEach(route -> cacheControlByRoute.put(route, routes.getProperty(route)));
+        return new ResponsePipeline(cacheControlByRoute, DEFAULT_COMPRESS_THRESHOLD_BYTES);
+    }
+
+    public CachedResponse prepare(ApiRequest request, CachedResponse rendered) {
+        if (rendered.getStatusCode() != 200 || rendered.getBody() == null) {
+            return rendered;
+        }
+
+        Map<String, String> headers = new HashMap<>(rendered.getHeaders());
+        String cacheControl = cacheControlByRoute.get(String.format("%s %s", request.getHttpMethod(), request.getResource()));
+        if (cacheControl != null) {
+            headers.put("Cache-Control", cacheControl);
+        }
+
+        String tag = tag(rendered.getBodyBytes());
+        CachedResponse gzipped = null;
+        if (rendered.getBodyBytes().length >= compressThresholdBytes) {
+            byte[] compressed = gzip(rendered.getBodyBytes());
+            if (compressed.length < rendered.getBodyBytes().length) {
+                headers.put("Vary", "Accept-Encoding");
+
+                Map<String, String> gzipHeaders = new HashMap<>(headers);
+                // a strong validator has to differ between content codings of the same body
+                gzipHeaders.put("ETag", String.format("\"%s-%s\"", tag, GZIP));
+                gzipHeaders.put("Content-Encoding", GZIP);
+                gzipped = new CachedResponse(200, gzipHeaders, Base64.getEncoder().encodeToString(compressed), true, null);
+            }
+        }
+
+        headers.put("ETag", String.format("\"%s\"", tag));
+        return new CachedResponse(200, headers, rendered.getBody(), rendered.isBase64Encoded(), gzipped);
+    }
+
+    public CachedResponse negotiate(ApiRequest request, CachedResponse prepared) {
+        CachedResponse selected = prepared.getGzipped() != null && acceptsGzip(request.getHeader("Accept-Encoding")) ? prepared.getGzipped() : prepared;
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && isConditional(request.getHttpMethod()) && matchesAnyVariant(ifNoneMatch, prepared)) {
+            Map<String, String> headers = new HashMap<>();
+            for (String name : List.of("ETag", "Cache-Control", "Vary")) {
+                String value = selected.getHeaders().get(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+            return new CachedResponse(304, headers, null);
+        }
+        return selected;
+    }
+
+    private static boolean matchesAnyVariant(String ifNoneMatch, CachedResponse prepared) {
+        // the body is the same whichever coding the client cached it in
+        String etag = prepared.getHeaders().get("ETag");
+        String gzipEtag = prepared.getGzipped() == null ? null : prepared.getGzipped().getHeaders().get("ETag");
+        return (etag != null && matches(ifNoneMatch, etag)) || (gzipEtag != null && matches(ifNoneMatch, gzipEtag));
+    }
+
+    private static boolean isConditional(String httpMethod) {
+        return "GET".equals(httpMethod) || "HEAD".equals(httpMethod);
+    }
+
+    /**
+     * If-None-Match uses the weak comparison: {@code W/} prefixes are ignored and {@code *} matches anything.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        String opaqueTag = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || stripWeak(trimmed).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        // an explicit gzip entry wins over "*" wherever each appears, so "*;q=0, gzip" accepts it and "gzip;q=0, *"
+        // refuses it
+        double gzipQuality = -1;
+        double anyQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            if (name.equals(GZIP)) {
+                gzipQuality = quality(parameters);
+            } else if (name.equals("*")) {
+                anyQuality = quality(parameters);
+            }
+        }
+        return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim().toLowerCase(Locale.ROOT);
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    static String tag(byte[] body) {
+        // 128 bits of SHA-256 is plenty to tell bodies apart
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,307 @@
+package org.johntipper.blog.lambda.metrics;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A handler's invocation metrics, written to stdout as CloudWatch Embedded Metric Format (EMF) lines, which CloudWatch
+ * Logs turns into metrics with no API calls from the function. Each invocation's duration and response size go into
+ * histograms, which is all recording does (no allocation), and a flush reuses its buffers, so once warm neither
+ * allocates. The first invocation of a container is the cold start:
+ * it's flushed straight away with {@code ColdStart} set and the {@code InitDuration}, time from process start to the
+ * handler being constructed. After that the histograms are flushed at most once per flush interval, checked as each
+ * invocation ends, so anything recorded after the last flush of a container that's then shut down is lost. An
+ * invocation that throws is recorded with {@link #recordFailure}: its duration goes into the histogram as any other's,
+ * it has no response size, and it's counted in {@code Errors}.
+ * <p>
+ * Histograms are written in EMF's {@code Values}/{@code Counts} form, one value per non-empty bucket, so CloudWatch can
+ * work out percentiles across lines; EMF takes at most {@value #MAX_VALUES_PER_METRIC} values per metric per line, and
+ * a flush with more than that is split over several lines.
+ */
+public class InvocationMetrics {
+
+    public static final String NAMESPACE = "Blog/Api";
+
+    public static final String DIMENSION = "Handler";
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMinutes(1);
+
+    static final int MAX_VALUES_PER_METRIC = 100;
+
+    private final String handlerName;
+
+    private final PrintStream out;
+
+    private final LongSupplier nanoClock;
+
+    private final LongSupplier epochMillisClock;
+
+    private final long flushIntervalNanos;
+
+    private final long initDurationMillis;
+
+    private final LogLinearHistogram durationMicros = new LogLinearHistogram();
+
+    private final LogLinearHistogram responseBytes = new LogLinearHistogram();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicBoolean cold = new AtomicBoolean(true);
+
+    // reused by every flush
+    private final StringBuilder line = new StringBuilder(16384);
+
+    private final StringBuilder definitions = new StringBuilder(256);
+
+    private final long[] counts = new long[MAX_VALUES_PER_METRIC];
+
+    private final long[] durationCounts = new long[LogLinearHistogram.BUCKET_COUNT];
+
+    private final long[] sizeCounts = new long[LogLinearHistogram.BUCKET_COUNT];
+
+    private byte[] encoded = new byte[16384];
+
+    private boolean coldStartPending;
+
+    private volatile long lastFlushNanos;
+
+    /**
+     * @param initDurationMillis reported with the cold start, or negative if unknown
+     */
+    public InvocationMetrics(String handlerName, PrintStream out, LongSupplier nanoClock, LongSupplier epochMillisClock, Duration flushInterval, long initDurationMillis) {
+        this.handlerName = handlerName;
+        this.out = out;
+        this.nanoClock = nanoClock;
+        this.epochMillisClock = epochMillisClock;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.initDurationMillis = initDurationMillis;
+        this.lastFlushNanos = nanoClock.getAsLong();
+    }
+
+    public static InvocationMetrics forHandler(String handlerName) {
+        return forHandler(handlerName, System.out);
+    }
+
+    public static InvocationMetrics forHandler(String handlerName, PrintStream out) {
+        return new InvocationMetrics(handlerName, out, System::nanoTime, System::currentTimeMillis, DEFAULT_FLUSH_INTERVAL, processAgeMillis());
+    }
+
+    private static long processAgeMillis() {
+        return ProcessHandle.current()
+                            .info()
+                            .startInstant()
+                            .map(start -> System.currentTimeMillis() - start.toEpochMilli())
+                            .orElse(-1L);
+    }
+
+    /**
+     * @return the start of an invocation, to pass to {@link #record}
+     */
+    public long start() {
+        return nanoClock.getAsLong();
+    }
+
+    public void record(long startNanos, int responseSize) {
+        responseBytes.record(responseSize);
+        recordInvocation(startNanos, false);
+    }
+
+    /**
+     * Records an invocation that threw, so had no response.
+     */
+    public void recordFailure(long startNanos) {
+        recordInvocation(startNanos, true);
+    }
+
+    private void recordInvocation(long startNanos, boolean failed) {
+        long now = nanoClock.getAsLong();
+        durationMicros.record((now - startNanos) / 1000);
+        if (failed) {
+            errors.incrementAndGet();
+        }
+
+        if (cold.get() && cold.compareAndSet(true, false)) {
+            synchronized (this) {
+                coldStartPending = true;
+            }
+            flush(now);
+        } else if (now - lastFlushNanos >= flushIntervalNanos) {
+            flush(now);
+        }
+    }
+
+    public void flush() {
+        flush(nanoClock.getAsLong());
+    }
+
+    private synchronized void flush(long now) {
+        lastFlushNanos = now;
+        // drained bucket by bucket, so an invocation recorded during the flush is in this one or the next, never lost
+        long invocations = durationMicros.drainTo(durationCounts);
+        long sizes = responseBytes.drainTo(sizeCounts);
+        if (invocations == 0 && sizes == 0) {
+            return;
+        }
+        long failed = errors.getAndSet(0);
+
+        long timestamp = epochMillisClock.getAsLong();
+        int durationBucket = 0;
+        int sizeBucket = 0;
+        boolean first = true;
+        while (first || durationBucket < LogLinearHistogram.BUCKET_COUNT || sizeBucket < LogLinearHistogram.BUCKET_COUNT) {
+            line.setLength(0);
+            line.append("{\"_aws\":{\"Timestamp\":")
+                .append(timestamp)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"")
+                .append(NAMESPACE)
+                .append("\",\"Dimensions\":[[\"")
+                .append(DIMENSION)
+                .append("\"]],\"Metrics\":[");
+            int definitionsAt = line.length();
+            line.append("]}]},\"")
+                .append(DIMENSION)
+                .append("\":\"")
+                .append(handlerName)
+                .append('"');
+
+            // values first, then the definitions of whichever metrics this line ended up with
+            definitions.setLength(0);
+            int withoutDuration = line.length();
+            int nextDurationBucket = appendHistogram("Duration", durationCounts, 3, durationBucket);
+            if (line.length() != withoutDuration) {
+                definitions.append("{\"Name\":\"Duration\",\"Unit\":\"Milliseconds\"}");
+            }
+            int withoutSize = line.length();
+            int nextSizeBucket = appendHistogram("ResponseSize", sizeCounts, 0, sizeBucket);
+            if (line.length() != withoutSize) {
+                separate(definitions).append("{\"Name\":\"ResponseSize\",\"Unit\":\"Bytes\"}");
+            }
+            if (first) {
+                line.append(",\"Invocations\":").append(invocations);
+                separate(definitions).append("{\"Name\":\"Invocations\",\"Unit\":\"Count\"}");
+                line.append(",\"Errors\":").append(failed);
+                separate(definitions).append("{\"Name\":\"Errors\",\"Unit\":\"Count\"}");
+                line.append(",\"ColdStart\":").append(coldStartPending ? 1 : 0);
+                separate(definitions).append("{\"Name\":\"ColdStart\",\"Unit\":\"Count\"}");
+                if (coldStartPending && initDurationMillis >= 0) {
+                    line.append(",\"InitDuration\":").append(initDurationMillis);
+                    separate(definitions).append("{\"Name\":\"InitDuration\",\"Unit\":\"Milliseconds\"}");
+                }
+            }
+            line.append('}')
+                .insert(definitionsAt, definitions);
+            writeLine();
+
+            durationBucket = nextDurationBucket;
+            sizeBucket = nextSizeBucket;
+            first = false;
+        }
+
+        coldStartPending = false;
+    }
+
+    // println would make a String of the line, and then bytes of that; the line is all ASCII (JSON punctuation, numbers
+    // and the handler's class name), so its chars are copied straight into a reused byte buffer instead
+    private void writeLine() {
+        int length = line.length();
+        if (encoded.length < length + 1) {
+            encoded = new byte[Math.max(length + 1, encoded.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            encoded[i] = (byte) line.charAt(i);
+        }
+        encoded[length] = '\n';
+        out.write(encoded, 0, length + 1);
+    }
+
+    /**
+     * Appends up to {@value #MAX_VALUES_PER_METRIC} non-empty buckets from {@code fromBucket} on, with their own
+     * min, max, count and sum, as {@code ,"name":{...}}, unless there are none left. Values are divided by
+     * 10<sup>{@code scale}</sup>.
+     *
+     * @return the non-empty bucket to carry on from on the next line, {@link LogLinearHistogram#BUCKET_COUNT} once done
+     */
+    private int appendHistogram(String name, long[] bucketCounts, int scale, int fromBucket) {
+        int bucket = fromBucket;
+        while (bucket < LogLinearHistogram.BUCKET_COUNT && bucketCounts[bucket] == 0) {
+            bucket++;
+        }
+        if (bucket == LogLinearHistogram.BUCKET_COUNT) {
+            return bucket;
+        }
+
+        line.append(",\"").append(name).append("\":{\"Values\":[");
+        int values = 0;
+        long count = 0;
+        // in tenths of the histogram's units, which every representative value (a whole or half unit) is exact in
+        long sum = 0;
+        long min = 0;
+        long max = 0;
+        for (; bucket < LogLinearHistogram.BUCKET_COUNT && values < MAX_VALUES_PER_METRIC; bucket++) {
+            long bucketCount = bucketCounts[bucket];
+            if (bucketCount == 0) {
+                continue;
+            }
+            long value = Math.round(LogLinearHistogram.representativeValue(bucket) * 10);
+            if (values > 0) {
+                line.append(',');
+            }
+            appendDecimal(value, scale + 1);
+            counts[values++] = bucketCount;
+            min = count == 0 ? value : min;
+            max = value;
+            count += bucketCount;
+            sum += value * bucketCount;
+        }
+        // past any empty buckets, so a histogram that filled this line exactly doesn't start an empty one
+        while (bucket < LogLinearHistogram.BUCKET_COUNT && bucketCounts[bucket] == 0) {
+            bucket++;
+        }
+
+        line.append("],\"Counts\":[");
+        for (int i = 0; i < values; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(counts[i]);
+        }
+        line.append("],\"Min\":");
+        appendDecimal(min, scale + 1);
+        line.append(",\"Max\":");
+        appendDecimal(max, scale + 1);
+        line.append(",\"Count\":").append(count)
+            .append(",\"Sum\":");
+        appendDecimal(sum, scale + 1);
+        line.append('}');
+        return bucket;
+    }
+
+    // unscaled / 10^scale, exactly, without StringBuilder.append(double), which can allocate on its slow path
+    private void appendDecimal(long unscaled, int scale) {
+        long unit = 1;
+        for (int i = 0; i < scale; i++) {
+            unit *= 10;
+        }
+        line.append(unscaled / unit);
+        long fraction = unscaled % unit;
+        if (fraction == 0) {
+            return;
+        }
+        line.append('.');
+        for (long digit = unit / 10; fraction > 0; digit /= 10) {
+            line.append((char) ('0' + fraction / digit));
+            fraction %= digit;
+        }
+    }
+
+    private static StringBuilder separate(StringBuilder metrics) {
+        return metrics.length() > 0 ? metrics.append(',') : metrics;
+    }
+
+    public String getHandlerName() {
+        return handlerName;
+    }
+}
@@ -0,0 +1,65 @@
+package org.johntipper.blog.lambda.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative longs in log-linear buckets: exact below 16, then 16 buckets per power of two, so any value
+ * is reported within about 3% of itself. Recording is one atomic increment into a preallocated array, and never
+ * allocates. It's read by draining, which empties each bucket as it reads it, so nothing recorded meanwhile is lost.
+ */
+public class LogLinearHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // exact buckets for 0-15, then 16 per power of two up to 2^63
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @return the middle of the bucket's range, which is what gets reported for every value in it
+     */
+    public static double representativeValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (width - 1) / 2.0;
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Moves each bucket's count into {@code bucketCounts} and empties the bucket in the same {@code getAndSet}, so a
+     * value recorded while draining is either in this drain or left for the next.
+     *
+     * @return the number of values drained
+     */
+    public long drainTo(long[] bucketCounts) {
+        long drained = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            bucketCounts[bucket] = counts.getAndSet(bucket, 0);
+            drained += bucketCounts[bucket];
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,122 @@
+package org.johntipper.blog.lambda.ratelimit;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a {@link TokenBucketLimiter} verdict into the handlers' 429s. Clients are told apart by the viewer address
+ * CloudFront saw: its {@code CloudFront-Viewer-Address} header, else the {@code X-Forwarded-For} entry CloudFront
+ * appended, or by source IP for requests that came with neither. The api is also reachable without CloudFront, where a
+ * client can send those headers itself, so they're only believed on requests carrying the origin secret CloudFront
+ * adds as {@value #ORIGIN_SECRET_HEADER}.
+ */
+public class LoadShedder {
+
+    // as the distribution's api origin sends it
+    public static final String ORIGIN_SECRET_HEADER = "X-Origin-Secret";
+
+    public static final String ORIGIN_SECRET_VARIABLE = "ORIGIN_SECRET";
+
+    // 429s for each Retry-After up to a minute, so shedding load allocates nothing
+    private static final CachedResponse[] TOO_MANY_REQUESTS = new CachedResponse[61];
+
+    static {
+        for (int seconds = 1; seconds < TOO_MANY_REQUESTS.length; seconds++) {
+            TOO_MANY_REQUESTS[seconds] = new CachedResponse(429, Map.of("Retry-After", Integer.toString(seconds)), null);
+        }
+    }
+
+    private final TokenBucketLimiter rateLimiter;
+
+    // null when the api isn't deployed behind CloudFront with one, so every client is keyed on its source IP
+    private final String originSecret;
+
+    /**
+     * With the origin secret from {@code ORIGIN_SECRET}.
+     */
+    public LoadShedder(TokenBucketLimiter rateLimiter) {
+        this(rateLimiter, System.getenv(ORIGIN_SECRET_VARIABLE));
+    }
+
+    public LoadShedder(TokenBucketLimiter rateLimiter, String originSecret) {
+        this.rateLimiter = rateLimiter;
+        this.originSecret = originSecret == null || originSecret.isEmpty() ? null : originSecret;
+    }
+
+    /**
+     * A limiter sized for one container, with the per-client rate and burst from {@code RATE_LIMIT_PER_SECOND} and
+     * {@code RATE_LIMIT_BURST}.
+     */
+    public static TokenBucketLimiter limiterFromEnvironment() {
+        return new TokenBucketLimiter(4096,
+                                      Double.parseDouble(System.getenv().getOrDefault("RATE_LIMIT_PER_SECOND", "5")),
+                                      Integer.parseInt(System.getenv().getOrDefault("RATE_LIMIT_BURST", "20")));
+    }
+
+    /**
+     * @return a 429 if the client is over its limit, otherwise {@code null}
+     */
+    public CachedResponse shed(ApiRequest request) {
+        String clientKey = clientKey(request);
+        if (clientKey == null) {
+            return null;
+        }
+
+        long waitNanos = rateLimiter.tryAcquire(clientKey);
+        if (waitNanos <= 0) {
+            return null;
+        }
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return TOO_MANY_REQUESTS[(int) Math.min(retryAfterSeconds, TOO_MANY_REQUESTS.length - 1)];
+    }
+
+    // through CloudFront the source IP is an edge location's, shared by every viewer behind it. Entries left of the one
+    // CloudFront appended to X-Forwarded-For came from the client, so only that one and CloudFront's own header count
+    String clientKey(ApiRequest request) {
+        if (!fromCloudFront(request)) {
+            return request.getSourceIp();
+        }
+
+        String viewerAddress = request.getHeader("CloudFront-Viewer-Address");
+        if (viewerAddress != null) {
+            // ip:port, IPv6 addresses unbracketed
+            int colon = viewerAddress.lastIndexOf(':');
+            String ip = (colon < 0 ? viewerAddress : viewerAddress.substring(0, colon)).trim();
+            if (!ip.isEmpty()) {
+                return ip;
+            }
+        }
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (forwardedFor != null) {
+            int end = forwardedFor.length();
+            int comma = forwardedFor.lastIndexOf(',', end - 1);
+            // API Gateway appends the edge location it got the request from, which is the source IP
+            if (comma >= 0 && forwardedFor.substring(comma + 1, end).trim().equals(request.getSourceIp())) {
+                end = comma;
+                comma = forwardedFor.lastIndexOf(',', end - 1);
+            }
+            String last = forwardedFor.substring(comma + 1, end).trim();
+            if (!last.isEmpty() && !last.equals(request.getSourceIp())) {
+                return last;
+            }
+        }
+        return request.getSourceIp();
+    }
+
+    // compares every character whatever the first mismatch, so the time taken doesn't give the secret away
+    private boolean fromCloudFront(ApiRequest request) {
+        String sentSecret = originSecret == null ? null : request.getHeader(ORIGIN_SECRET_HEADER);
+        if (sentSecret == null || sentSecret.length() != originSecret.length()) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < sentSecret.length(); i++) {
+            difference |= sentSecret.charAt(i) ^ originSecret.charAt(i);
+        }
+        return difference == 0;
+    }
+}
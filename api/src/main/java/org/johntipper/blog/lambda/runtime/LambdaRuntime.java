@@ -0,0 +1,184 @@
+package org.johntipper.blog.lambda.runtime;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.lambda.ApiHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Entry point of the native-image {@code bootstrap} executable for the {@code provided.al2} runtime: polls the Lambda
+ * Runtime API for invocations and dispatches them to the handler named by {@code _HANDLER}, which may be either a
+ * {@link RequestHandler} of API Gateway proxy events or a {@link RequestStreamHandler}. A handler named with
+ * {@link ApiHandler#HTTP_HANDLER_METHOD} is invoked with HTTP API (payload v2) events instead.
+ */
+public class LambdaRuntime {
+
+    private static final String RUNTIME_API_VERSION = "2018-06-01";
+
+    // a JVM can't set its own environment, so this stands in for _X_AMZN_TRACE_ID; the X-Ray SDK reads either
+    static final String TRACE_ID_PROPERTY = "com.amazonaws.xray.traceHeader";
+
+    private final String runtimeApiEndpoint;
+
+    private final Object handler;
+
+    private final boolean httpPayload;
+
+    private final ObjectMapper mapper = eventMapper();
+
+    public LambdaRuntime(String runtimeApiEndpoint, Object handler) {
+        this(runtimeApiEndpoint, handler, "handleRequest");
+    }
+
+    public LambdaRuntime(String runtimeApiEndpoint, Object handler, String handlerMethod) {
+        this.httpPayload = ApiHandler.HTTP_HANDLER_METHOD.equals(handlerMethod);
+        if (httpPayload && !(handler instanceof ApiHandler)) {
+            throw new IllegalArgumentException(String.format("%s is not an ApiHandler", handler.getClass().getName()));
+        }
+        if (!(handler instanceof RequestHandler || handler instanceof RequestStreamHandler)) {
+            throw new IllegalArgumentException(String.format("%s is neither a RequestHandler nor a RequestStreamHandler", handler.getClass().getName()));
+        }
+        this.runtimeApiEndpoint = runtimeApiEndpoint;
+        this.handler = handler;
+    }
+
+    /**
+     * Binds the API Gateway events as the managed Java runtime does, in both payload formats.
+     */
+    public static ObjectMapper eventMapper() {
+        return new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                                 .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                                 .addMixIn(APIGatewayV2HTTPEvent.class, IsBase64EncodedMixIn.class)
+                                 .addMixIn(APIGatewayV2HTTPResponse.class, IsBase64EncodedMixIn.class);
+    }
+
+    // the v2 classes' isBase64Encoded()/setBase64Encoded() would otherwise bind as "base64Encoded"
+    private abstract static class IsBase64EncodedMixIn {
+
+        @JsonProperty("isBase64Encoded")
+        abstract boolean isBase64Encoded();
+
+        @JsonProperty("isBase64Encoded")
+        abstract void setBase64Encoded(boolean base64Encoded);
+    }
+
+    public void run() throws IOException {
+        while (true) {
+            HttpURLConnection next = open("invocation/next", "GET");
+            String requestId = next.getHeaderField("Lambda-Runtime-Aws-Request-Id");
+            String deadline = next.getHeaderField("Lambda-Runtime-Deadline-Ms");
+            RuntimeContext context = new RuntimeContext(requestId,
+                                                        next.getHeaderField("Lambda-Runtime-Invoked-Function-Arn"),
+                                                        deadline == null ? Long.MAX_VALUE : Long.parseLong(deadline));
+            setTraceId(next.getHeaderField("Lambda-Runtime-Trace-Id"));
+
+            byte[] result;
+            String outcome;
+            try (InputStream in = next.getInputStream()) {
+                result = invoke(in, context);
+                outcome = "response";
+            } catch (Exception e) {
+                result = mapper.writeValueAsBytes(Map.of("errorMessage", String.valueOf(e.getMessage()),
+                                                         "errorType", e.getClass().getName()));
+                outcome = "error";
+            }
+
+            post(String.format("invocation/%s/%s", requestId, outcome), result);
+        }
+    }
+
+    /**
+     * Passes the invocation's X-Ray trace header on, as a custom runtime has to, or clears the previous invocation's.
+     */
+    static void setTraceId(String traceId) {
+        if (traceId == null) {
+            System.clearProperty(TRACE_ID_PROPERTY);
+        } else {
+            System.setProperty(TRACE_ID_PROPERTY, traceId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] invoke(InputStream in, RuntimeContext context) throws IOException {
+        if (handler instanceof RequestStreamHandler) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            ((RequestStreamHandler) handler).handleRequest(in, out, context);
+            return out.toByteArray();
+        }
+
+        if (httpPayload) {
+            APIGatewayV2HTTPEvent event = mapper.readValue(in, APIGatewayV2HTTPEvent.class);
+            return mapper.writeValueAsBytes(((ApiHandler) handler).handleHttpRequest(event, context));
+        }
+
+        APIGatewayProxyRequestEvent event = mapper.readValue(in, APIGatewayProxyRequestEvent.class);
+        return mapper.writeValueAsBytes(((RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>) handler).handleRequest(event, context));
+    }
+
+    private void post(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = open(path, "POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        // drain so the keep-alive connection can be reused for the next poll
+        try (InputStream in = connection.getInputStream()) {
+            in.readAllBytes();
+        }
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(String.format("http://%s/%s/runtime/%s", runtimeApiEndpoint, RUNTIME_API_VERSION, path)).openConnection();
+        connection.setRequestMethod(method);
+        // long-poll: next invocation may not arrive for a long time
+        connection.setReadTimeout(0);
+        return connection;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String runtimeApiEndpoint = System.getenv("AWS_LAMBDA_RUNTIME_API");
+        String handlerName = System.getenv("_HANDLER");
+
+        // handler is configured as "fully.qualified.Class::method", same as the managed Java runtime
+        String handlerClass = handlerName.contains("::") ? handlerName.substring(0, handlerName.indexOf("::")) : handlerName;
+        String handlerMethod = handlerName.contains("::") ? handlerName.substring(handlerName.indexOf("::") + 2) : "handleRequest";
+
+        LambdaRuntime runtime;
+        try {
+            runtime = new LambdaRuntime(runtimeApiEndpoint, Class.forName(handlerClass)
+                                                                 .getDeclaredConstructor()
+                                                                 .newInstance(), handlerMethod);
+        } catch (Exception e) {
+            reportInitError(runtimeApiEndpoint, new ObjectMapper().writeValueAsBytes(Map.of("errorMessage", String.valueOf(e.getMessage()),
+                                                                                            "errorType", e.getClass().getName())));
+            throw e;
+        }
+
+        runtime.run();
+    }
+
+    private static void reportInitError(String runtimeApiEndpoint, byte[] error) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(String.format("http://%s/%s/runtime/init/error", runtimeApiEndpoint, RUNTIME_API_VERSION)).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(error);
+        }
+        connection.getResponseCode();
+    }
+}
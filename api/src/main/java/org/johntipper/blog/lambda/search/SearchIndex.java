@@ -0,0 +1,268 @@
+package org.johntipper.blog.lambda.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only inverted index over the blog posts, used in place on a memory-mapped file: opening it reads a fixed-size
+ * header, and a query binary searches the sorted term dictionary and walks int postings straight off the mapping, so
+ * nothing is parsed or decoded until the few hits are rendered. Postings are ranked with BM25, and every query term
+ * has to appear in a post for it to match.
+ * <p>
+ * The file, written by the build's {@code SearchIndexBuilder}, is big-endian and laid out as:
+ * <pre>
+ * header            magic, version, document count, term count, posting count, average document length (float),
+ *                   then the offsets of each section below
+ * documents         per document: length in terms, then the string offsets of its path, title, date and excerpt
+ * term offsets      term count + 1 ints, into term bytes
+ * posting offsets   term count + 1 ints, into the two posting arrays
+ * posting documents document ids, ascending per term
+ * posting freqs     term frequency of each posting
+ * term bytes        UTF-8 terms, in unsigned byte order
+ * strings           each an int byte length followed by UTF-8
+ * </pre>
+ */
+public class SearchIndex {
+
+    public static final String FILE_NAME = "search-index.bin";
+
+    public static final int MAGIC = 0x42534958;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 52;
+
+    // length, path, title, date, excerpt
+    public static final int DOCUMENT_FIELDS = 5;
+
+    private static final int PATH_FIELD = 1;
+
+    private static final int TITLE_FIELD = 2;
+
+    private static final int DATE_FIELD = 3;
+
+    private static final int EXCERPT_FIELD = 4;
+
+    // BM25 term frequency saturation and length normalisation
+    private static final float K1 = 1.2f;
+
+    private static final float B = 0.75f;
+
+    private final ByteBuffer buffer;
+
+    private final int documentCount;
+
+    private final int termCount;
+
+    private final float averageDocumentLength;
+
+    private final IntBuffer documents;
+
+    private final IntBuffer termOffsets;
+
+    private final IntBuffer postingOffsets;
+
+    private final IntBuffer postingDocuments;
+
+    private final IntBuffer postingFrequencies;
+
+    private final int termBytesOffset;
+
+    private final int stringsOffset;
+
+    public SearchIndex(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("Not a version %d search index", VERSION));
+        }
+        this.buffer = buffer;
+        this.documentCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        int postingCount = buffer.getInt(16);
+        this.averageDocumentLength = buffer.getFloat(20);
+        this.documents = ints(buffer, buffer.getInt(24), documentCount * DOCUMENT_FIELDS);
+        this.termOffsets = ints(buffer, buffer.getInt(28), termCount + 1);
+        this.postingOffsets = ints(buffer, buffer.getInt(32), termCount + 1);
+        this.postingDocuments = ints(buffer, buffer.getInt(36), postingCount);
+        this.postingFrequencies = ints(buffer, buffer.getInt(40), postingCount);
+        this.termBytesOffset = buffer.getInt(44);
+        this.stringsOffset = buffer.getInt(48);
+    }
+
+    public static SearchIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new SearchIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return where the index sits in the unpacked lambda zip, or in the working directory when run locally
+     */
+    public static Path defaultPath() {
+        return Paths.get(System.getenv().getOrDefault("LAMBDA_TASK_ROOT", "."), FILE_NAME);
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int offset, int count) {
+        ByteBuffer section = buffer.duplicate();
+        section.limit(offset + count * Integer.BYTES)
+               .position(offset);
+        return section.slice()
+                      .asIntBuffer();
+    }
+
+    /**
+     * @return up to {@code maxHits} posts containing every term of the query, best first
+     */
+    public List<Hit> search(String query, int maxHits) {
+        List<String> terms = Tokenizer.distinctTerms(query);
+        if (terms.isEmpty() || maxHits < 1) {
+            return List.of();
+        }
+
+        float[] scores = new float[documentCount];
+        int[] matchedTerms = new int[documentCount];
+        for (String term : terms) {
+            int index = find(term.getBytes(StandardCharsets.UTF_8));
+            if (index < 0) {
+                return List.of();
+            }
+
+            int start = postingOffsets.get(index);
+            int end = postingOffsets.get(index + 1);
+            int documentFrequency = end - start;
+            float idf = (float) Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int posting = start; posting < end; posting++) {
+                int document = postingDocuments.get(posting);
+                int frequency = postingFrequencies.get(posting);
+                float lengthNorm = K1 * (1 - B + B * documents.get(document * DOCUMENT_FIELDS) / averageDocumentLength);
+                scores[document] += idf * frequency * (K1 + 1) / (frequency + lengthNorm);
+                matchedTerms[document]++;
+            }
+        }
+
+        return top(scores, matchedTerms, terms.size(), maxHits);
+    }
+
+    private List<Hit> top(float[] scores, int[] matchedTerms, int requiredTerms, int maxHits) {
+        // insertion into a short sorted array; documents are stored newest first, so ties go to the newer post
+        int[] hits = new int[Math.min(maxHits, documentCount)];
+        int hitCount = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (matchedTerms[document] != requiredTerms) {
+                continue;
+            }
+            if (hitCount == hits.length && scores[document] <= scores[hits[hitCount - 1]]) {
+                continue;
+            }
+            int position = hitCount == hits.length ? hitCount - 1 : hitCount++;
+            while (position > 0 && scores[hits[position - 1]] < scores[document]) {
+                hits[position] = hits[position - 1];
+                position--;
+            }
+            hits[position] = document;
+        }
+
+        List<Hit> result = new ArrayList<>(hitCount);
+        for (int i = 0; i < hitCount; i++) {
+            result.add(new Hit(hits[i], scores[hits[i]]));
+        }
+        return result;
+    }
+
+    private int find(byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareTerm(middle, term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTerm(int index, byte[] term) {
+        int start = termBytesOffset + termOffsets.get(index);
+        int length = termBytesOffset + termOffsets.get(index + 1) - start;
+        for (int i = 0; i < Math.min(length, term.length); i++) {
+            int comparison = Byte.compareUnsigned(buffer.get(start + i), term[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return length - term.length;
+    }
+
+    private String string(int document, int field) {
+        int offset = stringsOffset + documents.get(document * DOCUMENT_FIELDS + field);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.duplicate()
+              .position(offset + Integer.BYTES)
+              .get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @return the permalink of a document, e.g. {@code /introduction-to-cloud-resume-challenge/}
+     */
+    public String getPath(int document) {
+        return string(document, PATH_FIELD);
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public int getSizeBytes() {
+        return buffer.capacity();
+    }
+
+    public final class Hit {
+
+        private final int document;
+
+        private final float score;
+
+        private Hit(int document, float score) {
+            this.document = document;
+            this.score = score;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public String getPath() {
+            return string(document, PATH_FIELD);
+        }
+
+        public String getTitle() {
+            return string(document, TITLE_FIELD);
+        }
+
+        public String getDate() {
+            return string(document, DATE_FIELD);
+        }
+
+        public String getExcerpt() {
+            return string(document, EXCERPT_FIELD);
+        }
+    }
+}
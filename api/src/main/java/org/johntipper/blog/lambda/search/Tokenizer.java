@@ -0,0 +1,63 @@
+package org.johntipper.blog.lambda.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into index terms: runs of letters and digits, lower-cased, of 2 to 32 characters, less a few English stop
+ * words. The index is built and queried with the same tokenizer, so a query term matches exactly the terms it would
+ * have produced in a post.
+ */
+public final class Tokenizer {
+
+    public static final int MIN_TERM_LENGTH = 2;
+
+    public static final int MAX_TERM_LENGTH = 32;
+
+    private static final Set<String> STOP_WORDS = Set.of("an", "and", "are", "as", "at", "be", "but", "by", "for", "from",
+                                                         "has", "have", "if", "in", "into", "is", "it", "its", "of", "on",
+                                                         "or", "so", "that", "the", "their", "then", "there", "these",
+                                                         "this", "to", "was", "we", "were", "will", "with", "you", "your");
+
+    private Tokenizer() {
+    }
+
+    public static void tokenize(CharSequence text, Consumer<String> terms) {
+        StringBuilder term = new StringBuilder(MAX_TERM_LENGTH);
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = Character.codePointAt(text, i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                emit(term, terms);
+            }
+            i += Character.charCount(codePoint);
+        }
+        emit(term, terms);
+    }
+
+    /**
+     * @return the distinct terms of the text, in the order they first appear
+     */
+    public static List<String> distinctTerms(CharSequence text) {
+        List<String> terms = new ArrayList<>(4);
+        tokenize(text, term -> {
+            if (!terms.contains(term)) {
+                terms.add(term);
+            }
+        });
+        return terms;
+    }
+
+    private static void emit(StringBuilder term, Consumer<String> terms) {
+        if (term.length() >= MIN_TERM_LENGTH && term.length() <= MAX_TERM_LENGTH) {
+            String candidate = term.toString();
+            if (!STOP_WORDS.contains(candidate)) {
+                terms.accept(candidate);
+            }
+        }
+        term.setLength(0);
+    }
+}
@@ -0,0 +1,126 @@
+package org.johntipper.blog.lambda.stream;
+
+import com.fasterxml.jackson.core.*;
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads API Gateway proxy events and writes proxy responses with the streaming parser/generator. Only the fields
+ * {@link ApiRequest} needs are materialised; {@code multiValueHeaders}, most of {@code requestContext}, {@code body} etc. are
+ * skipped token by token without building any objects.
+ */
+public class ProxyEventCodec {
+
+    private final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                                                             .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    public ApiRequest read(InputStream in) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected an API Gateway proxy event object");
+            }
+
+            String httpMethod = null;
+            String path = null;
+            String resource = null;
+            Map<String, String> queryStringParameters = null;
+            Map<String, String> headers = null;
+            Map<String, String> identity = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "httpMethod":
+                        httpMethod = parser.getValueAsString();
+                        break;
+                    case "path":
+                        path = parser.getValueAsString();
+                        break;
+                    case "resource":
+                        resource = parser.getValueAsString();
+                        break;
+                    case "queryStringParameters":
+                        queryStringParameters = readStringMap(parser);
+                        break;
+                    case "headers":
+                        headers = readStringMap(parser);
+                        break;
+                    case "requestContext":
+                        identity = readIdentity(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            return new ApiRequest(httpMethod, path, resource, queryStringParameters, headers,
+                                  identity == null ? null : identity.get("sourceIp"));
+        }
+    }
+
+    public void write(CachedResponse response, OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("statusCode", response.getStatusCode());
+            if (!response.getHeaders().isEmpty()) {
+                generator.writeObjectFieldStart("headers");
+                for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+                    generator.writeStringField(header.getKey(), header.getValue());
+                }
+                generator.writeEndObject();
+            }
+            if (response.getBody() != null) {
+                generator.writeStringField("body", response.getBody());
+            }
+            if (response.isBase64Encoded()) {
+                generator.writeBooleanField("isBase64Encoded", true);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static Map<String, String> readIdentity(JsonParser parser) throws IOException {
+        // requestContext.identity only; the rest of the request context is skipped
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        Map<String, String> identity = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("identity")) {
+                identity = readStringMap(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return identity;
+    }
+
+    private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            // null, or something API Gateway never sends: ignore it
+            parser.skipChildren();
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken().isStructStart()) {
+                // e.g. identity.clientCert
+                parser.skipChildren();
+                continue;
+            }
+            values.put(name, parser.getValueAsString());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,84 @@
+package org.johntipper.blog.lambda.views;
+
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * View counts in a DynamoDB table keyed by page, one {@code UpdateItem ... ADD views :n} per page and flush. An
+ * {@code ADD} on a missing item creates it, and concurrent adds from other containers never conflict, so nothing is
+ * read before writing. {@code BatchWriteItem} can only put whole items, and a transaction costs double and fails on a
+ * page another container is writing at the same moment.
+ */
+public class DynamoDbViewStore implements ViewStore {
+
+    public static final String TABLE_NAME_VARIABLE = "VIEWS_TABLE_NAME";
+
+    // only set when the table is in another region than the lambda, i.e. the api is deployed to several regions
+    public static final String TABLE_REGION_VARIABLE = "VIEWS_TABLE_REGION";
+
+    // only set to point at DynamoDB Local
+    public static final String ENDPOINT_VARIABLE = "DYNAMODB_ENDPOINT";
+
+    public static final String PAGE_ATTRIBUTE = "page";
+
+    public static final String VIEWS_ATTRIBUTE = "views";
+
+    private final DynamoDbClient client;
+
+    private final String tableName;
+
+    public DynamoDbViewStore(DynamoDbClient client, String tableName) {
+        this.client = client;
+        this.tableName = tableName;
+    }
+
+    public static DynamoDbViewStore fromEnvironment() {
+        return new DynamoDbViewStore(client(System.getenv(ENDPOINT_VARIABLE), System.getenv(TABLE_REGION_VARIABLE)), System.getenv(TABLE_NAME_VARIABLE));
+    }
+
+    /**
+     * A client on the JDK's HTTP client, which starts far quicker than the SDK's Apache or Netty ones; credentials,
+     * and the region unless one is given, come from the lambda's environment.
+     */
+    public static DynamoDbClient client(String endpoint, String region) {
+        DynamoDbClientBuilder builder = DynamoDbClient.builder()
+                                                      .httpClient(UrlConnectionHttpClient.builder().build());
+        if (endpoint != null) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        if (region != null) {
+            builder.region(Region.of(region));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public long add(String page, long increment) {
+        Map<String, AttributeValue> attributes = client.updateItem(UpdateItemRequest.builder()
+                                                                                    .tableName(tableName)
+                                                                                    .key(Map.of(PAGE_ATTRIBUTE, AttributeValue.builder().s(page).build()))
+                                                                                    .updateExpression("ADD #views :increment")
+                                                                                    .expressionAttributeNames(Map.of("#views", VIEWS_ATTRIBUTE))
+                                                                                    .expressionAttributeValues(Map.of(":increment", AttributeValue.builder().n(Long.toString(increment)).build()))
+                                                                                    .returnValues(ReturnValue.UPDATED_NEW)
+                                                                                    .build())
+                                                       .attributes();
+        return Long.parseLong(attributes.get(VIEWS_ATTRIBUTE).n());
+    }
+
+    public DynamoDbClient getClient() {
+        return client;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+}
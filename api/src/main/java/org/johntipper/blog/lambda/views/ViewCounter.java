@@ -0,0 +1,145 @@
+package org.johntipper.blog.lambda.views;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Page views coalesced in memory for the life of a warm container and flushed to a {@link ViewStore} as one add per
+ * page, so a spike of views on a post costs a write per flush rather than one per view. Lambda freezes a container
+ * between invocations, so flushes happen on the invocation path, when the interval has passed or enough views are
+ * pending. The first view of a page only adds that page's views, to read back its stored count. A view's count is then
+ * the last stored count plus the container's pending views.
+ * <p>
+ * Views pending when a container is reclaimed are lost: at most {@code maxPending}, or an interval's worth, per
+ * container. A failed add is put back and retried on the next flush.
+ */
+public class ViewCounter {
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(10);
+
+    public static final long DEFAULT_MAX_PENDING = 500;
+
+    private final ViewStore store;
+
+    private final LongSupplier nanoClock;
+
+    private final long flushIntervalNanos;
+
+    private final long maxPending;
+
+    private final Map<String, AtomicLong> pending = new ConcurrentHashMap<>();
+
+    // each page's count as the store last returned it
+    private final Map<String, Long> stored = new ConcurrentHashMap<>();
+
+    private final AtomicLong pendingTotal = new AtomicLong();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final LongAdder views = new LongAdder();
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder failedWrites = new LongAdder();
+
+    private volatile long lastFlushNanos;
+
+    public ViewCounter(ViewStore store) {
+        this(store, System::nanoTime, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_PENDING);
+    }
+
+    public ViewCounter(ViewStore store, LongSupplier nanoClock, Duration flushInterval, long maxPending) {
+        this.store = store;
+        this.nanoClock = nanoClock;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxPending = maxPending;
+        this.lastFlushNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Counts a view, flushing if one is due.
+     *
+     * @return the page's count including this view
+     */
+    public long increment(String page) {
+        AtomicLong pendingViews = pending.computeIfAbsent(page, key -> new AtomicLong());
+        pendingViews.incrementAndGet();
+        views.increment();
+
+        if (pendingTotal.incrementAndGet() >= maxPending || nanoClock.getAsLong() - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        } else if (!stored.containsKey(page)) {
+            // not a full flush: a container's first views would otherwise each write every page with views pending
+            if (flushLock.tryLock()) {
+                try {
+                    add(page, pendingViews);
+                } finally {
+                    flushLock.unlock();
+                }
+            }
+        }
+        return count(page);
+    }
+
+    public long count(String page) {
+        AtomicLong pendingViews = pending.get(page);
+        return stored.getOrDefault(page, 0L) + (pendingViews == null ? 0 : pendingViews.get());
+    }
+
+    /**
+     * Adds each page's pending views to the store. A flush already in progress on another thread is left to it.
+     */
+    public void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            lastFlushNanos = nanoClock.getAsLong();
+            for (Map.Entry<String, AtomicLong> entry : pending.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // with the flush lock held
+    private void add(String page, AtomicLong pendingViews) {
+        long increment = pendingViews.getAndSet(0);
+        if (increment == 0) {
+            return;
+        }
+        pendingTotal.addAndGet(-increment);
+        try {
+            stored.put(page, store.add(page, increment));
+            writes.increment();
+        } catch (RuntimeException e) {
+            // the add may still have been applied if only the response was lost, which over-counts on retry
+            pendingViews.addAndGet(increment);
+            pendingTotal.addAndGet(increment);
+            failedWrites.increment();
+            System.err.printf("Failed to add %d views to %s: %s%n", increment, page, e);
+        }
+    }
+
+    public long getPendingViews() {
+        return pendingTotal.get();
+    }
+
+    public long getViews() {
+        return views.sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+}
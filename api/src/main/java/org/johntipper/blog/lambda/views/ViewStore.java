@@ -0,0 +1,14 @@
+package org.johntipper.blog.lambda.views;
+
+/**
+ * Where {@link ViewCounter} flushes its coalesced increments to.
+ */
+public interface ViewStore {
+
+    /**
+     * Atomically adds to a page's count, creating it at zero if it doesn't exist yet.
+     *
+     * @return the page's count after the add
+     */
+    long add(String page, long increment);
+}
@@ -0,0 +1,182 @@
+package org.johntipper.blog.lambda;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.runtime.LambdaRuntime;
+import org.johntipper.blog.lambda.runtime.RuntimeContext;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ApiHandlerTest {
+
+    // the HTTP API event fixtures LocalRuntimeApi replays; tests run in the api project directory
+    private static final Path EVENTS_V2 = Paths.get("src/tools/resources/events-v2");
+
+    private final ObjectMapper mapper = LambdaRuntime.eventMapper();
+
+    private final Context context = new RuntimeContext("VQ2bQFm9LPEFq3g=", "arn:aws:lambda:eu-west-2:502171377804:function:HelloWorld", Long.MAX_VALUE);
+
+    private final InvocationMetrics metrics = InvocationMetrics.forHandler("ApiHandlerTest", new PrintStream(OutputStream.nullOutputStream()));
+
+    @Test
+    public void readsEachV2FixtureAsTheRequestItDescribes() throws IOException {
+        List<Path> fixtures;
+        try (Stream<Path> files = Files.list(EVENTS_V2)) {
+            fixtures = files.filter(file -> file.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+        }
+        assertFalse(fixtures.isEmpty());
+
+        for (Path fixture : fixtures) {
+            String description = fixture.getFileName().toString();
+            APIGatewayV2HTTPEvent event = event(description);
+            RecordingHandler handler = new RecordingHandler(new CachedResponse(204, Map.of(), null));
+
+            handler.handleHttpRequest(event, context);
+
+            ApiRequest request = handler.request;
+            assertEquals(description, "GET", request.getHttpMethod());
+            // the raw path keeps the stage's base path, the route key's doesn't
+            assertEquals(description, "/api/hello", request.getPath());
+            assertEquals(description, "/hello", request.getResource());
+            assertEquals(description, event.getHeaders(), request.getHeaders());
+            assertEquals(description, event.getQueryStringParameters() == null ? Map.of() : event.getQueryStringParameters(),
+                         request.getQueryStringParameters());
+            // the viewer, which CloudFront also forwards as the left-most X-Forwarded-For address
+            assertEquals(description, "81.2.69.160", request.getSourceIp());
+        }
+    }
+
+    @Test
+    public void mapsTheQueryAndHeaders() throws IOException {
+        RecordingHandler handler = new RecordingHandler(new CachedResponse(204, Map.of(), null));
+
+        handler.handleHttpRequest(event("hello-get-query.json"), context);
+
+        assertEquals(Map.of("utm_source", "twitter", "utm_medium", "social"), handler.request.getQueryStringParameters());
+        // HTTP APIs lower-case header names
+        assertEquals("gzip, deflate, br", handler.request.getHeader("Accept-Encoding"));
+        assertEquals("https://t.co/", handler.request.getHeader("referer"));
+
+        handler.handleHttpRequest(event("hello-get.json"), context);
+        assertEquals(Map.of(), handler.request.getQueryStringParameters());
+    }
+
+    @Test
+    public void writesTheV2ResponseWithItsBase64Flag() throws IOException {
+        JsonNode binary = serialize(new RecordingHandler(new CachedResponse(200, Map.of("Content-Encoding", "gzip"), "H4sIAAAAAAAA/w==", true, null))
+                                        .handleHttpRequest(event("hello-get.json"), context));
+
+        assertEquals(200, binary.path("statusCode").asInt());
+        assertEquals("gzip", binary.path("headers").path("Content-Encoding").asText());
+        assertEquals("H4sIAAAAAAAA/w==", binary.path("body").asText());
+        // as HTTP APIs read it: "base64Encoded" would be ignored, and the gzip bytes served as text
+        assertTrue(binary.path("isBase64Encoded").isBoolean());
+        assertTrue(binary.path("isBase64Encoded").asBoolean());
+        assertFalse(binary.has("base64Encoded"));
+
+        JsonNode text = serialize(new RecordingHandler(new CachedResponse(200, Map.of(), "{}"))
+                                      .handleHttpRequest(event("hello-get.json"), context));
+        assertFalse(text.path("isBase64Encoded").asBoolean());
+        assertFalse(text.has("base64Encoded"));
+    }
+
+    @Test
+    public void bindsTheRequestsBase64Flag() throws IOException {
+        // bound through the same mix-in, so a base64 request body would be decoded
+        APIGatewayV2HTTPEvent event = mapper.readValue("{\"routeKey\": \"POST /views/{page}\", \"body\": \"e30=\", \"isBase64Encoded\": true}",
+                                                       APIGatewayV2HTTPEvent.class);
+        assertTrue(event.isBase64Encoded());
+        assertFalse(event("hello-get.json").isBase64Encoded());
+    }
+
+    @Test
+    public void servesHelloWorldOverTheHttpApi() throws IOException {
+        HelloWorldHandler handler = new HelloWorldHandler(new TokenBucketLimiter(4096, 5, 20), metrics);
+
+        APIGatewayV2HTTPResponse response = handler.handleHttpRequest(event("hello-get.json"), context);
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("Hello World!", mapper.readTree(response.getBody()).path("message").asText());
+        // api.yaml's x-cache-control for GET /hello, found from the route key
+        assertEquals("public, max-age=60, stale-while-revalidate=300", response.getHeaders().get("Cache-Control"));
+
+        APIGatewayV2HTTPEvent revalidation = event("hello-get.json");
+        revalidation.getHeaders().put("if-none-match", response.getHeaders().get("ETag"));
+        APIGatewayV2HTTPResponse notModified = handler.handleHttpRequest(revalidation, context);
+
+        assertEquals(304, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertEquals(response.getHeaders().get("ETag"), notModified.getHeaders().get("ETag"));
+    }
+
+    @Test
+    public void recordsAnInvocationThatThrowsAsAnError() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InvocationMetrics recorded = InvocationMetrics.forHandler("ApiHandlerTest", new PrintStream(output, true, StandardCharsets.UTF_8));
+        ApiHandler failing = new ApiHandler(recorded) {
+            @Override
+            public CachedResponse respond(ApiRequest request) {
+                throw new IllegalStateException("no index");
+            }
+        };
+
+        try {
+            failing.handleHttpRequest(event("hello-get.json"), context);
+            fail("expected the handler's exception");
+        } catch (IllegalStateException expected) {
+            assertEquals("no index", expected.getMessage());
+        }
+
+        // the cold start, flushed straight away
+        JsonNode line = mapper.readTree(output.toString(StandardCharsets.UTF_8));
+        assertEquals(1, line.path("Invocations").asLong());
+        assertEquals(1, line.path("Errors").asLong());
+        assertFalse(line.has("ResponseSize"));
+    }
+
+    private APIGatewayV2HTTPEvent event(String fixture) throws IOException {
+        return mapper.readValue(EVENTS_V2.resolve(fixture).toFile(), APIGatewayV2HTTPEvent.class);
+    }
+
+    private JsonNode serialize(APIGatewayV2HTTPResponse response) {
+        return mapper.valueToTree(response);
+    }
+
+    private class RecordingHandler extends ApiHandler {
+
+        private final CachedResponse response;
+
+        private ApiRequest request;
+
+        private RecordingHandler(CachedResponse response) {
+            super(metrics);
+            this.response = response;
+        }
+
+        @Override
+        public CachedResponse respond(ApiRequest request) {
+            this.request = request;
+            return response;
+        }
+    }
+}
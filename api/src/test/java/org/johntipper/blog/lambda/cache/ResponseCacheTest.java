@@ -0,0 +1,116 @@
+package org.johntipper.blog.lambda.cache;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    private static final Duration TTL = Duration.ofSeconds(30);
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private final ResponseCache cache = new ResponseCache(2, TTL, List.of("Accept"), nanos::get);
+
+    @Test
+    public void servesAnEntryUntilItsTtlHasPassed() {
+        CachedResponse rendered = get("/hello");
+
+        nanos.addAndGet(TTL.toNanos() - 1);
+        assertSame(rendered, get("/hello"));
+        assertEquals(1, renders.get());
+
+        nanos.addAndGet(1);
+        assertNotSame(rendered, get("/hello"));
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyAccessedEntryAtCapacity() {
+        CachedResponse first = get("/first");
+        get("/second");
+        // first inserted, but accessed since
+        get("/first");
+
+        get("/third");
+
+        assertEquals(2, cache.size());
+        assertSame(first, get("/first"));
+        assertEquals(3, renders.get());
+        get("/second");
+        assertEquals(4, renders.get());
+    }
+
+    @Test
+    public void countsHitsMissesAndEvictions() {
+        get("/first");
+        get("/first");
+        get("/second");
+        get("/third");
+        // expired: a miss, and an eviction of the stale entry
+        nanos.addAndGet(TTL.toNanos());
+        get("/third");
+
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void doesNotCacheANullRender() {
+        assertNull(cache.get(request("GET", "/missing", Map.of(), Map.of()), () -> null));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void normalizesThePathQueryStringAndVaryHeaders() {
+        String key = cache.keyFor(request("GET", "/posts/a", Map.of("q", "x", "page", "2"), Map.of("Accept", "application/json")));
+
+        assertEquals(key, cache.keyFor(request("GET", "//posts//a/", Map.of("page", "2", "q", "x"), Map.of("accept", "application/json"))));
+        assertEquals(key, cache.keyFor(request("GET", "posts/a", Map.of("q", "x", "page", "2"), Map.of("ACCEPT", "application/json", "User-Agent", "curl"))));
+
+        assertNotEquals(key, cache.keyFor(request("HEAD", "/posts/a", Map.of("q", "x", "page", "2"), Map.of("Accept", "application/json"))));
+        assertNotEquals(key, cache.keyFor(request("GET", "/posts/a", Map.of("q", "y", "page", "2"), Map.of("Accept", "application/json"))));
+        assertNotEquals(key, cache.keyFor(request("GET", "/posts/a", Map.of("q", "x", "page", "2"), Map.of("Accept", "text/html"))));
+        assertNotEquals(key, cache.keyFor(request("GET", "/posts/a", Map.of("q", "x", "page", "2"), Map.of())));
+    }
+
+    @Test
+    public void escapesTheQueryNamesAndValues() {
+        String twoParameters = cache.keyFor(request("GET", "/search", Map.of("q", "x", "r", "y"), Map.of()));
+
+        assertNotEquals(twoParameters, cache.keyFor(request("GET", "/search", Map.of("q", "x&r=y"), Map.of())));
+        assertNotEquals(cache.keyFor(request("GET", "/search", Map.of("a=b", "c"), Map.of())),
+                        cache.keyFor(request("GET", "/search", Map.of("a", "b=c"), Map.of())));
+        assertNotEquals(cache.keyFor(request("GET", "/search", Map.of("q", "x\nAccept:text/html"), Map.of())),
+                        cache.keyFor(request("GET", "/search", Map.of("q", "x"), Map.of("Accept", "text/html"))));
+    }
+
+    @Test
+    public void normalizesAnEmptyPathToTheRoot() {
+        assertEquals("/", ResponseCache.normalizePath(null));
+        assertEquals("/", ResponseCache.normalizePath(""));
+        assertEquals("/", ResponseCache.normalizePath("///"));
+    }
+
+    private CachedResponse get(String path) {
+        return cache.get(request("GET", path, Map.of(), Map.of()), () -> {
+            renders.incrementAndGet();
+            return new CachedResponse(200, Map.of(), path);
+        });
+    }
+
+    private static ApiRequest request(String method, String path, Map<String, String> query, Map<String, String> headers) {
+        return new ApiRequest(method, path, path, query, headers, "192.0.2.1");
+    }
+}
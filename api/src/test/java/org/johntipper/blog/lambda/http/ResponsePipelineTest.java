@@ -0,0 +1,244 @@
+package org.johntipper.blog.lambda.http;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ResponsePipelineTest {
+
+    private static final String HELLO_CACHE_CONTROL = "public, max-age=60, stale-while-revalidate=300";
+
+    // compresses well, and is exactly the threshold long
+    private static final String LARGE_BODY = "{\"message\": \"" + "Hello, World! ".repeat(70) + "Hello\"}";
+
+    private static final String SMALL_BODY = "{\"message\": \"Hello, World!\"}";
+
+    // keyed on the resource, not the path the client asked for
+    private final ResponsePipeline pipeline = new ResponsePipeline(Map.of("GET /hello", HELLO_CACHE_CONTROL, "POST /views/{page}", "no-store"),
+                                                                   ResponsePipeline.DEFAULT_COMPRESS_THRESHOLD_BYTES);
+
+    @Test
+    public void preparesAStrongETagOfTheBody() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(SMALL_BODY));
+
+        assertEquals(200, prepared.getStatusCode());
+        assertEquals(SMALL_BODY, prepared.getBody());
+        assertEquals("\"" + ResponsePipeline.tag(SMALL_BODY.getBytes(StandardCharsets.UTF_8)) + "\"", prepared.getHeaders().get("ETag"));
+        assertEquals("application/json", prepared.getHeaders().get("Content-Type"));
+
+        String otherTag = pipeline.prepare(request("GET", "/hello", Map.of()), rendered("{}")).getHeaders().get("ETag");
+        assertNotEquals(prepared.getHeaders().get("ETag"), otherTag);
+        assertEquals(otherTag, pipeline.prepare(request("GET", "/hello", Map.of()), rendered("{}")).getHeaders().get("ETag"));
+    }
+
+    @Test
+    public void addsTheCacheControlOfTheRequestedRoute() {
+        assertEquals(HELLO_CACHE_CONTROL, pipeline.prepare(request("GET", "/hello", Map.of()), rendered(SMALL_BODY)).getHeaders().get("Cache-Control"));
+        assertEquals("no-store", pipeline.prepare(new ApiRequest("POST", "/views/hello-world", "/views/{page}", Map.of(), Map.of(), "192.0.2.1"),
+                                                  rendered(SMALL_BODY)).getHeaders().get("Cache-Control"));
+
+        // an unlisted method or resource
+        assertNull(pipeline.prepare(request("POST", "/hello", Map.of()), rendered(SMALL_BODY)).getHeaders().get("Cache-Control"));
+        assertNull(pipeline.prepare(new ApiRequest("GET", "/views/hello-world", "/views/{page}", Map.of(), Map.of(), "192.0.2.1"),
+                                    rendered(SMALL_BODY)).getHeaders().get("Cache-Control"));
+    }
+
+    @Test
+    public void leavesBodiesUnderTheThresholdUncompressed() {
+        String body = LARGE_BODY.substring(0, LARGE_BODY.length() - 1);
+        assertEquals(ResponsePipeline.DEFAULT_COMPRESS_THRESHOLD_BYTES - 1, body.length());
+
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(body));
+
+        assertNull(prepared.getGzipped());
+        assertNull(prepared.getHeaders().get("Vary"));
+        assertNull(prepared.getHeaders().get("Content-Encoding"));
+        assertFalse(prepared.isBase64Encoded());
+    }
+
+    @Test
+    public void compressesBodiesAtTheThresholdWithTheirOwnETag() throws IOException {
+        assertEquals(ResponsePipeline.DEFAULT_COMPRESS_THRESHOLD_BYTES, LARGE_BODY.length());
+
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(LARGE_BODY));
+        CachedResponse gzipped = prepared.getGzipped();
+        assertNotNull(gzipped);
+
+        String tag = ResponsePipeline.tag(LARGE_BODY.getBytes(StandardCharsets.UTF_8));
+        assertEquals("\"" + tag + "\"", prepared.getHeaders().get("ETag"));
+        assertEquals("\"" + tag + "-gzip\"", gzipped.getHeaders().get("ETag"));
+
+        // both variants, so caches keep them apart
+        assertEquals("Accept-Encoding", prepared.getHeaders().get("Vary"));
+        assertEquals("Accept-Encoding", gzipped.getHeaders().get("Vary"));
+        assertEquals(HELLO_CACHE_CONTROL, gzipped.getHeaders().get("Cache-Control"));
+        assertEquals("application/json", gzipped.getHeaders().get("Content-Type"));
+
+        assertNull(prepared.getHeaders().get("Content-Encoding"));
+        assertEquals("gzip", gzipped.getHeaders().get("Content-Encoding"));
+        assertTrue(gzipped.isBase64Encoded());
+        assertEquals(LARGE_BODY, gunzip(gzipped.getBody()));
+    }
+
+    @Test
+    public void leavesErrorsAndEmptyBodiesAsRendered() {
+        CachedResponse notFound = new CachedResponse(404, Map.of("Content-Type", "application/json"), LARGE_BODY);
+        assertSame(notFound, pipeline.prepare(request("GET", "/hello", Map.of()), notFound));
+
+        CachedResponse noContent = new CachedResponse(200, Map.of(), null);
+        assertSame(noContent, pipeline.prepare(request("GET", "/hello", Map.of()), noContent));
+    }
+
+    @Test
+    public void servesTheGzipVariantOnlyToClientsAcceptingIt() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(LARGE_BODY));
+
+        assertSame(prepared.getGzipped(), pipeline.negotiate(request("GET", "/hello", Map.of("Accept-Encoding", "gzip, deflate, br")), prepared));
+        assertSame(prepared, pipeline.negotiate(request("GET", "/hello", Map.of("Accept-Encoding", "br")), prepared));
+        assertSame(prepared, pipeline.negotiate(request("GET", "/hello", Map.of()), prepared));
+
+        // nothing to choose between
+        CachedResponse small = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(SMALL_BODY));
+        assertSame(small, pipeline.negotiate(request("GET", "/hello", Map.of("Accept-Encoding", "gzip")), small));
+    }
+
+    @Test
+    public void answersAMatchingIfNoneMatchWithANotModified() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(LARGE_BODY));
+        String etag = prepared.getHeaders().get("ETag");
+
+        CachedResponse notModified = pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", etag)), prepared);
+
+        assertEquals(304, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertFalse(notModified.isBase64Encoded());
+        assertEquals(Map.of("ETag", etag, "Cache-Control", HELLO_CACHE_CONTROL, "Vary", "Accept-Encoding"), notModified.getHeaders());
+    }
+
+    @Test
+    public void copiesTheSelectedVariantsHeadersOntoTheNotModified() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(LARGE_BODY));
+        String gzipEtag = prepared.getGzipped().getHeaders().get("ETag");
+
+        CachedResponse notModified = pipeline.negotiate(request("GET", "/hello", Map.of("if-none-match", gzipEtag, "accept-encoding", "gzip")), prepared);
+
+        assertEquals(304, notModified.getStatusCode());
+        assertEquals(Map.of("ETag", gzipEtag, "Cache-Control", HELLO_CACHE_CONTROL, "Vary", "Accept-Encoding"), notModified.getHeaders());
+
+        // the body is the same whichever coding the client cached it in, but the 304 describes the one it would get now
+        notModified = pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", gzipEtag)), prepared);
+        assertEquals(304, notModified.getStatusCode());
+        assertEquals(prepared.getHeaders().get("ETag"), notModified.getHeaders().get("ETag"));
+    }
+
+    @Test
+    public void leavesOutHeadersTheResponseDoesNotHave() {
+        CachedResponse prepared = pipeline.prepare(request("POST", "/hello", Map.of()), rendered(SMALL_BODY));
+        String etag = prepared.getHeaders().get("ETag");
+
+        // prepared as a POST would be, so with neither Cache-Control nor Vary
+        assertEquals(Map.of("ETag", etag), pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", etag)), prepared).getHeaders());
+    }
+
+    @Test
+    public void answersAListedWeakOrWildcardIfNoneMatch() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(SMALL_BODY));
+        String etag = prepared.getHeaders().get("ETag");
+
+        assertEquals(304, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "\"stale\", " + etag)), prepared).getStatusCode());
+        assertEquals(304, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "\"stale\"," + etag + ",\"older\"")), prepared).getStatusCode());
+        assertEquals(304, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "W/" + etag)), prepared).getStatusCode());
+        assertEquals(304, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "*")), prepared).getStatusCode());
+        assertEquals(304, pipeline.negotiate(request("HEAD", "/hello", Map.of("If-None-Match", etag)), prepared).getStatusCode());
+    }
+
+    @Test
+    public void servesTheFullResponseOtherwise() {
+        CachedResponse prepared = pipeline.prepare(request("GET", "/hello", Map.of()), rendered(SMALL_BODY));
+        String etag = prepared.getHeaders().get("ETag");
+
+        assertSame(prepared, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "\"stale\"")), prepared));
+        assertSame(prepared, pipeline.negotiate(request("GET", "/hello", Map.of("If-None-Match", "")), prepared));
+        // If-None-Match only makes GET and HEAD conditional
+        assertSame(prepared, pipeline.negotiate(request("POST", "/hello", Map.of("If-None-Match", etag)), prepared));
+        assertSame(prepared, pipeline.negotiate(request("POST", "/hello", Map.of("If-None-Match", "*")), prepared));
+    }
+
+    @Test
+    public void matchesComparesWeakly() {
+        assertTrue(ResponsePipeline.matches("\"abc\"", "\"abc\""));
+        assertTrue(ResponsePipeline.matches("W/\"abc\"", "\"abc\""));
+        assertTrue(ResponsePipeline.matches("\"abc\"", "W/\"abc\""));
+        assertTrue(ResponsePipeline.matches(" \"x\" ,  \"abc\" ", "\"abc\""));
+        assertTrue(ResponsePipeline.matches("*", "\"abc\""));
+        assertTrue(ResponsePipeline.matches("\"x\", *", "\"abc\""));
+
+        assertFalse(ResponsePipeline.matches("\"abcd\"", "\"abc\""));
+        assertFalse(ResponsePipeline.matches("abc", "\"abc\""));
+        assertFalse(ResponsePipeline.matches("\"ABC\"", "\"abc\""));
+        assertFalse(ResponsePipeline.matches("\"abc-gzip\"", "\"abc\""));
+        assertFalse(ResponsePipeline.matches("", "\"abc\""));
+    }
+
+    @Test
+    public void acceptsGzipListedWithOrWithoutAQuality() {
+        assertTrue(ResponsePipeline.acceptsGzip("gzip"));
+        assertTrue(ResponsePipeline.acceptsGzip("gzip, deflate, br"));
+        assertTrue(ResponsePipeline.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        assertTrue(ResponsePipeline.acceptsGzip("deflate , gzip ; q=0.8"));
+    }
+
+    @Test
+    public void refusesGzipWithAZeroQuality() {
+        assertFalse(ResponsePipeline.acceptsGzip("gzip;q=0"));
+        assertFalse(ResponsePipeline.acceptsGzip("br, gzip;q=0.0"));
+        assertFalse(ResponsePipeline.acceptsGzip("gzip;q=nonsense"));
+    }
+
+    @Test
+    public void refusesGzipWhenNotListed() {
+        assertFalse(ResponsePipeline.acceptsGzip(null));
+        assertFalse(ResponsePipeline.acceptsGzip(""));
+        assertFalse(ResponsePipeline.acceptsGzip("identity"));
+        assertFalse(ResponsePipeline.acceptsGzip("br, deflate"));
+        assertFalse(ResponsePipeline.acceptsGzip("x-gzip-ish"));
+    }
+
+    @Test
+    public void fallsBackToTheWildcardOnlyWithoutAGzipEntry() {
+        assertTrue(ResponsePipeline.acceptsGzip("*"));
+        assertTrue(ResponsePipeline.acceptsGzip("br, *;q=0.1"));
+        assertFalse(ResponsePipeline.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void prefersTheGzipEntryOverTheWildcardInEitherOrder() {
+        assertTrue(ResponsePipeline.acceptsGzip("*;q=0, gzip"));
+        assertTrue(ResponsePipeline.acceptsGzip("gzip, *;q=0"));
+        assertFalse(ResponsePipeline.acceptsGzip("gzip;q=0, *"));
+        assertFalse(ResponsePipeline.acceptsGzip("*, gzip;q=0"));
+    }
+
+    private static CachedResponse rendered(String body) {
+        return new CachedResponse(200, Map.of("Content-Type", "application/json"), body);
+    }
+
+    private static ApiRequest request(String httpMethod, String resource, Map<String, String> headers) {
+        return new ApiRequest(httpMethod, "/api" + resource, resource, Map.of(), headers, "192.0.2.1");
+    }
+
+    private static String gunzip(String base64) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(base64)))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
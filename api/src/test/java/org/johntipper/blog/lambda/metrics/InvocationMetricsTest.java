@@ -0,0 +1,322 @@
+package org.johntipper.blog.lambda.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class InvocationMetricsTest {
+
+    private static final long INIT_DURATION_MILLIS = 1234;
+
+    private static final long TIMESTAMP = 1_600_000_000_000L;
+
+    // 16 sub-buckets per power of two, reported at their midpoint
+    private static final double PRECISION = 1.0 / 32;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final InvocationMetrics metrics = metrics(new PrintStream(output, true, StandardCharsets.UTF_8));
+
+    @Test
+    public void flushesTheColdStartStraightAwayWithTheInitDuration() throws IOException {
+        invoke(2_500_000, 120);
+
+        List<JsonNode> lines = lines();
+        assertEquals(1, lines.size());
+        JsonNode line = lines.get(0);
+        assertEquals(1, line.path("ColdStart").asLong());
+        assertEquals(INIT_DURATION_MILLIS, line.path("InitDuration").asLong());
+        assertEquals(1, line.path("Invocations").asLong());
+        assertWithin(2.5, line.path("Duration").path("Max").asDouble());
+        assertWithin(120, line.path("ResponseSize").path("Max").asDouble());
+    }
+
+    @Test
+    public void flushesOnceTheIntervalHasPassed() throws IOException {
+        warm();
+
+        for (int i = 1; i <= 1000; i++) {
+            invoke(i * 1000L, 100 + i % 7);
+        }
+        assertEquals(List.of(), lines());
+
+        nanos.addAndGet(Duration.ofMinutes(1).toNanos());
+        invoke(1_000_000, 100);
+        List<JsonNode> lines = lines();
+        assertEquals(1, flushes(lines));
+        JsonNode line = lines.get(0);
+        assertEquals(0, line.path("ColdStart").asLong());
+        assertTrue(lines.stream().noneMatch(l -> l.has("InitDuration")));
+        assertEquals(1001, line.path("Invocations").asLong());
+        assertEquals(0, line.path("Errors").asLong());
+
+        // durations of 1..1000 microseconds, and one of a millisecond: the 99th percentile is 991 microseconds
+        assertWithin(0.991, percentile(lines, "Duration", 0.99));
+    }
+
+    @Test
+    public void countsAFailedInvocationAsAnErrorWithNoResponseSize() throws IOException {
+        warm();
+
+        invoke(2_000_000, 100);
+        metrics.recordFailure(metrics.start() - 30_000_000);
+        metrics.flush();
+
+        List<JsonNode> lines = lines();
+        assertEquals(1, lines.size());
+        JsonNode line = lines.get(0);
+        assertEquals(2, line.path("Invocations").asLong());
+        assertEquals(1, line.path("Errors").asLong());
+        assertEquals(2, line.path("Duration").path("Count").asLong());
+        assertWithin(30, line.path("Duration").path("Max").asDouble());
+        assertEquals(1, line.path("ResponseSize").path("Count").asLong());
+
+        // drained by the flush
+        invoke(1_000_000, 100);
+        metrics.flush();
+        assertEquals(0, lines().get(0).path("Errors").asLong());
+    }
+
+    @Test
+    public void splitsAWideHistogramOverLinesWithoutLosingAny() throws IOException {
+        warm();
+        // durations spread over enough buckets that one line can't take them all
+        long invocations = 0;
+        for (long micros = 1; micros < 10_000_000; micros = micros * 21 / 20 + 1) {
+            invoke(micros * 1000, (int) micros);
+            invocations++;
+        }
+        metrics.flush();
+
+        List<JsonNode> lines = lines();
+        assertTrue(lines.size() > 1);
+        assertEquals(1, flushes(lines));
+        assertTrue(lines.get(0).has("Invocations"));
+        assertEquals(invocations, counted(lines, "Duration"));
+        assertEquals(invocations, counted(lines, "ResponseSize"));
+    }
+
+    @Test
+    public void fitsExactlyAFullLineOfBucketsOnOneLine() throws IOException {
+        warm();
+        int buckets = 0;
+        int lastBucket = -1;
+        for (long micros = 1; buckets < InvocationMetrics.MAX_VALUES_PER_METRIC; micros++) {
+            if (LogLinearHistogram.bucketOf(micros) != lastBucket) {
+                lastBucket = LogLinearHistogram.bucketOf(micros);
+                invoke(micros * 1000, 100);
+                buckets++;
+            }
+        }
+        metrics.flush();
+
+        List<JsonNode> lines = lines();
+        assertEquals(1, lines.size());
+        assertEquals(InvocationMetrics.MAX_VALUES_PER_METRIC, lines.get(0).path("Duration").path("Values").size());
+    }
+
+    @Test
+    public void losesNothingRecordedWhileFlushing() throws Exception {
+        int threads = 8;
+        int invocationsPerThread = 200_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> recorders = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                recorders.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < invocationsPerThread; i++) {
+                        invoke(i % 5000 * 1000L, i % 5000);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            while (recorders.stream().anyMatch(recorder -> !recorder.isDone())) {
+                metrics.flush();
+            }
+            for (Future<?> recorder : recorders) {
+                recorder.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        metrics.flush();
+
+        List<JsonNode> lines = lines();
+        long invocations = lines.stream().mapToLong(line -> line.path("Invocations").asLong()).sum();
+        assertEquals((long) threads * invocationsPerThread, invocations);
+        assertEquals(invocations, counted(lines, "Duration"));
+        assertEquals(invocations, counted(lines, "ResponseSize"));
+    }
+
+    @Test
+    public void recordingAWarmInvocationAllocatesNothing() {
+        for (int i = 0; i < 1_000_000; i++) {
+            metrics.record(metrics.start(), i);
+        }
+
+        long allocated = allocatedBy(() -> {
+            for (int i = 0; i < 1_000_000; i++) {
+                metrics.record(metrics.start(), i);
+            }
+        });
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void flushingAllocatesNothingOnceWarm() {
+        InvocationMetrics discarded = metrics(new PrintStream(OutputStream.nullOutputStream()));
+        for (int flush = 0; flush < 1000; flush++) {
+            recordWide(discarded);
+            discarded.flush();
+        }
+
+        long allocated = allocatedBy(() -> {
+            for (int flush = 0; flush < 1000; flush++) {
+                recordWide(discarded);
+                discarded.flush();
+            }
+        });
+        assertEquals(0, allocated);
+    }
+
+    private InvocationMetrics metrics(PrintStream out) {
+        return new InvocationMetrics("TestHandler", out, nanos::get, () -> TIMESTAMP, Duration.ofMinutes(1), INIT_DURATION_MILLIS);
+    }
+
+    // past the cold start, which is flushed on its own
+    private void warm() throws IOException {
+        invoke(1_000_000, 100);
+        lines();
+    }
+
+    private void invoke(long durationNanos, int responseSize) {
+        // backdated rather than moving the clock on, so only the tests decide when the flush interval passes
+        metrics.record(metrics.start() - durationNanos, responseSize);
+    }
+
+    // enough buckets for a flush to be split over lines
+    private static void recordWide(InvocationMetrics metrics) {
+        for (long micros = 1; micros < 10_000_000; micros = micros * 21 / 20 + 1) {
+            metrics.record(metrics.start() - micros * 1000, (int) micros);
+        }
+    }
+
+    private static long allocatedBy(Runnable runnable) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        runnable.run();
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static long flushes(List<JsonNode> lines) {
+        return lines.stream().filter(line -> line.has("Invocations")).count();
+    }
+
+    private static long counted(List<JsonNode> lines, String metric) {
+        return lines.stream().mapToLong(line -> line.path(metric).path("Count").asLong()).sum();
+    }
+
+    /**
+     * @return the lines written since the last call, each checked against the EMF specification
+     */
+    private List<JsonNode> lines() throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String text : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!text.isEmpty()) {
+                JsonNode line = mapper.readTree(text);
+                validate(line);
+                lines.add(line);
+            }
+        }
+        output.reset();
+        return lines;
+    }
+
+    private static void validate(JsonNode line) {
+        JsonNode aws = line.path("_aws");
+        assertEquals(TIMESTAMP, aws.path("Timestamp").asLong());
+        JsonNode directive = aws.path("CloudWatchMetrics").path(0);
+        assertEquals(InvocationMetrics.NAMESPACE, directive.path("Namespace").asText());
+        assertEquals(InvocationMetrics.DIMENSION, directive.path("Dimensions").path(0).path(0).asText());
+        assertEquals("TestHandler", line.path(InvocationMetrics.DIMENSION).asText());
+        assertTrue(directive.path("Metrics").size() > 0);
+
+        for (JsonNode definition : directive.path("Metrics")) {
+            String name = definition.path("Name").asText();
+            JsonNode value = line.path(name);
+            assertFalse(String.format("%s declared but missing", name), value.isMissingNode());
+            if (value.isObject()) {
+                JsonNode values = value.path("Values");
+                JsonNode counts = value.path("Counts");
+                assertEquals(name, values.size(), counts.size());
+                assertTrue(name, values.size() <= InvocationMetrics.MAX_VALUES_PER_METRIC);
+                long count = 0;
+                double previous = -1;
+                for (int i = 0; i < values.size(); i++) {
+                    assertTrue(String.format("%s values ascending", name), values.get(i).asDouble() > previous);
+                    previous = values.get(i).asDouble();
+                    count += counts.get(i).asLong();
+                }
+                assertEquals(name, value.path("Count").asLong(), count);
+                assertEquals(name, values.get(0).asDouble(), value.path("Min").asDouble(), 0);
+                assertEquals(name, previous, value.path("Max").asDouble(), 0);
+            }
+        }
+    }
+
+    /**
+     * @return the percentile over the metric's values on all the lines of a flush
+     */
+    private static double percentile(List<JsonNode> lines, String metric, double quantile) {
+        TreeMap<Double, Long> histogram = new TreeMap<>();
+        for (JsonNode line : lines) {
+            JsonNode values = line.path(metric).path("Values");
+            for (int i = 0; i < values.size(); i++) {
+                histogram.merge(values.get(i).asDouble(), line.path(metric).path("Counts").get(i).asLong(), Long::sum);
+            }
+        }
+
+        long rank = (long) Math.ceil(quantile * histogram.values().stream().mapToLong(Long::longValue).sum());
+        long seen = 0;
+        for (Map.Entry<Double, Long> entry : histogram.entrySet()) {
+            seen += entry.getValue();
+            if (seen >= rank) {
+                return entry.getKey();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static void assertWithin(double actual, double reported) {
+        assertEquals(actual, reported, actual * PRECISION);
+    }
+}
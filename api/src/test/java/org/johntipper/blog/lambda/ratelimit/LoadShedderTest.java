@@ -0,0 +1,97 @@
+package org.johntipper.blog.lambda.ratelimit;
+
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LoadShedderTest {
+
+    // CloudFront's edge addresses, as API Gateway sees them
+    private static final String EDGE = "70.132.1.1";
+    private static final String OTHER_EDGE = "70.132.2.2";
+
+    // a client calling the execute-api or api.<domain> endpoint directly
+    private static final String DIRECT_CLIENT = "198.51.100.9";
+
+    private static final String ORIGIN_SECRET = "4f1c9e0a7b";
+
+    private final LoadShedder loadShedder = new LoadShedder(new TokenBucketLimiter(4096, 1, 1, new AtomicLong()::get), ORIGIN_SECRET);
+
+    @Test
+    public void keysClientsOnTheAddressCloudFrontForwarded() {
+        assertEquals("203.0.113.7", loadShedder.clientKey(throughCloudFront(Map.of("X-Forwarded-For", "203.0.113.7, 70.132.1.1"), EDGE)));
+        assertEquals("203.0.113.7", loadShedder.clientKey(throughCloudFront(Map.of("x-forwarded-for", " 203.0.113.7 "), EDGE)));
+        assertEquals("2001:db8::1", loadShedder.clientKey(throughCloudFront(Map.of("X-Forwarded-For", "2001:db8::1"), EDGE)));
+    }
+
+    @Test
+    public void ignoresASpoofedLeftMostForwardedAddress() {
+        // the client sent X-Forwarded-For: 198.51.100.1, and CloudFront appended the address it saw
+        assertEquals("203.0.113.7", loadShedder.clientKey(throughCloudFront(Map.of("X-Forwarded-For", "198.51.100.1, 203.0.113.7, 70.132.1.1"), EDGE)));
+        assertEquals("203.0.113.7", loadShedder.clientKey(throughCloudFront(Map.of("X-Forwarded-For", "198.51.100.1,203.0.113.7"), EDGE)));
+    }
+
+    @Test
+    public void prefersTheViewerAddressHeader() {
+        Map<String, String> headers = Map.of("CloudFront-Viewer-Address", "203.0.113.7:46532",
+                                             "X-Forwarded-For", "198.51.100.1, 203.0.113.9, 70.132.1.1");
+        assertEquals("203.0.113.7", loadShedder.clientKey(throughCloudFront(headers, EDGE)));
+        assertEquals("2001:db8::1", loadShedder.clientKey(throughCloudFront(Map.of("cloudfront-viewer-address", "2001:db8::1:46532"), EDGE)));
+    }
+
+    @Test
+    public void fallsBackToTheSourceIp() {
+        assertEquals(EDGE, loadShedder.clientKey(throughCloudFront(Map.of(), EDGE)));
+        assertEquals(EDGE, loadShedder.clientKey(throughCloudFront(Map.of("X-Forwarded-For", " , 70.132.1.1"), EDGE)));
+        assertNull(loadShedder.clientKey(request(Map.of(), null)));
+    }
+
+    @Test
+    public void keysADirectCallOnItsSourceIpWhateverAddressItForges() {
+        assertEquals(DIRECT_CLIENT, loadShedder.clientKey(request(Map.of("CloudFront-Viewer-Address", "203.0.113.7:1"), DIRECT_CLIENT)));
+        assertEquals(DIRECT_CLIENT, loadShedder.clientKey(request(Map.of("X-Forwarded-For", "203.0.113.7"), DIRECT_CLIENT)));
+        assertEquals(DIRECT_CLIENT, loadShedder.clientKey(request(Map.of("X-Origin-Secret", "4f1c9e0a7c",
+                                                                         "CloudFront-Viewer-Address", "203.0.113.7:1"), DIRECT_CLIENT)));
+        assertEquals(DIRECT_CLIENT, loadShedder.clientKey(request(Map.of("X-Origin-Secret", ORIGIN_SECRET + "0",
+                                                                         "X-Forwarded-For", "203.0.113.7"), DIRECT_CLIENT)));
+
+        // so rotating the forged address on every request gets it nothing
+        assertNull(loadShedder.shed(request(Map.of("CloudFront-Viewer-Address", "203.0.113.1:1"), DIRECT_CLIENT)));
+        assertEquals(429, loadShedder.shed(request(Map.of("CloudFront-Viewer-Address", "203.0.113.2:1"), DIRECT_CLIENT)).getStatusCode());
+        assertEquals(429, loadShedder.shed(request(Map.of("X-Forwarded-For", "203.0.113.3"), DIRECT_CLIENT)).getStatusCode());
+    }
+
+    @Test
+    public void trustsNoForwardedAddressWithoutAnOriginSecret() {
+        LoadShedder withoutSecret = new LoadShedder(new TokenBucketLimiter(4096, 1, 1, new AtomicLong()::get), null);
+        assertEquals(EDGE, withoutSecret.clientKey(throughCloudFront(Map.of("CloudFront-Viewer-Address", "203.0.113.7:46532"), EDGE)));
+        assertEquals(EDGE, withoutSecret.clientKey(request(Map.of("X-Origin-Secret", "", "X-Forwarded-For", "203.0.113.7"), EDGE)));
+    }
+
+    @Test
+    public void shedsEachViewerSeparatelyWhateverEdgeTheyComeThrough() {
+        assertNull(loadShedder.shed(throughCloudFront(Map.of("X-Forwarded-For", "203.0.113.7, 70.132.1.1"), EDGE)));
+        assertNull(loadShedder.shed(throughCloudFront(Map.of("X-Forwarded-For", "203.0.113.8, 70.132.1.1"), EDGE)));
+
+        CachedResponse shed = loadShedder.shed(throughCloudFront(Map.of("X-Forwarded-For", "203.0.113.7, 70.132.2.2"), OTHER_EDGE));
+        assertEquals(429, shed.getStatusCode());
+        assertEquals("1", shed.getHeaders().get("Retry-After"));
+    }
+
+    // as the distribution's api origin sends it on, with the origin secret added
+    private static ApiRequest throughCloudFront(Map<String, String> headers, String sourceIp) {
+        Map<String, String> withSecret = new HashMap<>(headers);
+        withSecret.put("x-origin-secret", ORIGIN_SECRET);
+        return request(withSecret, sourceIp);
+    }
+
+    private static ApiRequest request(Map<String, String> headers, String sourceIp) {
+        return new ApiRequest("GET", "/hello", "/hello", Map.of(), headers, sourceIp);
+    }
+}
@@ -0,0 +1,102 @@
+package org.johntipper.blog.lambda.ratelimit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    @Test
+    public void admitsTheBurstThenOneTokenPerEmissionInterval() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64, 10, 3, clock::get);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("81.2.69.160"));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.tryAcquire("81.2.69.160"));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), limiter.tryAcquire("81.2.69.160"));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(0, limiter.tryAcquire("81.2.69.160"));
+        assertTrue(limiter.tryAcquire("81.2.69.160") > 0);
+    }
+
+    @Test
+    public void keepsClientsApart() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4096, 1, 1, clock::get);
+
+        assertEquals(0, limiter.tryAcquire("81.2.69.160"));
+        assertTrue(limiter.tryAcquire("81.2.69.160") > 0);
+        assertEquals(0, limiter.tryAcquire("81.2.69.161"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStripeCountThatIsNotAPowerOfTwo() {
+        new TokenBucketLimiter(1000, 1, 1);
+    }
+
+    @Test
+    public void admitsExactlyBurstPlusRateTimesElapsedUnderContention() throws Exception {
+        int threads = 64;
+        int clients = 16;
+        double ratePerSecond = 50;
+        int burst = 5;
+        long stepNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        int steps = 50;
+
+        List<String> clientKeys = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            clientKeys.add(String.format("10.0.%d.%d", i / 256, i % 256));
+        }
+
+        // plenty of stripes, so no two clients share a bucket
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1 << 16, ratePerSecond, burst, clock::get);
+        AtomicLongArray admitted = new AtomicLongArray(clients);
+
+        // the clock stands still while the threads race, so every client is offered far more attempts than it has
+        // tokens and the only contention is on the buckets themselves
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int step = 0; step <= steps; step++) {
+                List<Future<?>> workers = new ArrayList<>(threads);
+                for (int t = 0; t < threads; t++) {
+                    int offset = t;
+                    workers.add(executor.submit(() -> {
+                        for (int i = offset; i < offset + clients * 20; i++) {
+                            int client = i % clients;
+                            if (limiter.tryAcquire(clientKeys.get(client)) == 0) {
+                                admitted.incrementAndGet(client);
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+                clock.addAndGet(stepNanos);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double elapsedSeconds = steps * stepNanos / 1e9;
+        long expected = (long) (burst + ratePerSecond * elapsedSeconds);
+        for (int client = 0; client < clients; client++) {
+            assertEquals(String.format("Admitted for %s", clientKeys.get(client)), expected, admitted.get(client));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.johntipper.blog.lambda.runtime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RuntimeContextTest {
+
+    @After
+    public void clearTraceId() {
+        System.clearProperty(LambdaRuntime.TRACE_ID_PROPERTY);
+    }
+
+    @Test
+    public void reportsTheTimeLeftBeforeTheDeadline() {
+        int remaining = new RuntimeContext("1", "arn", System.currentTimeMillis() + 3000).getRemainingTimeInMillis();
+        assertTrue(remaining > 2000 && remaining <= 3000);
+
+        assertEquals(0, new RuntimeContext("1", "arn", System.currentTimeMillis() - 3000).getRemainingTimeInMillis());
+    }
+
+    @Test
+    public void clampsAMissingDeadline() {
+        // what LambdaRuntime passes when the Runtime API sends no deadline header
+        assertEquals(Integer.MAX_VALUE, new RuntimeContext("1", "arn", Long.MAX_VALUE).getRemainingTimeInMillis());
+        assertEquals(Integer.MAX_VALUE, new RuntimeContext("1", "arn", System.currentTimeMillis() + Integer.MAX_VALUE + 1000L).getRemainingTimeInMillis());
+    }
+
+    @Test
+    public void setsEachInvocationsTraceId() {
+        LambdaRuntime.setTraceId("Root=1-5f9c2b1a-3d4e5f6a7b8c9d0e1f2a3b4c;Parent=53995c3f42cd8ad8;Sampled=1");
+        assertEquals("Root=1-5f9c2b1a-3d4e5f6a7b8c9d0e1f2a3b4c;Parent=53995c3f42cd8ad8;Sampled=1", System.getProperty(LambdaRuntime.TRACE_ID_PROPERTY));
+
+        // not carried over to an invocation without one
+        LambdaRuntime.setTraceId(null);
+        assertNull(System.getProperty(LambdaRuntime.TRACE_ID_PROPERTY));
+    }
+}
@@ -0,0 +1,162 @@
+package org.johntipper.blog.lambda.stream;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.johntipper.blog.lambda.ApiRequest;
+import org.johntipper.blog.lambda.cache.CachedResponse;
+import org.johntipper.blog.lambda.runtime.LambdaRuntime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ProxyEventCodecTest {
+
+    // the REST API event fixtures the tools and benchmarks replay; tests run in the api project directory
+    private static final Path EVENTS = Paths.get("src/tools/resources/events");
+
+    private final ProxyEventCodec codec = new ProxyEventCodec();
+
+    private final ObjectMapper mapper = LambdaRuntime.eventMapper();
+
+    @Test
+    public void readsEachFixtureAsTheBoundEventWouldBe() throws IOException {
+        List<Path> fixtures;
+        try (Stream<Path> files = Files.list(EVENTS)) {
+            fixtures = files.filter(file -> file.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+        }
+        assertFalse(fixtures.isEmpty());
+
+        for (Path fixture : fixtures) {
+            byte[] event = Files.readAllBytes(fixture);
+            assertSameRequest(fixture.getFileName().toString(),
+                              ApiRequest.fromEvent(mapper.readValue(event, APIGatewayProxyRequestEvent.class)),
+                              codec.read(new ByteArrayInputStream(event)));
+        }
+    }
+
+    @Test
+    public void skipsNestedFieldsItDoesNotNeed() throws IOException {
+        // the fields read are interleaved with ones skipped token by token, nested objects and arrays included
+        String event = "{"
+                       + "\"multiValueHeaders\": {\"Accept\": [\"text/html\", \"application/json\"], \"X-Forwarded-For\": [\"203.0.113.7\"]},"
+                       + "\"resource\": \"/posts/{slug}\","
+                       + "\"multiValueQueryStringParameters\": {\"tag\": [\"java\", \"aws\"]},"
+                       + "\"pathParameters\": {\"slug\": \"hello-world\"},"
+                       + "\"stageVariables\": null,"
+                       + "\"requestContext\": {"
+                       + "  \"authorizer\": {\"claims\": {\"sub\": \"abc\", \"groups\": [\"a\", {\"b\": [1, 2]}]}},"
+                       + "  \"identity\": {\"sourceIp\": \"203.0.113.7\", \"clientCert\": {\"validity\": {\"notAfter\": \"2030\"}}, \"userAgent\": null},"
+                       + "  \"requestTimeEpoch\": 1604067706123,"
+                       + "  \"path\": \"/api/posts/hello-world\""
+                       + "},"
+                       + "\"body\": \"{\\\"path\\\": \\\"/not/this/one\\\"}\","
+                       + "\"headers\": {\"Accept\": \"text/html\", \"X-Forwarded-For\": \"203.0.113.7\"},"
+                       + "\"isBase64Encoded\": false,"
+                       + "\"path\": \"/posts/hello-world\","
+                       + "\"queryStringParameters\": {\"tag\": \"aws\"},"
+                       + "\"httpMethod\": \"GET\""
+                       + "}";
+
+        ApiRequest request = read(event);
+
+        assertEquals("GET", request.getHttpMethod());
+        assertEquals("/posts/hello-world", request.getPath());
+        assertEquals("/posts/{slug}", request.getResource());
+        assertEquals(Map.of("tag", "aws"), request.getQueryStringParameters());
+        assertEquals(Map.of("Accept", "text/html", "X-Forwarded-For", "203.0.113.7"), request.getHeaders());
+        assertEquals("203.0.113.7", request.getSourceIp());
+        assertSameRequest("nested", ApiRequest.fromEvent(mapper.readValue(event, APIGatewayProxyRequestEvent.class)), request);
+    }
+
+    @Test
+    public void readsNullOrMissingMapsAsEmpty() throws IOException {
+        ApiRequest request = read("{\"httpMethod\": \"GET\", \"path\": \"/hello\", \"headers\": null, \"queryStringParameters\": null, \"requestContext\": null}");
+
+        assertEquals(Map.of(), request.getHeaders());
+        assertEquals(Map.of(), request.getQueryStringParameters());
+        assertNull(request.getResource());
+        assertNull(request.getSourceIp());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnEventThatIsNotAnObject() throws IOException {
+        read("[]");
+    }
+
+    @Test
+    public void writesAResponseThatRoundTrips() throws IOException {
+        Map<String, String> headers = Map.of("Content-Type", "application/json",
+                                             "ETag", "\"2f1a\"",
+                                             "X-Escaped", "back\\slash \"quoted\" tab\t newline\n caf\u00e9 \u2603");
+        JsonNode written = write(new CachedResponse(200, headers, "{\"message\": \"Hello, World!\"}"));
+
+        assertEquals(200, written.path("statusCode").asInt());
+        assertEquals(headers, mapper.convertValue(written.path("headers"), Map.class));
+        assertEquals("{\"message\": \"Hello, World!\"}", written.path("body").asText());
+        // API Gateway takes a missing flag as false
+        assertFalse(written.has("isBase64Encoded"));
+    }
+
+    @Test
+    public void writesTheBase64Flag() throws IOException {
+        JsonNode written = write(new CachedResponse(200, Map.of("Content-Encoding", "gzip"), "H4sIAAAAAAAA/w==", true, null));
+
+        assertTrue(written.path("isBase64Encoded").isBoolean());
+        assertTrue(written.path("isBase64Encoded").asBoolean());
+        assertEquals("H4sIAAAAAAAA/w==", written.path("body").asText());
+    }
+
+    @Test
+    public void leavesOutANullBodyAndEmptyHeaders() throws IOException {
+        JsonNode written = write(new CachedResponse(304, Map.of(), null));
+
+        assertEquals(304, written.path("statusCode").asInt());
+        assertFalse(written.has("body"));
+        assertFalse(written.has("headers"));
+        assertEquals(1, written.size());
+    }
+
+    @Test
+    public void leavesTheOutputStreamOpen() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                throw new AssertionError("closed the invocation's output stream");
+            }
+        };
+        codec.write(new CachedResponse(204, Map.of(), null), out);
+        assertEquals("{\"statusCode\":204}", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private ApiRequest read(String event) throws IOException {
+        return codec.read(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private JsonNode write(CachedResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(response, out);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    private static void assertSameRequest(String description, ApiRequest expected, ApiRequest actual) {
+        assertEquals(description, expected.getHttpMethod(), actual.getHttpMethod());
+        assertEquals(description, expected.getPath(), actual.getPath());
+        assertEquals(description, expected.getResource(), actual.getResource());
+        assertEquals(description, expected.getQueryStringParameters(), actual.getQueryStringParameters());
+        assertEquals(description, expected.getHeaders(), actual.getHeaders());
+        assertEquals(description, expected.getSourceIp(), actual.getSourceIp());
+    }
+}
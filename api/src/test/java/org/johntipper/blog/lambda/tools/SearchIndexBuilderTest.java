@@ -0,0 +1,171 @@
+package org.johntipper.blog.lambda.tools;
+
+import org.johntipper.blog.lambda.search.SearchIndex;
+import org.johntipper.blog.lambda.search.Tokenizer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexBuilderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SearchIndex index;
+
+    @Before
+    public void buildIndex() throws IOException {
+        // newest first, as the builder's main sorts them
+        List<SearchIndexBuilder.Post> posts = List.of(
+            post("2020-09-12-cdk-static-website",
+                 "---\n"
+                 + "title: CDK Static Website\n"
+                 + "date: 2020-09-12\n"
+                 + "slug: static-website\n"
+                 + "excerpt: Hosting a static website.\n"
+                 + "---\n"
+                 + "Serving a static website from S3 through CloudFront. CloudFront caches the website at the edge.\n"
+                 + "See [the docs](https://docs.aws.amazon.com/kubernetes) and <a href=\"https://example.com\">this</a>.\n"),
+            post("2020-08-29-cdk-setting-up-with-java",
+                 "---\n"
+                 + "title: 'CDK: setting up with Java'\n"
+                 + "date: 2020-08-29\n"
+                 + "excerpt: \"Getting started with the CDK in Java.\"\n"
+                 + "---\n"
+                 + "Writing CDK apps in Java. Java needs a JDK and Gradle to build the app. Later, a website.\n"),
+            post("2018-07-18-gradle-integration-testing",
+                 "---\n"
+                 + "title: \"Gradle \u2013 Integration Testing\"\n"
+                 + "date: 2018-07-18\n"
+                 + "---\n"
+                 + "Gradle runs integration tests. Gradle, gradle and more Gradle.\n"),
+            // no front matter: titled after its directory
+            post("notes", "Static notes.\n"));
+
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve(SearchIndex.FILE_NAME);
+        Files.write(indexFile, SearchIndexBuilder.write(posts));
+        index = SearchIndex.open(indexFile);
+    }
+
+    @Test
+    public void keepsThePostsInOrderWithTheirPermalinks() {
+        assertEquals(4, index.getDocumentCount());
+        List<String> paths = new ArrayList<>();
+        for (int document = 0; document < index.getDocumentCount(); document++) {
+            paths.add(index.getPath(document));
+        }
+        // the slug when there is one, else the title; ViewCountHandler's page names are these without the slashes
+        assertEquals(List.of("/static-website/", "/cdk-setting-up-with-java/", "/gradle-integration-testing/", "/notes/"), paths);
+    }
+
+    @Test
+    public void permalinkSlugifiesTheTitleAsTheThemeDoes() {
+        assertEquals("/gradle-plugin-development-functional-testing-with-spock/", SearchIndexBuilder.permalink("Gradle Plugin Development \u2013 Functional Testing with Spock"));
+        assertEquals("/cdk-setting-up-with-java/", SearchIndexBuilder.permalink("CDK: Setting up with Java"));
+        assertEquals("/cafe-deja-vu/", SearchIndexBuilder.permalink("Caf\u00e9  D\u00e9j\u00e0 vu"));
+        assertEquals("/a-b/", SearchIndexBuilder.permalink("a - b"));
+    }
+
+    @Test
+    public void findsEachTermCaseInsensitively() {
+        assertEquals(List.of("/static-website/", "/cdk-setting-up-with-java/"), paths(index.search("website", 10)));
+        assertEquals(List.of("/static-website/", "/cdk-setting-up-with-java/"), paths(index.search("WEBSITE", 10)));
+    }
+
+    @Test
+    public void returnsTheFrontMatterOfAHit() {
+        SearchIndex.Hit hit = index.search("java", 10).get(0);
+
+        assertEquals("/cdk-setting-up-with-java/", hit.getPath());
+        assertEquals("CDK: setting up with Java", hit.getTitle());
+        assertEquals("2020-08-29", hit.getDate());
+        assertEquals("Getting started with the CDK in Java.", hit.getExcerpt());
+        assertTrue(hit.getScore() > 0);
+
+        SearchIndex.Hit untitled = index.search("notes", 10).get(0);
+        assertEquals("notes", untitled.getTitle());
+        assertEquals("", untitled.getDate());
+        assertEquals("", untitled.getExcerpt());
+    }
+
+    @Test
+    public void matchesOnlyPostsContainingEveryTerm() {
+        // the static website post has cdk but not java
+        assertEquals(List.of("/cdk-setting-up-with-java/"), paths(index.search("cdk java", 10)));
+        assertEquals(List.of(), paths(index.search("java kubernetes", 10)));
+    }
+
+    @Test
+    public void ranksMoreFrequentAndTitleTermsFirst() {
+        assertEquals(List.of("/gradle-integration-testing/", "/cdk-setting-up-with-java/"), paths(index.search("gradle", 10)));
+        // in the title as well as the body, against the body alone
+        assertEquals(List.of("/static-website/", "/notes/"), paths(index.search("static", 10)));
+
+        List<SearchIndex.Hit> hits = index.search("gradle", 10);
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+    }
+
+    @Test
+    public void keepsOnlyTheBestHits() {
+        assertEquals(List.of("/static-website/"), paths(index.search("website", 1)));
+        assertEquals(List.of(), paths(index.search("website", 0)));
+    }
+
+    @Test
+    public void ranksTiesNewestFirst() throws IOException {
+        String body = "Identical posts about lambda.\n";
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("ties.bin");
+        Files.write(indexFile, SearchIndexBuilder.write(List.of(post("newer", "---\ntitle: Newer\ndate: 2020-02-01\n---\n" + body),
+                                                               post("older", "---\ntitle: Older\ndate: 2020-01-01\n---\n" + body))));
+
+        assertEquals(List.of("/newer/", "/older/"), paths(SearchIndex.open(indexFile).search("lambda", 10)));
+    }
+
+    @Test
+    public void findsNothingForAnEmptyOrUnknownQuery() {
+        assertEquals(List.of(), index.search("", 10));
+        // stop words and single characters aren't terms
+        assertEquals(List.of(), index.search("the and a", 10));
+        assertEquals(List.of(), index.search("kubernetes", 10));
+        // link targets and tags aren't indexed
+        assertEquals(List.of(), index.search("https", 10));
+        assertEquals(List.of(), index.search("href", 10));
+    }
+
+    @Test
+    public void tokenizesAsTheIndexIsBuilt() {
+        assertEquals(List.of("cdk", "aws", "s3"), Tokenizer.distinctTerms("The CDK, the cdk and AWS's S3 a"));
+        assertEquals(List.of("caf\u00e9"), Tokenizer.distinctTerms("Caf\u00e9"));
+        assertEquals(List.of(), Tokenizer.distinctTerms("x".repeat(Tokenizer.MAX_TERM_LENGTH + 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAFileThatIsNotAnIndex() {
+        new SearchIndex(ByteBuffer.allocate(SearchIndex.HEADER_BYTES));
+    }
+
+    private SearchIndexBuilder.Post post(String directory, String markdown) throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve(directory).resolve("index.md");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, markdown);
+        return SearchIndexBuilder.parse(file);
+    }
+
+    private static List<String> paths(List<SearchIndex.Hit> hits) {
+        List<String> paths = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            paths.add(hit.getPath());
+        }
+        return paths;
+    }
+}
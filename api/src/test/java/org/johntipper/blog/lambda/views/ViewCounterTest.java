@@ -0,0 +1,152 @@
+package org.johntipper.blog.lambda.views;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class ViewCounterTest {
+
+    private static final Duration FLUSH_INTERVAL = Duration.ofSeconds(10);
+
+    private static final long MAX_PENDING = 5;
+
+    private final FakeViewStore store = new FakeViewStore();
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final ViewCounter counter = new ViewCounter(store, nanos::get, FLUSH_INTERVAL, MAX_PENDING);
+
+    @Test
+    public void firstViewOfAPageAddsOnlyThatPage() {
+        counter.increment("a");
+        counter.increment("a");
+        counter.increment("b");
+
+        // a's second view is still pending, and b's first doesn't write it
+        assertEquals(List.of("a+1", "b+1"), store.takeAdds());
+        assertEquals(1, counter.getPendingViews());
+        assertEquals(2, counter.count("a"));
+    }
+
+    @Test
+    public void countsTheStoredCountPlusPendingViews() {
+        store.counts.put("a", 100L);
+
+        assertEquals(101, counter.increment("a"));
+        assertEquals(102, counter.increment("a"));
+        assertEquals(103, counter.increment("a"));
+
+        assertEquals(List.of("a+1"), store.takeAdds());
+    }
+
+    @Test
+    public void flushesEveryPageOnceTheIntervalHasPassed() {
+        counter.increment("a");
+        counter.increment("b");
+        counter.increment("a");
+        counter.increment("b");
+        store.takeAdds();
+
+        nanos.addAndGet(FLUSH_INTERVAL.toNanos());
+        counter.increment("a");
+
+        assertEquals(List.of("a+2", "b+1"), sorted(store.takeAdds()));
+        assertEquals(0, counter.getPendingViews());
+        assertEquals(List.of(), flushedBy(() -> counter.increment("b")));
+    }
+
+    @Test
+    public void flushesEveryPageOnceEnoughViewsArePending() {
+        counter.increment("a");
+        counter.increment("b");
+        store.takeAdds();
+
+        for (int i = 0; i < MAX_PENDING - 1; i++) {
+            counter.increment(i % 2 == 0 ? "a" : "b");
+        }
+        assertEquals(List.of(), store.takeAdds());
+
+        counter.increment("a");
+        assertEquals(List.of("a+3", "b+2"), sorted(store.takeAdds()));
+        assertEquals(0, counter.getPendingViews());
+    }
+
+    @Test
+    public void putsBackAFailedFirstViewAndRetriesItOnTheNextView() {
+        store.failing = true;
+        assertEquals(1, counter.increment("a"));
+        assertEquals(1, counter.getFailedWrites());
+        assertEquals(1, counter.getPendingViews());
+
+        store.failing = false;
+        assertEquals(2, counter.increment("a"));
+        assertEquals(List.of("a+2"), store.takeAdds());
+        assertEquals(0, counter.getPendingViews());
+    }
+
+    @Test
+    public void putsBackAFailedFlushAndRetriesItOnTheNextFlush() {
+        counter.increment("a");
+        counter.increment("a");
+        store.takeAdds();
+
+        store.failing = true;
+        nanos.addAndGet(FLUSH_INTERVAL.toNanos());
+        counter.increment("a");
+        assertEquals(1, counter.getFailedWrites());
+        assertEquals(2, counter.getPendingViews());
+        assertEquals(3, counter.count("a"));
+
+        store.failing = false;
+        nanos.addAndGet(FLUSH_INTERVAL.toNanos());
+        counter.increment("a");
+        assertEquals(List.of("a+3"), store.takeAdds());
+        assertEquals(4, store.counts.get("a").longValue());
+        assertEquals(4, counter.count("a"));
+        assertEquals(4, counter.getViews());
+        assertEquals(2, counter.getWrites());
+    }
+
+    private List<String> flushedBy(Runnable runnable) {
+        runnable.run();
+        return store.takeAdds();
+    }
+
+    private static List<String> sorted(List<String> adds) {
+        List<String> sorted = new ArrayList<>(adds);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private static class FakeViewStore implements ViewStore {
+
+        final Map<String, Long> counts = new HashMap<>();
+
+        // page+increment, in order
+        private final List<String> adds = new ArrayList<>();
+
+        volatile boolean failing;
+
+        @Override
+        public synchronized long add(String page, long increment) {
+            if (failing) {
+                throw new IllegalStateException("Store unavailable");
+            }
+            adds.add(String.format("%s+%d", page, increment));
+            return counts.merge(page, increment, Long::sum);
+        }
+
+        synchronized List<String> takeAdds() {
+            List<String> taken = new ArrayList<>(adds);
+            adds.clear();
+            return taken;
+        }
+    }
+}
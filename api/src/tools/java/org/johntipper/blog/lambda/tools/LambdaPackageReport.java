@@ -0,0 +1,130 @@
+package org.johntipper.blog.lambda.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Compares the full and trimmed lambda packages: zip size, classes loaded (and how many of them came from the JDK's
+ * CDS archive) and init/cold start time measured through {@link LocalRuntimeApi}. Each runs on this JVM with the same
+ * flags as Lambda's Java runtime, from the package directory, and the two are measured in turn several times over so
+ * that timings are medians rather than one noisy sample.
+ *
+ * <pre>
+ * LambdaPackageReport &lt;event.json&gt; &lt;invocations&gt; &lt;report.json&gt; &lt;fullZip&gt; &lt;fullDir&gt; &lt;trimmedZip&gt; &lt;trimmedDir&gt;
+ * </pre>
+ */
+public class LambdaPackageReport {
+
+    private static final String RUNTIME_MAIN_CLASS = "org.johntipper.blog.lambda.runtime.LambdaRuntime";
+
+    private static final int RUNS = 5;
+
+    private final byte[] event;
+
+    private final int invocations;
+
+    public LambdaPackageReport(byte[] event, int invocations) {
+        this.event = event;
+        this.invocations = invocations;
+    }
+
+    public Run measure(Path packageDir) throws IOException, InterruptedException {
+        Path classLoadLog = Files.createTempFile("class-load", ".log");
+        try {
+            List<String> command = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                                           "-XX:+TieredCompilation",
+                                                           "-XX:TieredStopAtLevel=1",
+                                                           "-Xshare:auto",
+                                                           String.format("-Xlog:class+load=info:file=%s", classLoadLog)));
+            command.addAll(List.of("-cp", LambdaPackageTrimmer.classpath(packageDir), RUNTIME_MAIN_CLASS));
+
+            LocalRuntimeApi.Measurement measurement = new LocalRuntimeApi(event, invocations).run(command, packageDir);
+
+            List<String> loaded = Files.readAllLines(classLoadLog);
+            return new Run(measurement, loaded.size(), loaded.stream().filter(line -> line.contains("source: shared objects file")).count());
+        } finally {
+            Files.deleteIfExists(classLoadLog);
+        }
+    }
+
+    private static class Run {
+
+        private final LocalRuntimeApi.Measurement measurement;
+
+        private final int loadedClasses;
+
+        private final long sharedClasses;
+
+        private Run(LocalRuntimeApi.Measurement measurement, int loadedClasses, long sharedClasses) {
+            this.measurement = measurement;
+            this.loadedClasses = loadedClasses;
+            this.sharedClasses = sharedClasses;
+        }
+    }
+
+    private static Map<String, Object> summarise(Path zip, List<Run> runs) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("zipBytes", Files.size(zip));
+        result.put("loadedClasses", runs.get(0).loadedClasses);
+        result.put("sharedClasses", runs.get(0).sharedClasses);
+        result.put("initMillis", median(runs, run -> run.measurement.getInitMillis()));
+        result.put("coldStartMillis", median(runs, run -> run.measurement.getColdStartMillis()));
+        result.put("firstInvocationMillis", median(runs, run -> run.measurement.getFirstInvocationMillis()));
+        result.put("warmP50Millis", median(runs, run -> run.measurement.getWarmP50Millis()));
+        result.put("peakRss", runs.get(0).measurement.getPeakRss());
+        return result;
+    }
+
+    private static double median(List<Run> runs, ToDoubleFunction<Run> value) {
+        double[] values = runs.stream().mapToDouble(value).sorted().toArray();
+        return values[values.length / 2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 7) {
+            System.err.println("Usage: LambdaPackageReport <event.json> <invocations> <report.json> <fullZip> <fullDir> <trimmedZip> <trimmedDir>");
+            System.exit(1);
+        }
+
+        LambdaPackageReport report = new LambdaPackageReport(Files.readAllBytes(Paths.get(args[0])), Integer.parseInt(args[1]));
+        Path fullZip = Paths.get(args[3]);
+        Path fullDir = Paths.get(args[4]);
+        Path trimmedZip = Paths.get(args[5]);
+        Path trimmedDir = Paths.get(args[6]);
+
+        Map<String, List<Run>> runs = new LinkedHashMap<>();
+        for (String name : List.of("full", "trimmed")) {
+            runs.put(name, new ArrayList<>());
+        }
+        for (int i = 0; i < RUNS; i++) {
+            runs.get("full").add(report.measure(fullDir));
+            runs.get("trimmed").add(report.measure(trimmedDir));
+        }
+
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        results.put("full", summarise(fullZip, runs.get("full")));
+        results.put("trimmed", summarise(trimmedZip, runs.get("trimmed")));
+
+        System.out.printf("%-14s %10s %8s %8s %10s %13s%n", "package", "zip bytes", "classes", "shared", "init ms", "cold start ms");
+        results.forEach((name, result) -> System.out.printf("%-14s %10d %8d %8d %10.1f %13.1f%n",
+                                                             name,
+                                                             (Long) result.get("zipBytes"),
+                                                             (Integer) result.get("loadedClasses"),
+                                                             (Long) result.get("sharedClasses"),
+                                                             (Double) result.get("initMillis"),
+                                                             (Double) result.get("coldStartMillis")));
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                          .writeValue(Paths.get(args[2]).toFile(), results);
+    }
+}
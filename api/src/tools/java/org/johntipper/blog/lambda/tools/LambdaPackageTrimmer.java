@@ -0,0 +1,178 @@
+package org.johntipper.blog.lambda.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds a trimmed lambda package from the class lists of training runs ({@code -XX:DumpLoadedClassList}): jars none
+ * of whose classes were loaded are dropped (unless named for keeping), jars named for pruning keep only the loaded
+ * classes (and their nested classes), and everything else is copied as is.
+ * <p>
+ * No AppCDS archive is dumped: Lambda's managed Java runtime loads the handler through its own class loader rather than
+ * from the application classpath an archive records, and only maps an archive dumped by its own JVM build.
+ * <p>
+ * Pruning is only safe for jars whose classes aren't loaded reflectively off the trained path, e.g. the event model.
+ * Jars only used off the trained path altogether have to be named for keeping.
+ *
+ * <pre>
+ * LambdaPackageTrimmer &lt;classList,...&gt; &lt;outputDir&gt; &lt;pruneJarPrefix,...&gt; &lt;keepJarPrefix,...&gt; &lt;jar&gt; [jar...]
+ * </pre>
+ */
+public class LambdaPackageTrimmer {
+
+    public static final String LIB_DIR = "lib";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Set<String> loadedClasses;
+
+    private final Path outputDir;
+
+    private final List<String> pruneJarPrefixes;
+
+    private final List<String> keepJarPrefixes;
+
+    public LambdaPackageTrimmer(Set<String> loadedClasses, Path outputDir, List<String> pruneJarPrefixes, List<String> keepJarPrefixes) {
+        this.loadedClasses = loadedClasses;
+        this.outputDir = outputDir;
+        this.pruneJarPrefixes = pruneJarPrefixes;
+        this.keepJarPrefixes = keepJarPrefixes;
+    }
+
+    public void trim(List<Path> jars) throws IOException {
+        Path libDir = outputDir.resolve(LIB_DIR);
+        Files.createDirectories(libDir);
+
+        for (Path jar : jars) {
+            String name = jar.getFileName().toString();
+            Path target = libDir.resolve(name);
+
+            try (JarFile jarFile = new JarFile(jar.toFile())) {
+                List<JarEntry> classes = jarFile.stream()
+                                                .filter(entry -> entry.getName().endsWith(CLASS_SUFFIX))
+                                                .collect(Collectors.toList());
+                long loaded = classes.stream().filter(this::isLoaded).count();
+
+                if (keepJarPrefixes.stream().anyMatch(name::startsWith)) {
+                    Files.copy(jar, target, StandardCopyOption.REPLACE_EXISTING);
+                    System.out.printf("kept    %s (named for keeping, %d of %d classes loaded)%n", name, loaded, classes.size());
+
+                } else if (loaded == 0) {
+                    System.out.printf("dropped %s (%d classes, none loaded)%n", name, classes.size());
+
+                } else if (pruneJarPrefixes.stream().anyMatch(name::startsWith)) {
+                    int kept = copyLoaded(jarFile, target);
+                    System.out.printf("pruned  %s to %d of %d classes%n", name, kept, classes.size());
+
+                } else {
+                    Files.copy(jar, target, StandardCopyOption.REPLACE_EXISTING);
+                    System.out.printf("kept    %s (%d of %d classes loaded)%n", name, loaded, classes.size());
+                }
+            }
+        }
+    }
+
+    private int copyLoaded(JarFile jarFile, Path target) throws IOException {
+        int kept = 0;
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(target))) {
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                if (entry.getName().endsWith(CLASS_SUFFIX) && !isLoaded(entry) && !isNestedInLoaded(entry)) {
+                    continue;
+                }
+                if (entry.getName().endsWith(CLASS_SUFFIX)) {
+                    kept++;
+                }
+                out.putNextEntry(new JarEntry(entry.getName()));
+                try (InputStream in = jarFile.getInputStream(entry)) {
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        }
+        return kept;
+    }
+
+    private boolean isLoaded(JarEntry entry) {
+        return loadedClasses.contains(className(entry));
+    }
+
+    private boolean isNestedInLoaded(JarEntry entry) {
+        // nested classes go with their outer class: Jackson reaches them through the outer class's properties
+        String className = className(entry);
+        int dollar = className.indexOf('$');
+        return dollar > 0 && loadedClasses.contains(className.substring(0, dollar));
+    }
+
+    private static String className(JarEntry entry) {
+        return entry.getName().substring(0, entry.getName().length() - CLASS_SUFFIX.length());
+    }
+
+    /**
+     * The classpath of a lambda package directory relative to it, as Lambda builds it: the directory itself if it holds
+     * anything outside {@code lib/}, then {@code lib/*.jar} by name.
+     */
+    public static String classpath(Path packageDir) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(packageDir)) {
+            if (files.anyMatch(file -> !file.getFileName().toString().equals(LIB_DIR))) {
+                entries.add(".");
+            }
+        }
+        Path libDir = packageDir.resolve(LIB_DIR);
+        if (Files.isDirectory(libDir)) {
+            try (Stream<Path> jars = Files.list(libDir)) {
+                jars.map(jar -> jar.getFileName().toString())
+                    .filter(name -> name.endsWith(".jar"))
+                    .sorted()
+                    .forEach(name -> entries.add(String.format("%s/%s", LIB_DIR, name)));
+            }
+        }
+        return String.join(System.getProperty("path.separator"), entries);
+    }
+
+    static Set<String> readClassList(Path classList) throws IOException {
+        // one class per line, e.g. "com/fasterxml/jackson/core/JsonFactory"; newer JDKs append " id: n" and @-directives
+        try (Stream<String> lines = Files.lines(classList)) {
+            return lines.filter(line -> !line.isEmpty() && !line.startsWith("#") && !line.startsWith("@"))
+                        .map(line -> line.split(" ", 2)[0])
+                        .collect(Collectors.toSet());
+        }
+    }
+
+    private static List<String> split(String commaSeparated) {
+        return Arrays.stream(commaSeparated.split(","))
+                     .filter(value -> !value.isEmpty())
+                     .collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: LambdaPackageTrimmer <classList,...> <outputDir> <pruneJarPrefix,...> <keepJarPrefix,...> <jar> [jar...]");
+            System.exit(1);
+        }
+
+        Set<String> loadedClasses = new HashSet<>();
+        for (String classList : split(args[0])) {
+            loadedClasses.addAll(readClassList(Paths.get(classList)));
+        }
+        Path outputDir = Paths.get(args[1]);
+        List<String> pruneJarPrefixes = split(args[2]);
+        List<String> keepJarPrefixes = split(args[3]);
+        List<Path> jars = Arrays.stream(args, 4, args.length)
+                                .map(Paths::get)
+                                .collect(Collectors.toList());
+
+        LambdaPackageTrimmer trimmer = new LambdaPackageTrimmer(loadedClasses, outputDir, pruneJarPrefixes, keepJarPrefixes);
+        trimmer.trim(jars);
+    }
+}
@@ -0,0 +1,211 @@
+package org.johntipper.blog.lambda.tools;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.johntipper.blog.lambda.HelloWorldHandler;
+import org.johntipper.blog.lambda.metrics.InvocationMetrics;
+import org.johntipper.blog.lambda.ratelimit.TokenBucketLimiter;
+import org.johntipper.blog.lambda.runtime.RuntimeContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-process load replay for {@link HelloWorldHandler}: replays a corpus of API Gateway proxy event fixtures at a given
+ * concurrency and reports throughput and warm latency percentiles from an HDR histogram. Each concurrent worker models
+ * one Lambda container, which handles one event at a time with a handler instance it reuses; after a given number of
+ * invocations the container is retired and the next event pays a cold start (new handler, empty caches). Class loading
+ * and JIT only happen once per process here, so for process-level cold starts use {@link LocalRuntimeApi}.
+ * <p>
+ * Workers run on virtual threads when the JVM has them (21+), otherwise on a platform thread each.
+ *
+ * <pre>
+ * LoadReplay &lt;fixturesDir&gt; &lt;requests&gt; &lt;concurrency&gt; [invocationsPerContainer] [warmupRequests]
+ * </pre>
+ */
+public class LoadReplay {
+
+    private static final String FUNCTION_ARN = "arn:aws:lambda:eu-west-2:000000000000:function:load-replay";
+
+    // latencies are recorded in nanoseconds, up to a minute, to 3 significant digits
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final List<byte[]> fixtures;
+
+    private final int concurrency;
+
+    private final int invocationsPerContainer;
+
+    // same binding the runtime uses, so (de)serialisation is part of every measured invocation
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                                                          .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    /**
+     * @param invocationsPerContainer events a container handles before it is replaced; 0 to never replace containers
+     */
+    public LoadReplay(List<byte[]> fixtures, int concurrency, int invocationsPerContainer) {
+        this.fixtures = fixtures;
+        this.concurrency = concurrency;
+        this.invocationsPerContainer = invocationsPerContainer;
+    }
+
+    public Result run(long requests) throws InterruptedException, ExecutionException {
+        AtomicLong next = new AtomicLong();
+        Result result = new Result();
+
+        ExecutorService executor = newWorkerExecutor(concurrency);
+        try {
+            long startNanos = System.nanoTime();
+            List<Future<Result>> workers = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(executor.submit(() -> runContainer(next, requests)));
+            }
+            for (Future<Result> worker : workers) {
+                result.add(worker.get());
+            }
+            result.elapsedNanos = System.nanoTime() - startNanos;
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private Result runContainer(AtomicLong next, long requests) throws IOException {
+        Result result = new Result();
+        HelloWorldHandler handler = null;
+        int invocations = 0;
+
+        long index;
+        while ((index = next.getAndIncrement()) < requests) {
+            long startNanos = System.nanoTime();
+            boolean cold = handler == null || (invocationsPerContainer > 0 && invocations == invocationsPerContainer);
+            if (cold) {
+                handler = new HelloWorldHandler(unlimited(), discardedMetrics());
+                invocations = 0;
+            }
+
+            APIGatewayProxyRequestEvent event = mapper.readValue(fixtures.get((int) (index % fixtures.size())), APIGatewayProxyRequestEvent.class);
+            RuntimeContext context = new RuntimeContext(Long.toString(index), FUNCTION_ARN, System.currentTimeMillis() + 10_000);
+            APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+            mapper.writeValueAsBytes(response);
+            invocations++;
+
+            long elapsedNanos = System.nanoTime() - startNanos;
+            (cold ? result.cold : result.warm).recordValue(Math.min(elapsedNanos, HIGHEST_TRACKABLE_NANOS));
+            if (!succeeded(response.getStatusCode())) {
+                result.errors++;
+            }
+        }
+        return result;
+    }
+
+    // anything else, a 429 included, is an error: its latency is in the histograms, so it has to be in the count too
+    static boolean succeeded(Integer statusCode) {
+        return statusCode != null && (statusCode >= 200 && statusCode < 300 || statusCode == 304);
+    }
+
+    static TokenBucketLimiter unlimited() {
+        // the fixtures come from a few clients: keep the limiter's cost in the numbers without it shedding anything. A
+        // token a nanosecond with about 2 s of burst, as with no burst concurrent workers reading the clock a moment
+        // apart would make each other wait
+        return new TokenBucketLimiter(4096, 1e9, Integer.MAX_VALUE);
+    }
+
+    static InvocationMetrics discardedMetrics() {
+        // recorded as in the lambda, but every container's cold start flush would swamp the report
+        return InvocationMetrics.forHandler("HelloWorldHandler", new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    private static ExecutorService newWorkerExecutor(int concurrency) {
+        // compiled for Java 11, so virtual threads are looked up rather than referenced
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    public static class Result {
+
+        private final Histogram warm = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+
+        private final Histogram cold = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+
+        private long errors;
+
+        private long elapsedNanos;
+
+        private void add(Result other) {
+            warm.add(other.warm);
+            cold.add(other.cold);
+            errors += other.errors;
+        }
+
+        public void print() {
+            long total = warm.getTotalCount() + cold.getTotalCount();
+            System.out.printf("requests:    %d in %.2f s, %.0f req/s, %d errors%n",
+                              total, elapsedNanos / 1e9, total / (elapsedNanos / 1e9), errors);
+            System.out.printf("warm (%d): p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                              warm.getTotalCount(),
+                              warm.getValueAtPercentile(50) / 1e6,
+                              warm.getValueAtPercentile(99) / 1e6,
+                              warm.getValueAtPercentile(99.9) / 1e6,
+                              warm.getMaxValue() / 1e6);
+            System.out.printf("cold (%d): p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                              cold.getTotalCount(),
+                              cold.getValueAtPercentile(50) / 1e6,
+                              cold.getValueAtPercentile(99) / 1e6,
+                              cold.getMaxValue() / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LoadReplay <fixturesDir> <requests> <concurrency> [invocationsPerContainer] [warmupRequests]");
+            System.exit(1);
+        }
+
+        List<byte[]> fixtures = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+            // the hello-*.json events; the others are the search and views handlers' training events
+            for (Path file : files.filter(path -> path.getFileName().toString().matches("hello-.*\\.json")).sorted().collect(Collectors.toList())) {
+                fixtures.add(Files.readAllBytes(file));
+            }
+        }
+        if (fixtures.isEmpty()) {
+            throw new IllegalArgumentException(String.format("No hello-*.json fixtures in %s", args[0]));
+        }
+
+        long requests = Long.parseLong(args[1]);
+        int concurrency = Integer.parseInt(args[2]);
+        int invocationsPerContainer = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        long warmupRequests = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        System.out.printf("%d fixtures, concurrency %d, %s threads, %s%n", fixtures.size(), concurrency,
+                          Runtime.version().feature() >= 21 ? "virtual" : "platform",
+                          invocationsPerContainer > 0 ? String.format("containers replaced every %d invocations", invocationsPerContainer) : "containers never replaced");
+
+        LoadReplay replay = new LoadReplay(fixtures, concurrency, invocationsPerContainer);
+        if (warmupRequests > 0) {
+            // let the JIT settle before anything is recorded
+            replay.run(warmupRequests);
+        }
+        replay.run(requests).print();
+    }
+}
@@ -0,0 +1,258 @@
+package org.johntipper.blog.lambda.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Lambda Runtime API. Launches a runtime process (either the native {@code bootstrap} or a JVM
+ * running the same entry point), feeds it a fixture event a number of times and reports cold start, warm latency and
+ * peak RSS so the two builds can be compared like for like. Exits non-zero if any invocation failed, so a training run
+ * that only reached the handler's error path doesn't go unnoticed.
+ *
+ * <pre>
+ * LocalRuntimeApi &lt;event.json&gt; &lt;invocations&gt; &lt;command&gt; [args...]
+ * </pre>
+ */
+public class LocalRuntimeApi {
+
+    private static final String RUNTIME_PATH = "/2018-06-01/runtime/";
+
+    private static final String DEFAULT_HANDLER = "org.johntipper.blog.lambda.HelloWorldHandler::handleRequest";
+
+    private final byte[] event;
+
+    private final int invocations;
+
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+
+    private final Map<String, Long> dispatchedAt = new ConcurrentHashMap<>();
+
+    private final long[] latenciesNanos;
+
+    private final CountDownLatch completed;
+
+    private final AtomicInteger failedInvocations = new AtomicInteger();
+
+    private volatile long firstPollNanos;
+
+    private volatile String initError;
+
+    public LocalRuntimeApi(byte[] event, int invocations) {
+        this.event = event;
+        this.invocations = invocations;
+        this.latenciesNanos = new long[invocations];
+        this.completed = new CountDownLatch(invocations);
+    }
+
+    public Measurement run(List<String> command) throws IOException, InterruptedException {
+        return run(command, Paths.get("."));
+    }
+
+    public Measurement run(List<String> command, Path workingDir) throws IOException, InterruptedException {
+        // the JDK server otherwise leaves Nagle on, which adds ~40ms delayed-ACK stalls to every warm invocation
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(RUNTIME_PATH, this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        for (int i = 0; i < invocations; i++) {
+            pending.add(String.format("%08d-0000-4000-8000-%012d", i, i));
+        }
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command).directory(workingDir.toFile()).inheritIO();
+        processBuilder.environment()
+                      .put("AWS_LAMBDA_RUNTIME_API", String.format("127.0.0.1:%d", server.getAddress().getPort()));
+        processBuilder.environment()
+                      .putIfAbsent("_HANDLER", DEFAULT_HANDLER);
+        // every invocation replays the same client's event, which the handler's rate limiter would otherwise shed
+        processBuilder.environment()
+                      .putIfAbsent("RATE_LIMIT_PER_SECOND", "1000000000");
+
+        long startNanos = System.nanoTime();
+        Process process = processBuilder.start();
+        try {
+            while (!completed.await(100, TimeUnit.MILLISECONDS)) {
+                if (initError != null || !process.isAlive()) {
+                    throw new IllegalStateException(String.format("Runtime failed before completing invocations: %s", initError));
+                }
+            }
+
+            String peakRss = readPeakRss(process.pid());
+            return new Measurement(firstPollNanos - startNanos, latenciesNanos, failedInvocations.get(), peakRss);
+
+        } finally {
+            process.destroy();
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(RUNTIME_PATH.length());
+        try {
+            if (path.equals("invocation/next")) {
+                if (firstPollNanos == 0) {
+                    firstPollNanos = System.nanoTime();
+                }
+                String requestId = pending.take();
+                exchange.getResponseHeaders().add("Lambda-Runtime-Aws-Request-Id", requestId);
+                exchange.getResponseHeaders().add("Lambda-Runtime-Deadline-Ms", Long.toString(System.currentTimeMillis() + 10_000));
+                exchange.getResponseHeaders().add("Lambda-Runtime-Invoked-Function-Arn", "arn:aws:lambda:eu-west-2:000000000000:function:local");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                dispatchedAt.put(requestId, System.nanoTime());
+                respond(exchange, 200, event);
+
+            } else if (path.startsWith("invocation/")) {
+                long now = System.nanoTime();
+                String[] parts = path.split("/");
+                String requestId = parts[1];
+                byte[] body = readBody(exchange);
+                if (parts[2].equals("error")) {
+                    failedInvocations.incrementAndGet();
+                    System.err.printf("Invocation %s failed: %s%n", requestId, new String(body));
+                }
+                int index = Integer.parseInt(requestId.substring(0, 8));
+                latenciesNanos[index] = now - dispatchedAt.remove(requestId);
+                respond(exchange, 202, new byte[0]);
+                completed.countDown();
+
+            } else if (path.equals("init/error")) {
+                initError = new String(readBody(exchange));
+                respond(exchange, 202, new byte[0]);
+
+            } else {
+                respond(exchange, 404, new byte[0]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public static class Measurement {
+
+        private final long initNanos;
+
+        private final long firstInvocationNanos;
+
+        // sorted
+        private final long[] warmNanos;
+
+        private final int failedInvocations;
+
+        private final String peakRss;
+
+        private Measurement(long initNanos, long[] latenciesNanos, int failedInvocations, String peakRss) {
+            this.initNanos = initNanos;
+            this.firstInvocationNanos = latenciesNanos[0];
+            this.warmNanos = Arrays.copyOfRange(latenciesNanos, 1, latenciesNanos.length);
+            Arrays.sort(warmNanos);
+            this.failedInvocations = failedInvocations;
+            this.peakRss = peakRss;
+        }
+
+        public double getInitMillis() {
+            return initNanos / 1e6;
+        }
+
+        public double getColdStartMillis() {
+            return (initNanos + firstInvocationNanos) / 1e6;
+        }
+
+        public double getFirstInvocationMillis() {
+            return firstInvocationNanos / 1e6;
+        }
+
+        public double getWarmP50Millis() {
+            return warmNanos.length == 0 ? Double.NaN : warmNanos[(int) (warmNanos.length * 0.50)] / 1e6;
+        }
+
+        public double getWarmP99Millis() {
+            return warmNanos.length == 0 ? Double.NaN : warmNanos[Math.min(warmNanos.length - 1, (int) (warmNanos.length * 0.99))] / 1e6;
+        }
+
+        public int getFailedInvocations() {
+            return failedInvocations;
+        }
+
+        public String getPeakRss() {
+            return peakRss;
+        }
+
+        public void print() {
+            System.out.printf("init (launch to first poll):   %8.2f ms%n", getInitMillis());
+            System.out.printf("cold start (launch to first response): %8.2f ms%n", getColdStartMillis());
+            System.out.printf("first invocation:              %8.2f ms%n", getFirstInvocationMillis());
+            if (warmNanos.length > 0) {
+                System.out.printf("warm invocations (%d): p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                                  warmNanos.length,
+                                  getWarmP50Millis(),
+                                  getWarmP99Millis(),
+                                  warmNanos[warmNanos.length - 1] / 1e6);
+            }
+            System.out.printf("peak RSS:                      %s%n", peakRss);
+            if (failedInvocations > 0) {
+                System.out.printf("failed invocations:            %d%n", failedInvocations);
+            }
+        }
+    }
+
+    private static String readPeakRss(long pid) {
+        // VmHWM is the resident set high-water mark; Linux only, which is what the build box and Lambda run
+        Path status = Paths.get("/proc", Long.toString(pid), "status");
+        try {
+            return Files.readAllLines(status)
+                        .stream()
+                        .filter(line -> line.startsWith("VmHWM:"))
+                        .map(line -> line.substring("VmHWM:".length()).trim())
+                        .findFirst()
+                        .orElse("n/a");
+        } catch (IOException e) {
+            return "n/a";
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LocalRuntimeApi <event.json> <invocations> <command> [args...]");
+            System.exit(1);
+        }
+
+        byte[] event = Files.readAllBytes(Paths.get(args[0]));
+        int invocations = Integer.parseInt(args[1]);
+
+        Measurement measurement = new LocalRuntimeApi(event, invocations).run(Arrays.asList(args).subList(2, args.length));
+        measurement.print();
+        if (measurement.getFailedInvocations() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.johntipper.blog.lambda.tools;
+
+import org.johntipper.blog.lambda.search.SearchIndex;
+import org.johntipper.blog.lambda.search.Tokenizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds the {@link SearchIndex} file from the blog's markdown posts, {@code <postsDir>/<post>/index.md}: the front
+ * matter gives each post's title, date and excerpt, and the title and body are indexed. Posts are read and tokenized in
+ * parallel, then laid out newest first with their postings in term byte order, which is what {@link SearchIndex}
+ * binary searches in place.
+ *
+ * <pre>
+ * SearchIndexBuilder &lt;postsDir&gt; &lt;indexFile&gt;
+ * </pre>
+ */
+public class SearchIndexBuilder {
+
+    // a term in the title counts as much as this many in the body
+    private static final int TITLE_WEIGHT = 3;
+
+    private static final Pattern FRONT_MATTER = Pattern.compile("\\A---\\R(.*?)\\R---\\R", Pattern.DOTALL);
+
+    private static final Pattern FRONT_MATTER_FIELD = Pattern.compile("^(\\w+):\\s*(.*?)\\s*$", Pattern.MULTILINE);
+
+    // link and image targets, raw URLs and HTML tags would only add noise terms like "https"
+    private static final Pattern MARKUP = Pattern.compile("\\]\\([^)]*\\)|https?://\\S+|<[^>]+>");
+
+    public static class Post {
+
+        private final String path;
+
+        private final String title;
+
+        private final String date;
+
+        private final String excerpt;
+
+        private final Map<String, Integer> termFrequencies;
+
+        private final int length;
+
+        public Post(String path, String title, String date, String excerpt, Map<String, Integer> termFrequencies, int length) {
+            this.path = path;
+            this.title = title;
+            this.date = date;
+            this.excerpt = excerpt;
+            this.termFrequencies = termFrequencies;
+            this.length = length;
+        }
+    }
+
+    public static Post parse(Path markdown) {
+        String text;
+        try {
+            text = Files.readString(markdown);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, String> frontMatter = new HashMap<>();
+        Matcher frontMatterBlock = FRONT_MATTER.matcher(text);
+        if (frontMatterBlock.find()) {
+            Matcher field = FRONT_MATTER_FIELD.matcher(frontMatterBlock.group(1));
+            while (field.find()) {
+                frontMatter.put(field.group(1), unquote(field.group(2)));
+            }
+            text = text.substring(frontMatterBlock.end());
+        }
+
+        String title = frontMatter.getOrDefault("title", markdown.getParent().getFileName().toString());
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        int[] length = new int[1];
+        Tokenizer.tokenize(title, term -> {
+            termFrequencies.merge(term, TITLE_WEIGHT, Integer::sum);
+            length[0] += TITLE_WEIGHT;
+        });
+        Tokenizer.tokenize(MARKUP.matcher(text).replaceAll("]"), term -> {
+            termFrequencies.merge(term, 1, Integer::sum);
+            length[0]++;
+        });
+
+        return new Post(permalink(frontMatter.getOrDefault("slug", title)),
+                        title,
+                        frontMatter.getOrDefault("date", ""),
+                        frontMatter.getOrDefault("excerpt", ""),
+                        termFrequencies,
+                        length[0]);
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") || value.startsWith("'") && value.endsWith("'"))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * The theme's permalink for a post, {@code articlePermalinkFormat: ":slug/"} with its slugify of the title.
+     */
+    static String permalink(String title) {
+        String slug = Normalizer.normalize(title.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)
+                                .replaceAll("[\\u0300-\\u036f]", "")
+                                .replaceAll("[^a-z0-9 -]", "")
+                                .replaceAll("\\s+", "-")
+                                .replaceAll("-+", "-");
+        return String.format("/%s/", slug);
+    }
+
+    public static byte[] write(List<Post> posts) throws IOException {
+        // postings per term, in document order since posts are visited in order
+        Map<String, List<int[]>> postingsByTerm = new HashMap<>();
+        long totalLength = 0;
+        for (int document = 0; document < posts.size(); document++) {
+            Post post = posts.get(document);
+            totalLength += post.length;
+            for (Map.Entry<String, Integer> term : post.termFrequencies.entrySet()) {
+                postingsByTerm.computeIfAbsent(term.getKey(), key -> new ArrayList<>())
+                              .add(new int[]{document, term.getValue()});
+            }
+        }
+
+        List<byte[]> terms = postingsByTerm.keySet()
+                                           .stream()
+                                           .map(term -> term.getBytes(StandardCharsets.UTF_8))
+                                           .sorted(Arrays::compareUnsigned)
+                                           .collect(Collectors.toList());
+        int postingCount = postingsByTerm.values().stream().mapToInt(List::size).sum();
+        int termBytesLength = terms.stream().mapToInt(term -> term.length).sum();
+
+        int documentsOffset = SearchIndex.HEADER_BYTES;
+        int termOffsetsOffset = documentsOffset + posts.size() * SearchIndex.DOCUMENT_FIELDS * Integer.BYTES;
+        int postingOffsetsOffset = termOffsetsOffset + (terms.size() + 1) * Integer.BYTES;
+        int postingDocumentsOffset = postingOffsetsOffset + (terms.size() + 1) * Integer.BYTES;
+        int postingFrequenciesOffset = postingDocumentsOffset + postingCount * Integer.BYTES;
+        int termBytesOffset = postingFrequenciesOffset + postingCount * Integer.BYTES;
+        int stringsOffset = termBytesOffset + termBytesLength;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(stringsOffset * 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SearchIndex.MAGIC);
+        out.writeInt(SearchIndex.VERSION);
+        out.writeInt(posts.size());
+        out.writeInt(terms.size());
+        out.writeInt(postingCount);
+        out.writeFloat(posts.isEmpty() ? 0 : (float) totalLength / posts.size());
+        for (int offset : new int[]{documentsOffset, termOffsetsOffset, postingOffsetsOffset, postingDocumentsOffset,
+                                    postingFrequenciesOffset, termBytesOffset, stringsOffset}) {
+            out.writeInt(offset);
+        }
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringsOut = new DataOutputStream(strings);
+        for (Post post : posts) {
+            out.writeInt(post.length);
+            for (String value : List.of(post.path, post.title, post.date, post.excerpt)) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(stringsOut.size());
+                stringsOut.writeInt(utf8.length);
+                stringsOut.write(utf8);
+            }
+        }
+
+        int termOffset = 0;
+        for (byte[] term : terms) {
+            out.writeInt(termOffset);
+            termOffset += term.length;
+        }
+        out.writeInt(termOffset);
+
+        List<List<int[]>> postings = terms.stream()
+                                          .map(term -> postingsByTerm.get(new String(term, StandardCharsets.UTF_8)))
+                                          .collect(Collectors.toList());
+        int postingOffset = 0;
+        for (List<int[]> termPostings : postings) {
+            out.writeInt(postingOffset);
+            postingOffset += termPostings.size();
+        }
+        out.writeInt(postingOffset);
+        for (List<int[]> termPostings : postings) {
+            for (int[] posting : termPostings) {
+                out.writeInt(posting[0]);
+            }
+        }
+        for (List<int[]> termPostings : postings) {
+            for (int[] posting : termPostings) {
+                out.writeInt(posting[1]);
+            }
+        }
+
+        for (byte[] term : terms) {
+            out.write(term);
+        }
+        strings.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SearchIndexBuilder <postsDir> <indexFile>");
+            System.exit(1);
+        }
+
+        long startNanos = System.nanoTime();
+        List<Path> markdown;
+        try (Stream<Path> postDirs = Files.list(Paths.get(args[0]))) {
+            markdown = postDirs.map(dir -> dir.resolve("index.md"))
+                               .filter(Files::isRegularFile)
+                               .collect(Collectors.toList());
+        }
+
+        // newest first, which is also how ties are ranked
+        List<Post> posts = markdown.parallelStream()
+                                   .map(SearchIndexBuilder::parse)
+                                   .sorted(Comparator.comparing((Post post) -> post.date).reversed().thenComparing(post -> post.path))
+                                   .collect(Collectors.toList());
+        byte[] index = write(posts);
+
+        Path indexFile = Paths.get(args[1]);
+        Files.createDirectories(indexFile.toAbsolutePath().getParent());
+        Files.write(indexFile, index);
+
+        long sourceBytes = 0;
+        for (Path post : markdown) {
+            sourceBytes += Files.size(post);
+        }
+        SearchIndex written = new SearchIndex(ByteBuffer.wrap(index));
+        System.out.printf("indexed %d posts (%d bytes of markdown), %d terms, into %d bytes in %d ms%n",
+                          written.getDocumentCount(),
+                          sourceBytes,
+                          written.getTermCount(),
+                          written.getSizeBytes(),
+                          (System.nanoTime() - startNanos) / 1_000_000);
+    }
+}
@@ -0,0 +1,192 @@
+package org.johntipper.blog.lambda.tools;
+
+import org.johntipper.blog.lambda.views.DynamoDbViewStore;
+import org.johntipper.blog.lambda.views.ViewCounter;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drives {@link ViewCounter}s against DynamoDB Local, e.g. {@code docker run -p 8000:8000 amazon/dynamodb-local}: a
+ * number of concurrent workers, each modelling one warm container with its own counter, view pages picked with a
+ * Zipf-like skew (a few popular posts, a long tail), once with every view written straight through and once coalesced.
+ * Reports throughput and write amplification (table writes per view) for each, and checks the table's counts match the
+ * views made once the counters are flushed; exits non-zero if they don't.
+ *
+ * <pre>
+ * ViewCounterLoad &lt;endpoint&gt; &lt;views&gt; &lt;containers&gt; [pages] [flushIntervalMillis] [maxPending]
+ * </pre>
+ */
+public class ViewCounterLoad {
+
+    private final DynamoDbClient client;
+
+    private final int containers;
+
+    private final double[] cumulativeWeights;
+
+    public ViewCounterLoad(DynamoDbClient client, int containers, int pages) {
+        this.client = client;
+        this.containers = containers;
+
+        // page i is viewed in proportion to 1 / (i + 1)
+        cumulativeWeights = new double[pages];
+        double total = 0;
+        for (int page = 0; page < pages; page++) {
+            total += 1.0 / (page + 1);
+            cumulativeWeights[page] = total;
+        }
+        for (int page = 0; page < pages; page++) {
+            cumulativeWeights[page] /= total;
+        }
+    }
+
+    public Result run(String description, long views, Duration flushInterval, long maxPending) throws InterruptedException, ExecutionException {
+        String tableName = createTable();
+        AtomicLongArray expected = new AtomicLongArray(cumulativeWeights.length);
+
+        ExecutorService executor = Executors.newFixedThreadPool(containers);
+        List<Future<ViewCounter>> workers = new ArrayList<>(containers);
+        long startNanos = System.nanoTime();
+        try {
+            for (int i = 0; i < containers; i++) {
+                long containerViews = views / containers + (i < views % containers ? 1 : 0);
+                workers.add(executor.submit(() -> runContainer(tableName, containerViews, flushInterval, maxPending, expected)));
+            }
+            Result result = new Result(description);
+            for (Future<ViewCounter> worker : workers) {
+                ViewCounter counter = worker.get();
+                result.views += counter.getViews();
+                result.writes += counter.getWrites();
+                result.failedWrites += counter.getFailedWrites();
+            }
+            result.elapsedNanos = System.nanoTime() - startNanos;
+            result.mismatchedPages = mismatchedPages(tableName, expected);
+            return result;
+        } finally {
+            executor.shutdown();
+            client.deleteTable(DeleteTableRequest.builder().tableName(tableName).build());
+        }
+    }
+
+    private ViewCounter runContainer(String tableName, long views, Duration flushInterval, long maxPending, AtomicLongArray expected) {
+        ViewCounter counter = new ViewCounter(new DynamoDbViewStore(client, tableName), System::nanoTime, flushInterval, maxPending);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long i = 0; i < views; i++) {
+            int page = page(random.nextDouble());
+            counter.increment(pageName(page));
+            expected.incrementAndGet(page);
+        }
+        // as if the container stayed warm long enough for one more flush
+        counter.flush();
+        return counter;
+    }
+
+    private int page(double sample) {
+        int index = Arrays.binarySearch(cumulativeWeights, sample);
+        return Math.min(index >= 0 ? index : -index - 1, cumulativeWeights.length - 1);
+    }
+
+    private static String pageName(int page) {
+        return String.format("post-%03d", page);
+    }
+
+    private String createTable() {
+        String tableName = String.format("views-load-%d", System.nanoTime());
+        client.createTable(CreateTableRequest.builder()
+                                             .tableName(tableName)
+                                             .keySchema(KeySchemaElement.builder().attributeName(DynamoDbViewStore.PAGE_ATTRIBUTE).keyType(KeyType.HASH).build())
+                                             .attributeDefinitions(AttributeDefinition.builder().attributeName(DynamoDbViewStore.PAGE_ATTRIBUTE).attributeType(ScalarAttributeType.S).build())
+                                             .billingMode(BillingMode.PAY_PER_REQUEST)
+                                             .build());
+        client.waiter().waitUntilTableExists(DescribeTableRequest.builder().tableName(tableName).build());
+        return tableName;
+    }
+
+    private int mismatchedPages(String tableName, AtomicLongArray expected) {
+        long[] stored = new long[expected.length()];
+        for (Map<String, AttributeValue> item : client.scanPaginator(ScanRequest.builder().tableName(tableName).consistentRead(true).build()).items()) {
+            int page = Integer.parseInt(item.get(DynamoDbViewStore.PAGE_ATTRIBUTE).s().substring("post-".length()));
+            stored[page] = Long.parseLong(item.get(DynamoDbViewStore.VIEWS_ATTRIBUTE).n());
+        }
+
+        int mismatched = 0;
+        for (int page = 0; page < stored.length; page++) {
+            if (stored[page] != expected.get(page)) {
+                System.out.printf("%s: %d views stored, %d made%n", pageName(page), stored[page], expected.get(page));
+                mismatched++;
+            }
+        }
+        return mismatched;
+    }
+
+    public static class Result {
+
+        private final String description;
+
+        private long views;
+
+        private long writes;
+
+        private long failedWrites;
+
+        private long elapsedNanos;
+
+        private int mismatchedPages;
+
+        Result(String description) {
+            this.description = description;
+        }
+
+        void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%-12s %,10d views %,10d writes (%d failed)  %.4f writes/view  %,10.0f views/s  %,8.0f writes/s  %d pages mismatched%n",
+                              description, views, writes, failedWrites, (double) writes / views, views / seconds, writes / seconds, mismatchedPages);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ViewCounterLoad <endpoint> <views> <containers> [pages] [flushIntervalMillis] [maxPending]");
+            System.exit(1);
+        }
+
+        long views = Long.parseLong(args[1]);
+        int containers = Integer.parseInt(args[2]);
+        int pages = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        Duration flushInterval = Duration.ofMillis(args.length > 4 ? Long.parseLong(args[4]) : ViewCounter.DEFAULT_FLUSH_INTERVAL.toMillis());
+        long maxPending = args.length > 5 ? Long.parseLong(args[5]) : ViewCounter.DEFAULT_MAX_PENDING;
+
+        // DynamoDB Local takes any credentials and region
+        DynamoDbClient client = DynamoDbClient.builder()
+                                              .endpointOverride(URI.create(args[0]))
+                                              .region(Region.EU_WEST_2)
+                                              .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+                                              .httpClient(UrlConnectionHttpClient.builder().build())
+                                              .build();
+
+        ViewCounterLoad load = new ViewCounterLoad(client, containers, pages);
+        System.out.printf("%,d views of %d pages from %d containers, flushing every %d ms or %d views%n",
+                          views, pages, containers, flushInterval.toMillis(), maxPending);
+        List<Result> results = List.of(load.run("per view", views, Duration.ZERO, 1),
+                                       load.run("coalesced", views, flushInterval, maxPending));
+        for (Result result : results) {
+            result.print();
+        }
+        if (results.stream().anyMatch(result -> result.mismatchedPages > 0 || result.failedWrites > 0)) {
+            System.exit(1);
+        }
+    }
+}
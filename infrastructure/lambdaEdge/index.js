@@ -1,22 +1,123 @@
 'use strict';
-exports.handler = (event, context, callback) => {
 
-    // Extract the request from the CloudFront event that is sent to Lambda@Edge
-    var request = event.Records[0].cf.request;
+// Gatsby's 404 page is read from the website bucket rather than shipped in this function, so a site build doesn't
+// change the function's asset hash and republish it. Kept for a minute per container, so a deploy's new page (and its
+// new bundles) is picked up soon after the upload.
+const NOT_FOUND_KEY = '404.html';
+const NOT_FOUND_PAGE_TTL_MS = 60 * 1000;
+// until the site has been uploaded, or if the bucket can't be read
+const FALLBACK_NOT_FOUND_PAGE = '<!DOCTYPE html><html><head><title>Not found</title></head><body><h1>Not found</h1></body></html>';
+
+// Kept in step with WebAssetPackager.PRECOMPRESSED: every object with one of these extensions is stored alongside
+// <key>.br and <key>.gz, so the variant can be asked for without knowing what's in the bucket.
+const PRECOMPRESSED = /\.(html|css|js|json|map|webmanifest|xml|txt|svg|ico|ttf)$/i;
+const VARIANT_SUFFIXES = {br: '.br', gzip: '.gz'};
+
+let notFoundPage = null;
+let notFoundPageExpiry = 0;
+
+// S3's GetObject on the origin's bucket; the edge role may read only the 404 page. Replaced by the replay harness.
+let readNotFoundPage = (s3Origin) => {
+    // in the Lambda runtime, so not packaged with the function
+    const S3 = require('aws-sdk/clients/s3');
+    // <bucket>.s3.amazonaws.com or <bucket>.s3.<region>.amazonaws.com
+    const bucket = s3Origin.domainName.substring(0, s3Origin.domainName.indexOf('.s3.'));
+    return new S3({region: s3Origin.region}).getObject({Bucket: bucket, Key: NOT_FOUND_KEY})
+                                            .promise()
+                                            .then(object => object.Body.toString('utf8'));
+};
+
+exports.setNotFoundPageReader = (reader) => {
+    readNotFoundPage = reader;
+    notFoundPage = null;
+    notFoundPageExpiry = 0;
+};
+
+exports.handler = (event, context, callback) => {
 
-    // Extract the URI from the request
-    var olduri = request.uri;
+    const cf = event.Records[0].cf;
+    if (cf.response) {
+        return originResponse(cf.request, cf.response).then(response => callback(null, response));
+    }
 
-    // Match any '/' that occurs at the end of a URI. Replace it with a default index
-    var newuri = olduri.replace(/\/$/, '\/index.html');
+    // Extract the request from the CloudFront event that is sent to Lambda@Edge
+    var request = cf.request;
 
-    console.log("Old URI: " + olduri);
-    console.log("New URI: " + newuri);
+    // Match any '/' that occurs at the end of a URI. Replace it with a default index.
+    // Runs on origin requests (cache misses) by default, so the result is cached under the original URI and no logging
+    // is done here: it would be written on every miss in every edge region.
+    request.uri = request.uri.replace(/\/$/, '\/index.html');
 
-    // Replace the received URI with the URI that includes the index page
-    request.uri = newuri;
+    // By the origin request CloudFront has normalized Accept-Encoding to br and gzip only and made it part of the cache
+    // key, so the variant fetched here is cached for the viewers that can read it, and identity for everyone else.
+    if (cf.config.eventType === 'origin-request' && PRECOMPRESSED.test(request.uri)) {
+        const encoding = preferredEncoding(request.headers['accept-encoding']);
+        if (encoding) {
+            request.uri += VARIANT_SUFFIXES[encoding];
+        }
+    }
 
     // Return to CloudFront
     return callback(null, request);
 
-};
\ No newline at end of file
+};
+
+// brotli if accepted, then gzip; nothing if neither is, or either only with q=0
+function preferredEncoding(acceptEncoding) {
+    const accepted = new Set();
+    for (const header of acceptEncoding || []) {
+        for (const coding of header.value.split(',')) {
+            const [name, ...parameters] = coding.split(';').map(part => part.trim().toLowerCase());
+            if (!parameters.some(parameter => /^q=0(\.0*)?$/.test(parameter))) {
+                accepted.add(name);
+            }
+        }
+    }
+    return ['br', 'gzip'].find(encoding => accepted.has(encoding));
+}
+
+// Only associated with the website's behaviors, unlike a custom error response, which would also replace the api's
+// 403s and 404s. S3 answers a missing key with a 404, or a 403 without s3:ListBucket.
+async function originResponse(request, response) {
+    if (response.status === '403' || response.status === '404') {
+        return notFoundResponse(request, response);
+    }
+    // the variant fetched depends on Accept-Encoding, which shared caches downstream need to know
+    if (PRECOMPRESSED.test(identityUri(request.uri))) {
+        const vary = response.headers['vary'];
+        response.headers['vary'] = [{key: 'Vary', value: vary ? `${vary[0].value}, Accept-Encoding` : 'Accept-Encoding'}];
+    }
+    return response;
+}
+
+async function notFoundResponse(request, response) {
+    response.status = '404';
+    response.statusDescription = 'Not Found';
+    // S3's error document headers describe its XML body, not this one
+    for (const header of ['content-length', 'content-encoding', 'etag', 'last-modified']) {
+        delete response.headers[header];
+    }
+    response.headers['content-type'] = [{key: 'Content-Type', value: 'text/html; charset=utf-8'}];
+    response.body = await cachedNotFoundPage(request.origin.s3);
+    return response;
+}
+
+function identityUri(uri) {
+    const suffix = Object.values(VARIANT_SUFFIXES).find(suffix => uri.endsWith(suffix));
+    return suffix ? uri.substring(0, uri.length - suffix.length) : uri;
+}
+
+async function cachedNotFoundPage(s3Origin) {
+    const now = Date.now();
+    if (notFoundPage === null || now >= notFoundPageExpiry) {
+        try {
+            notFoundPage = await readNotFoundPage(s3Origin);
+        } catch (error) {
+            // served until the next try, a minute later, rather than failing every missing page
+            console.error(`Reading the 404 page from ${s3Origin.domainName}: ${error}`);
+            notFoundPage = FALLBACK_NOT_FOUND_PAGE;
+        }
+        notFoundPageExpiry = now + NOT_FOUND_PAGE_TTL_MS;
+    }
+    return notFoundPage;
+}
@@ -0,0 +1,101 @@
+'use strict';
+// Replays recorded CloudFront events through the index rewrite and checks the rewritten URI, so the function can be
+// moved between viewer-request and origin-request (or changed) without changing what is served. Origin requests are
+// also checked for the precompressed variant picked from their Accept-Encoding. Origin responses are checked for their
+// status and Vary header, and S3's errors for being replaced by the 404 page, which is read from a stand-in for the
+// website bucket.
+//
+// Usage: node replay.js [eventsDir]
+const fs = require('fs');
+const path = require('path');
+const rewrite = require('../index.js');
+
+const eventsDir = process.argv[2] || path.join(__dirname, 'events');
+let failures = 0;
+let count = 0;
+
+// the page the function would read from the website bucket, read once and then served from memory
+const NOT_FOUND_PAGE = '<!DOCTYPE html><html><head><title>404</title></head><body>Replayed 404 page</body></html>';
+const notFoundPageReads = [];
+rewrite.setNotFoundPageReader(async (s3Origin) => {
+    notFoundPageReads.push(s3Origin.domainName);
+    return NOT_FOUND_PAGE;
+});
+
+replayAll().then(() => {
+    if (notFoundPageReads.length > 1) {
+        failures++;
+        console.error(`FAIL the 404 page was read ${notFoundPageReads.length} times, not once`);
+    }
+    console.log(`${count - failures}/${count} replayed events rewritten as expected`);
+    process.exit(failures === 0 && count > 0 ? 0 : 1);
+});
+
+async function replayAll() {
+    for (const file of fs.readdirSync(eventsDir).filter(name => name.endsWith('.json')).sort()) {
+        await replay(file);
+    }
+}
+
+// resolves once the handler has called back, whether it does so straight away (requests) or later (responses)
+function replay(file) {
+    const fixture = JSON.parse(fs.readFileSync(path.join(eventsDir, file), 'utf8'));
+    const cf = fixture.event.Records[0].cf;
+    const original = JSON.parse(JSON.stringify(cf.response || cf.request));
+
+    return new Promise(resolve => rewrite.handler(fixture.event, {}, (error, result) => {
+        count++;
+        const problems = [];
+        if (error) {
+            problems.push(`returned error ${error}`);
+        } else if (cf.response) {
+            problems.push(...responseProblems(fixture, original, result));
+        } else {
+            if (result.uri !== fixture.expectedUri) {
+                problems.push(`uri ${result.uri}, expected ${fixture.expectedUri}`);
+            }
+            // nothing but the URI may change
+            for (const key of Object.keys(original).filter(key => key !== 'uri')) {
+                if (JSON.stringify(result[key]) !== JSON.stringify(original[key])) {
+                    problems.push(`${key} was modified`);
+                }
+            }
+        }
+        if (problems.length > 0) {
+            failures++;
+            console.error(`FAIL ${file}: ${problems.join(', ')}`);
+        }
+        resolve();
+    }));
+}
+
+function responseProblems(fixture, original, response) {
+    const problems = [];
+    if (response.status !== fixture.expectedStatus) {
+        problems.push(`status ${response.status}, expected ${fixture.expectedStatus}`);
+    }
+    if (original.status !== '403' && original.status !== '404') {
+        const vary = response.headers['vary'];
+        if ((vary ? vary[0].value : undefined) !== fixture.expectedVary) {
+            problems.push(`vary ${vary ? vary[0].value : 'absent'}, expected ${fixture.expectedVary || 'absent'}`);
+        }
+        // only S3's errors are replaced; otherwise nothing but Vary may change
+        const unvaried = JSON.parse(JSON.stringify(response));
+        unvaried.headers['vary'] = original.headers['vary'];
+        if (JSON.stringify(unvaried) !== JSON.stringify(original)) {
+            problems.push('response was modified');
+        }
+    } else {
+        const contentType = response.headers['content-type'];
+        if (!contentType || !contentType[0].value.startsWith('text/html')) {
+            problems.push('404 page is not text/html');
+        }
+        if (response.body !== NOT_FOUND_PAGE) {
+            problems.push(`body isn't the bucket's 404 page`);
+        }
+        if (response.headers['content-length']) {
+            problems.push(`S3's content-length was kept`);
+        }
+    }
+    return problems;
+}
@@ -0,0 +1,80 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import software.amazon.awscdk.core.Duration;
+
+import java.util.List;
+
+/**
+ * How CloudFront caches the {@code api/*} origin. Only the listed query strings and headers are in the cache key (and
+ * forwarded); anything else the api needs but must not split the cache on is forwarded by the origin request policy.
+ * TTLs come from the api's own {@code Cache-Control}, bounded by the min and max; responses without one are cached for
+ * the default TTL. An origin shield region, if set, funnels every edge's misses through one regional cache.
+ */
+public class ApiCachePolicy {
+
+    private final List<String> cacheKeyQueryStrings;
+
+    private final List<String> cacheKeyHeaders;
+
+    private final List<String> forwardedHeaders;
+
+    private final Duration minTtl;
+
+    private final Duration defaultTtl;
+
+    private final Duration maxTtl;
+
+    // optional
+    private final String originShieldRegion;
+
+    public ApiCachePolicy(List<String> cacheKeyQueryStrings, List<String> cacheKeyHeaders, List<String> forwardedHeaders, Duration minTtl, Duration defaultTtl, Duration maxTtl, String originShieldRegion) {
+        this.cacheKeyQueryStrings = List.copyOf(cacheKeyQueryStrings);
+        this.cacheKeyHeaders = List.copyOf(cacheKeyHeaders);
+        this.forwardedHeaders = List.copyOf(forwardedHeaders);
+        this.minTtl = minTtl;
+        this.defaultTtl = defaultTtl;
+        this.maxTtl = maxTtl;
+        this.originShieldRegion = originShieldRegion;
+    }
+
+    /**
+     * The api's routes: {@code q} is the search query, and responses vary on {@code Accept} (as in the lambda's own
+     * response cache). Responses without {@code Cache-Control} aren't cached. Outside the cache key only
+     * {@code CloudFront-Viewer-Address} is forwarded, the viewer address the lambdas tell clients apart by.
+     */
+    public static ApiCachePolicy apiDefaults(String originShieldRegion) {
+        return new ApiCachePolicy(List.of("q"), List.of("Accept"), List.of("CloudFront-Viewer-Address"), Duration.seconds(0), Duration.seconds(0), Duration.days(1), originShieldRegion);
+    }
+
+    public List<String> getCacheKeyQueryStrings() {
+        return cacheKeyQueryStrings;
+    }
+
+    public List<String> getCacheKeyHeaders() {
+        return cacheKeyHeaders;
+    }
+
+    public List<String> getForwardedHeaders() {
+        return forwardedHeaders;
+    }
+
+    public Duration getMinTtl() {
+        return minTtl;
+    }
+
+    public Duration getDefaultTtl() {
+        return defaultTtl;
+    }
+
+    public Duration getMaxTtl() {
+        return maxTtl;
+    }
+
+    public String getOriginShieldRegion() {
+        return originShieldRegion;
+    }
+
+    public boolean isOriginShield() {
+        return originShieldRegion != null;
+    }
+}
@@ -0,0 +1,111 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.core.Construct;
+import software.amazon.awscdk.core.Duration;
+import software.amazon.awscdk.services.cloudwatch.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dashboard and alarms over the metrics the api lambdas write as Embedded Metric Format log lines (the api module's
+ * {@code InvocationMetrics}): latency percentiles, invocations, errors, cold starts, init duration and response size, per
+ * handler. Duration is recorded as a histogram, so the percentiles are over every invocation, not over averages.
+ */
+public class ApiMonitoring extends Construct {
+
+    // as written by InvocationMetrics
+    private static final String NAMESPACE = "Blog/Api";
+    private static final String DIMENSION = "Handler";
+
+    private static final Duration PERIOD = Duration.minutes(1);
+
+    // the alarm fires on 2 of 3 minutes with a p99 over this
+    private static final double P99_DURATION_THRESHOLD_MILLIS = 1000;
+
+    private final Dashboard dashboard;
+
+    private final List<Alarm> alarms = new ArrayList<>();
+
+    public ApiMonitoring(@NotNull Construct scope, @NotNull String id, String dashboardName, List<String> handlers) {
+        super(scope, id);
+
+        dashboard = Dashboard.Builder.create(this, "Dashboard")
+                                     .dashboardName(dashboardName)
+                                     .build();
+
+        List<IMetric> p50Durations = new ArrayList<>();
+        List<IMetric> p99Durations = new ArrayList<>();
+        List<IMetric> invocations = new ArrayList<>();
+        List<IMetric> errors = new ArrayList<>();
+        List<IMetric> coldStarts = new ArrayList<>();
+        List<IMetric> initDurations = new ArrayList<>();
+        List<IMetric> responseSizes = new ArrayList<>();
+        for (String handler : handlers) {
+            p50Durations.add(metric(handler, "Duration", "p50"));
+            Metric p99Duration = metric(handler, "Duration", "p99");
+            p99Durations.add(p99Duration);
+            invocations.add(metric(handler, "Invocations", "Sum"));
+            errors.add(metric(handler, "Errors", "Sum"));
+            coldStarts.add(metric(handler, "ColdStart", "Sum"));
+            initDurations.add(metric(handler, "InitDuration", "Maximum"));
+            responseSizes.add(metric(handler, "ResponseSize", "p99"));
+
+            alarms.add(Alarm.Builder.create(this, String.format("%sP99DurationAlarm", handler))
+                                    .alarmDescription(String.format("p99 duration of %s over %.0f ms", handler, P99_DURATION_THRESHOLD_MILLIS))
+                                    .metric(p99Duration)
+                                    .threshold(P99_DURATION_THRESHOLD_MILLIS)
+                                    .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                                    .evaluationPeriods(3)
+                                    .datapointsToAlarm(2)
+                                    // no traffic is not slow traffic
+                                    .treatMissingData(TreatMissingData.NOT_BREACHING)
+                                    .build());
+        }
+
+        dashboard.addWidgets(graph("Duration p50 (ms)", p50Durations),
+                             graph("Duration p99 (ms)", p99Durations));
+        dashboard.addWidgets(graph("Invocations", invocations),
+                             graph("Errors", errors));
+        dashboard.addWidgets(graph("Cold starts", coldStarts),
+                             graph("Init duration (ms)", initDurations));
+        dashboard.addWidgets(graph("Response size p99 (bytes)", responseSizes));
+        for (Alarm alarm : alarms) {
+            dashboard.addWidgets(AlarmWidget.Builder.create()
+                                                    .title(alarm.getNode()
+                                                                .getId())
+                                                    .alarm(alarm)
+                                                    .width(24)
+                                                    .build());
+        }
+    }
+
+    private static Metric metric(String handler, String name, String statistic) {
+        return Metric.Builder.create()
+                             .namespace(NAMESPACE)
+                             .metricName(name)
+                             .dimensions(Map.of(DIMENSION, handler))
+                             .statistic(statistic)
+                             .period(PERIOD)
+                             .label(handler)
+                             .build();
+    }
+
+    private static GraphWidget graph(String title, List<IMetric> metrics) {
+        return GraphWidget.Builder.create()
+                                  .title(title)
+                                  .left(metrics)
+                                  .width(12)
+                                  .build();
+    }
+
+    public Dashboard getDashboard() {
+        return dashboard;
+    }
+
+    public List<Alarm> getAlarms() {
+        return alarms;
+    }
+}
@@ -0,0 +1,84 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import software.amazon.awscdk.core.Duration;
+
+import java.util.List;
+
+/**
+ * How long CloudFront caches a class of website paths. Each path pattern becomes its own cache behavior; CloudFront
+ * matches behaviors in order, so earlier tiers win. The tier without path patterns is the default behavior.
+ */
+public class CacheTier {
+
+    private final String name;
+
+    private final List<String> pathPatterns;
+
+    private final Duration minTtl;
+
+    private final Duration defaultTtl;
+
+    private final Duration maxTtl;
+
+    private final boolean compress;
+
+    // whether directory requests on these paths need the Lambda@Edge index.html rewrite
+    private final boolean directoryIndexRewrite;
+
+    public CacheTier(String name, List<String> pathPatterns, Duration minTtl, Duration defaultTtl, Duration maxTtl, boolean compress, boolean directoryIndexRewrite) {
+        this.name = name;
+        this.pathPatterns = List.copyOf(pathPatterns);
+        this.minTtl = minTtl;
+        this.defaultTtl = defaultTtl;
+        this.maxTtl = maxTtl;
+        this.compress = compress;
+        this.directoryIndexRewrite = directoryIndexRewrite;
+    }
+
+    /**
+     * Gatsby's tiers: HTML, page-data and the unhashed CMS admin app change on every deploy and are kept briefly;
+     * content-hashed JS/CSS and everything under {@code static/} never change under the same name and are kept for a
+     * year. A path pattern's {@code ?} matches any character, not just a hex digit, so the immutable tier doesn't decide
+     * what is immutable: it honours the object's {@code Cache-Control} up to a year, which the packager sets only on what
+     * {@link org.johntipper.blog.web.WebAssetPackager#isContentHashed} flags. Anything else the patterns catch, such as
+     * {@code app-polyfill-legacy-build.js}, gets the short default.
+     */
+    public static List<CacheTier> gatsbyDefaults() {
+        CacheTier shortLived = new CacheTier("ShortLived", List.of("page-data/*", "admin/*"), Duration.seconds(0), Duration.minutes(5), Duration.minutes(5), true, true);
+        CacheTier immutable = new CacheTier("Immutable", List.of("static/*", "*-????????????????????.js", "*.????????????????????.css"), Duration.seconds(0), Duration.minutes(5), Duration.days(365), true, false);
+        CacheTier html = new CacheTier("Html", List.of(), Duration.seconds(0), Duration.minutes(5), Duration.minutes(5), true, true);
+        return List.of(shortLived, immutable, html);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getPathPatterns() {
+        return pathPatterns;
+    }
+
+    public boolean isDefault() {
+        return pathPatterns.isEmpty();
+    }
+
+    public Duration getMinTtl() {
+        return minTtl;
+    }
+
+    public Duration getDefaultTtl() {
+        return defaultTtl;
+    }
+
+    public Duration getMaxTtl() {
+        return maxTtl;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public boolean isDirectoryIndexRewrite() {
+        return directoryIndexRewrite;
+    }
+}
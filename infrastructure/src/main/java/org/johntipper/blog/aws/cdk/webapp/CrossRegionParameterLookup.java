@@ -0,0 +1,56 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.core.ArnComponents;
+import software.amazon.awscdk.core.Construct;
+import software.amazon.awscdk.core.Stack;
+import software.amazon.awscdk.customresources.AwsCustomResource;
+import software.amazon.awscdk.customresources.AwsCustomResourcePolicy;
+import software.amazon.awscdk.customresources.AwsSdkCall;
+import software.amazon.awscdk.customresources.PhysicalResourceId;
+import software.amazon.awscdk.services.iam.Effect;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads an SSM parameter that a stack in another region publishes, as CloudFormation can't reference across regions.
+ * The value is only read again when the parameter name changes, so this is for values that are fixed once published,
+ * such as the name of a table.
+ */
+public class CrossRegionParameterLookup extends Construct {
+
+    private final String value;
+
+    public CrossRegionParameterLookup(@NotNull Construct scope, @NotNull String id, String parameterName, String parameterRegion) {
+        super(scope, id);
+
+        AwsCustomResource parameter = AwsCustomResource.Builder.create(this, "Parameter")
+                                                               .policy(AwsCustomResourcePolicy.fromStatements(List.of(
+                                                                   PolicyStatement.Builder.create()
+                                                                                          .effect(Effect.ALLOW)
+                                                                                          .actions(List.of("ssm:GetParameter*"))
+                                                                                          .resources(List.of(Stack.of(this)
+                                                                                                                  .formatArn(ArnComponents.builder()
+                                                                                                                                          .service("ssm")
+                                                                                                                                          .region(parameterRegion)
+                                                                                                                                          .resource(String.format("parameter%s", parameterName))
+                                                                                                                                          .build())))
+                                                                                          .build())))
+                                                               .onUpdate(AwsSdkCall.builder()
+                                                                                   .service("SSM")
+                                                                                   .action("getParameter")
+                                                                                   .parameters(Map.of("Name", parameterName))
+                                                                                   .region(parameterRegion)
+                                                                                   .physicalResourceId(PhysicalResourceId.of(parameterName))
+                                                                                   .build())
+                                                               .build();
+
+        value = parameter.getResponseField("Parameter.Value");
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,58 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.core.ArnComponents;
+import software.amazon.awscdk.core.Construct;
+import software.amazon.awscdk.core.Stack;
+import software.amazon.awscdk.customresources.AwsCustomResource;
+import software.amazon.awscdk.customresources.AwsCustomResourcePolicy;
+import software.amazon.awscdk.customresources.AwsSdkCall;
+import software.amazon.awscdk.customresources.PhysicalResourceId;
+import software.amazon.awscdk.services.iam.Effect;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.lambda.IVersion;
+import software.amazon.awscdk.services.lambda.Version;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the Lambda@Edge version that {@link LambdaEdgeCloudFrontRewriteStack} publishes to SSM in another region.
+ * The lookup's physical id is the edge function's version key, so CloudFormation only runs it again (and so only
+ * updates the distributions using the version) when the function has changed, rather than on every deploy.
+ */
+public class EdgeLambdaVersionLookup extends Construct {
+
+    private final IVersion version;
+
+    public EdgeLambdaVersionLookup(@NotNull Construct scope, @NotNull String id, String parameterName, String parameterRegion, String versionKey) {
+        super(scope, id);
+
+        AwsCustomResource lambdaParameter = AwsCustomResource.Builder.create(this, "LambdaParameter")
+                                                                     .policy(AwsCustomResourcePolicy.fromStatements(List.of(
+                                                                         PolicyStatement.Builder.create()
+                                                                                                .effect(Effect.ALLOW)
+                                                                                                .actions(List.of("ssm:GetParameter*"))
+                                                                                                .resources(List.of(Stack.of(this)
+                                                                                                                        .formatArn(ArnComponents.builder()
+                                                                                                                                                .service("ssm")
+                                                                                                                                                .region(parameterRegion)
+                                                                                                                                                .resource(String.format("parameter%s", parameterName))
+                                                                                                                                                .build())))
+                                                                                                .build())))
+                                                                     .onUpdate(AwsSdkCall.builder()
+                                                                                         .service("SSM")
+                                                                                         .action("getParameter")
+                                                                                         .parameters(Map.of("Name", parameterName))
+                                                                                         .region(parameterRegion)
+                                                                                         .physicalResourceId(PhysicalResourceId.of(versionKey))
+                                                                                         .build())
+                                                                     .build();
+
+        version = Version.fromVersionArn(this, "EdgeLambdaVersion", lambdaParameter.getResponseField("Parameter.Value"));
+    }
+
+    public IVersion getVersion() {
+        return version;
+    }
+}
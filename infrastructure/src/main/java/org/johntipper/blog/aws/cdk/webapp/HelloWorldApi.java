@@ -6,13 +6,20 @@ import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.core.ArnComponents;
+import software.amazon.awscdk.core.CfnResource;
 import software.amazon.awscdk.core.Construct;
 import software.amazon.awscdk.core.Duration;
+import software.amazon.awscdk.core.IConstruct;
+import software.amazon.awscdk.core.Stack;
 import software.amazon.awscdk.core.StackProps;
-import software.amazon.awscdk.services.apigateway.ApiDefinition;
-import software.amazon.awscdk.services.apigateway.IRestApi;
-import software.amazon.awscdk.services.apigateway.SpecRestApi;
-import software.amazon.awscdk.services.apigateway.StageOptions;
+import software.amazon.awscdk.services.apigateway.*;
+import software.amazon.awscdk.services.dynamodb.Attribute;
+import software.amazon.awscdk.services.dynamodb.AttributeType;
+import software.amazon.awscdk.services.dynamodb.BillingMode;
+import software.amazon.awscdk.services.dynamodb.ITable;
+import software.amazon.awscdk.services.dynamodb.Table;
+import software.amazon.awscdk.services.dynamodb.TableAttributes;
 import software.amazon.awscdk.services.iam.Effect;
 import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.iam.Role;
@@ -20,33 +27,148 @@ import software.amazon.awscdk.services.iam.ServicePrincipal;
 import software.amazon.awscdk.services.lambda.Runtime;
 import software.amazon.awscdk.services.lambda.*;
 import software.amazon.awscdk.services.logs.RetentionDays;
+import software.amazon.awscdk.services.ssm.StringParameter;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 public class HelloWorldApi extends Construct {
 
+    // what the whole stage will take before API Gateway answers 429 itself, without invoking (or billing) the lambda
+    private static final int STAGE_RATE_LIMIT = 20;
+    private static final int STAGE_BURST_LIMIT = 40;
+
+    // per client, in each container; the lambda sheds clients over this before doing any work
+    private static final int CLIENT_RATE_LIMIT = 5;
+    private static final int CLIENT_BURST_LIMIT = 20;
+
+    // as in the api module's LoadShedder
+    public static final String ORIGIN_SECRET_HEADER = "X-Origin-Secret";
+    private static final String ORIGIN_SECRET_VARIABLE = "ORIGIN_SECRET";
+
+    // fixed, as a SingletonFunction's logical id comes from its uuid: a new one on every synth replaces the function
+    private static final String HELLO_WORLD_LAMBDA_UUID = "8e5b520a-69b9-4c6d-bca1-407f50f81568";
+    private static final String SEARCH_LAMBDA_UUID = "5e97233b-4ee5-4198-ac25-f2850be9c018";
+    private static final String VIEWS_LAMBDA_UUID = "0c2f6d1e-7a53-4b8e-9f14-3d6a2b9e51c7";
+
+    // as in the api module's DynamoDbViewStore
+    private static final String VIEWS_TABLE_NAME_VARIABLE = "VIEWS_TABLE_NAME";
+    private static final String VIEWS_TABLE_REGION_VARIABLE = "VIEWS_TABLE_REGION";
+    private static final String VIEWS_PAGE_ATTRIBUTE = "page";
+
+    // read back by the apis in the other regions, which all count views in the main region's table
+    public static final String VIEWS_TABLE_PARAMETER_NAME = "/blog/viewsTableName";
+
+    public static final String STAGE_NAME = "api";
+
+    // the HTTP API entry point of the api module's ApiHandler, which takes payload format 2.0 events
+    private static final String HTTP_HANDLER_METHOD = "handleHttpRequest";
+
+    // only set for a REST API
     private IRestApi restApi;
 
+    private final String apiId;
+
+    private final IConstruct stage;
+
     public HelloWorldApi(@NotNull Construct scope, @NotNull String id, StackProps props, WebBackendStackConfig stackConfig) throws IOException {
         super(scope, id);
 
-        // lambda that we'll use as an example
+        String handlerMethod = stackConfig.isApiHttpApi() ? HTTP_HANDLER_METHOD : "handleRequest";
+
+        // the api in any other region leaves the views table, and the names of global resources, to this one
+        String apiRegion = props.getEnv().getRegion();
+        boolean mainRegion = apiRegion.equals(stackConfig.getRegion());
+
+        Map<String, String> rateLimitEnvironment = new HashMap<>(Map.of("RATE_LIMIT_PER_SECOND", Integer.toString(CLIENT_RATE_LIMIT),
+                                                                        "RATE_LIMIT_BURST", Integer.toString(CLIENT_BURST_LIMIT)));
+        // without it, clients are told apart by source IP only: through CloudFront, by edge location
+        if (stackConfig.getApiOriginSecret() != null) {
+            rateLimitEnvironment.put(ORIGIN_SECRET_VARIABLE, stackConfig.getApiOriginSecret());
+        }
+
+        // lambda that we'll use as an example; the native bootstrap reads the same handler name from _HANDLER
         SingletonFunction helloWorldLambda = SingletonFunction.Builder.create(this, "HelloWorldLambda")
                                                                       .description("HelloWorld lambda to demonstrate integration with API Gateway")
-                                                                      .code(Code.fromAsset(stackConfig.getApiLambdaPath()))
-                                                                      .handler(String.format("%s::handleRequest", "org.johntipper.blog.lambda.HelloWorldHandler"))
+                                                                      .code(Code.fromAsset(stackConfig.isApiNativeRuntime() ? stackConfig.getApiNativeLambdaPath() : stackConfig.getApiLambdaPath()))
+                                                                      .handler(String.format("%s::%s", stackConfig.isApiStreamingHandler() ? "org.johntipper.blog.lambda.HelloWorldStreamHandler" : "org.johntipper.blog.lambda.HelloWorldHandler", handlerMethod))
                                                                       .timeout(Duration.seconds(10))
-                                                                      .runtime(Runtime.JAVA_11)
+                                                                      .runtime(stackConfig.isApiNativeRuntime() ? Runtime.PROVIDED_AL2 : Runtime.JAVA_11)
                                                                       .memorySize(256)
-                                                                      .uuid(UUID.randomUUID()
-                                                                                .toString())
+                                                                      .uuid(HELLO_WORLD_LAMBDA_UUID)
                                                                       .logRetention(RetentionDays.ONE_WEEK)
+                                                                      .environment(rateLimitEnvironment)
                                                                       .build();
 
+        // same package, which carries the search index the handler maps at init
+        SingletonFunction searchLambda = SingletonFunction.Builder.create(this, "SearchLambda")
+                                                                  .description("Full-text search over the blog posts")
+                                                                  .code(Code.fromAsset(stackConfig.isApiNativeRuntime() ? stackConfig.getApiNativeLambdaPath() : stackConfig.getApiLambdaPath()))
+                                                                  .handler(String.format("org.johntipper.blog.lambda.SearchHandler::%s", handlerMethod))
+                                                                  .timeout(Duration.seconds(10))
+                                                                  .runtime(stackConfig.isApiNativeRuntime() ? Runtime.PROVIDED_AL2 : Runtime.JAVA_11)
+                                                                  .memorySize(256)
+                                                                  .uuid(SEARCH_LAMBDA_UUID)
+                                                                  .logRetention(RetentionDays.ONE_WEEK)
+                                                                  .environment(rateLimitEnvironment)
+                                                                  .build();
+
+        Map<String, String> viewsEnvironment = new HashMap<>(rateLimitEnvironment);
+        ITable viewsTable;
+        if (mainRegion) {
+            // on-demand: views come in spikes, and the lambda coalesces them into a few writes each
+            viewsTable = Table.Builder.create(this, "ViewsTable")
+                                      .partitionKey(Attribute.builder()
+                                                             .name(VIEWS_PAGE_ATTRIBUTE)
+                                                             .type(AttributeType.STRING)
+                                                             .build())
+                                      .billingMode(BillingMode.PAY_PER_REQUEST)
+                                      .build();
+
+            if (stackConfig.isMultiRegionApi()) {
+                StringParameter.Builder.create(this, "ViewsTableName")
+                                       .parameterName(VIEWS_TABLE_PARAMETER_NAME)
+                                       .description("CDK parameter stored for the views lambdas in other regions")
+                                       .stringValue(viewsTable.getTableName())
+                                       .build();
+            }
+        } else {
+            // not a global table: replication is last writer wins per item, which would lose the ADDs made in the
+            // other regions at the same time; the lambda's writes are coalesced, so the cross-region calls are few
+            String viewsTableName = new CrossRegionParameterLookup(this, "ViewsTableNameLookup", VIEWS_TABLE_PARAMETER_NAME, stackConfig.getRegion()).getValue();
+            viewsTable = Table.fromTableAttributes(this, "ViewsTable", TableAttributes.builder()
+                                                                                      .tableArn(Stack.of(this)
+                                                                                                     .formatArn(ArnComponents.builder()
+                                                                                                                             .service("dynamodb")
+                                                                                                                             .region(stackConfig.getRegion())
+                                                                                                                             .resource("table")
+                                                                                                                             .resourceName(viewsTableName)
+                                                                                                                             .build()))
+                                                                                      .build());
+            viewsEnvironment.put(VIEWS_TABLE_REGION_VARIABLE, stackConfig.getRegion());
+        }
+        viewsEnvironment.put(VIEWS_TABLE_NAME_VARIABLE, viewsTable.getTableName());
+
+        // always the JVM package: the native image has no reflection config for the AWS SDK; more memory for the
+        // SDK's CPU-bound cold start
+        SingletonFunction viewsLambda = SingletonFunction.Builder.create(this, "ViewsLambda")
+                                                                 .description("Blog post view counter")
+                                                                 .code(Code.fromAsset(stackConfig.getApiLambdaPath()))
+                                                                 .handler(String.format("org.johntipper.blog.lambda.ViewCountHandler::%s", handlerMethod))
+                                                                 .timeout(Duration.seconds(10))
+                                                                 .runtime(Runtime.JAVA_11)
+                                                                 .memorySize(512)
+                                                                 .uuid(VIEWS_LAMBDA_UUID)
+                                                                 .logRetention(RetentionDays.ONE_WEEK)
+                                                                 .environment(viewsEnvironment)
+                                                                 .build();
+
+        // only ever ADDs
+        viewsTable.grant(viewsLambda, "dynamodb:UpdateItem");
+
         // allow lambda to write logs, allow APIG & console to call the lambda
         CfnPermission helloWorldRestPermission = CfnPermission.Builder.create(this, "HelloWorldRestPermission")
                                                                       .action("lambda:InvokeFunction")
@@ -63,11 +185,17 @@ public class HelloWorldApi extends Construct {
         helloWorldLambda.grantInvoke(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
                                                              .build());
 
+        searchLambda.grantInvoke(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
+                                                         .build());
+
+        viewsLambda.grantInvoke(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
+                                                        .build());
+
 
         Role apiGatewayRole = Role.Builder.create(this, "ApiGatewayRole")
                                           .assumedBy(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
                                                                              .build())
-                                          .roleName("ApiGatewayLambdaExecutionRole")
+                                          .roleName(mainRegion ? "ApiGatewayLambdaExecutionRole" : String.format("ApiGatewayLambdaExecutionRole-%s", apiRegion))
                                           .build();
 
         apiGatewayRole.addToPolicy(PolicyStatement.Builder.create()
@@ -77,7 +205,7 @@ public class HelloWorldApi extends Construct {
                                                           .build());
 
         apiGatewayRole.addToPolicy(PolicyStatement.Builder.create()
-                                                          .resources(List.of(helloWorldLambda.getFunctionArn()))
+                                                          .resources(List.of(helloWorldLambda.getFunctionArn(), searchLambda.getFunctionArn(), viewsLambda.getFunctionArn()))
                                                           .actions(List.of("lambda:InvokeFunction"))
                                                           .effect(Effect.ALLOW)
                                                           .build());
@@ -90,6 +218,16 @@ public class HelloWorldApi extends Construct {
             props.getEnv()
                  .getRegion(),
             helloWorldLambda.getFunctionArn()));
+        variables.put("search-lambda", String.format(
+            "arn:aws:apigateway:%s:lambda:path/2015-03-31/functions/%s/invocations",
+            props.getEnv()
+                 .getRegion(),
+            searchLambda.getFunctionArn()));
+        variables.put("views-lambda", String.format(
+            "arn:aws:apigateway:%s:lambda:path/2015-03-31/functions/%s/invocations",
+            props.getEnv()
+                 .getRegion(),
+            viewsLambda.getFunctionArn()));
 
         Writer writer = new StringWriter();
         MustacheFactory mmf = new DefaultMustacheFactory();
@@ -106,23 +244,58 @@ public class HelloWorldApi extends Construct {
 
         }
 
-        restApi = SpecRestApi.Builder.create(this, "OpenapiRestApi")
-                                     .restApiName("HelloWorld")
-                                     .apiDefinition(ApiDefinition.fromInline(openapiSpecAsObject))
-                                     .deploy(true)
-                                     .deployOptions(StageOptions.builder()
-                                                                .stageName("api")
-                                                                .build())
-                                     .build();
-        restApi.getNode()
-               .addDependency(apiGatewayRole);
+        String executeApiArn;
+        if (stackConfig.isApiHttpApi()) {
+            CfnResource httpApi = CfnResource.Builder.create(this, "OpenapiHttpApi")
+                                                     .type("AWS::ApiGatewayV2::Api")
+                                                     .properties(Map.of("Body", httpApiDefinition(openapiSpecAsObject),
+                                                                        // an extension HTTP APIs ignore is a warning, which shouldn't fail the deploy
+                                                                        "FailOnWarnings", false))
+                                                     .build();
+            apiId = httpApi.getRef();
+
+            // named api like the REST stage, so /api/... still maps straight onto it
+            stage = CfnResource.Builder.create(this, "HttpApiStage")
+                                       .type("AWS::ApiGatewayV2::Stage")
+                                       .properties(Map.of("ApiId", apiId,
+                                                          "StageName", STAGE_NAME,
+                                                          "AutoDeploy", true,
+                                                          "DefaultRouteSettings", Map.of("ThrottlingRateLimit", STAGE_RATE_LIMIT,
+                                                                                         "ThrottlingBurstLimit", STAGE_BURST_LIMIT)))
+                                       .build();
+
+            executeApiArn = Stack.of(this)
+                                 .formatArn(ArnComponents.builder()
+                                                         .service("execute-api")
+                                                         .resource(apiId)
+                                                         .resourceName("*/*")
+                                                         .build());
+        } else {
+            restApi = SpecRestApi.Builder.create(this, "OpenapiRestApi")
+                                         .restApiName("HelloWorld")
+                                         .apiDefinition(ApiDefinition.fromInline(openapiSpecAsObject))
+                                         .deploy(true)
+                                         .deployOptions(StageOptions.builder()
+                                                                    .stageName(STAGE_NAME)
+                                                                    .throttlingRateLimit(STAGE_RATE_LIMIT)
+                                                                    .throttlingBurstLimit(STAGE_BURST_LIMIT)
+                                                                    .build())
+                                         .build();
+
+            restApi.getNode()
+                   .addDependency(apiGatewayRole);
 
-        restApi.getNode()
-               .addDependency(helloWorldRestPermission);
+            restApi.getNode()
+                   .addDependency(helloWorldRestPermission);
 
-        restApi.getDeploymentStage()
-               .getNode()
-               .addDependency(helloWorldRestPermission);
+            restApi.getDeploymentStage()
+                   .getNode()
+                   .addDependency(helloWorldRestPermission);
+
+            apiId = restApi.getRestApiId();
+            stage = restApi.getDeploymentStage();
+            executeApiArn = restApi.arnForExecuteApi();
+        }
 
         helloWorldLambda.addPermission(
             "AllowApiGatewayInvocation",
@@ -130,12 +303,78 @@ public class HelloWorldApi extends Construct {
                       .action("lambda:InvokeFunction")
                       .principal(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
                                                          .build())
-                      .sourceArn(restApi.arnForExecuteApi())
+                      .sourceArn(executeApiArn)
+                      .build());
+
+        searchLambda.addPermission(
+            "AllowApiGatewayInvocation",
+            Permission.builder()
+                      .action("lambda:InvokeFunction")
+                      .principal(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
+                                                         .build())
+                      .sourceArn(executeApiArn)
                       .build());
 
+        viewsLambda.addPermission(
+            "AllowApiGatewayInvocation",
+            Permission.builder()
+                      .action("lambda:InvokeFunction")
+                      .principal(ServicePrincipal.Builder.create("apigateway.amazonaws.com")
+                                                         .build())
+                      .sourceArn(executeApiArn)
+                      .build());
+
+        // the handler names each lambda's metrics are dimensioned by
+        new ApiMonitoring(this, "Monitoring", mainRegion ? "BlogApi" : String.format("BlogApi-%s", apiRegion), List.of("HelloWorldHandler", "SearchHandler", "ViewCountHandler"));
     }
 
+    /**
+     * The same spec for an HTTP API: integrations with payload format 2.0, and without the REST-only extensions. The
+     * v2 payload carries base64 bodies either way, so there are no binary media types to declare.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> httpApiDefinition(Object openapiSpec) {
+        Map<String, Object> spec = new LinkedHashMap<>((Map<String, Object>) openapiSpec);
+        spec.remove("x-amazon-apigateway-binary-media-types");
+        spec.remove("x-amazon-apigateway-gateway-responses");
+        // the stage supplies the /api prefix
+        spec.remove("servers");
+
+        Map<String, Object> paths = new LinkedHashMap<>();
+        ((Map<String, Object>) spec.get("paths")).forEach((path, pathItem) -> {
+            Map<String, Object> operations = new LinkedHashMap<>();
+            ((Map<String, Object>) pathItem).forEach((method, operation) -> {
+                Map<String, Object> httpOperation = new LinkedHashMap<>((Map<String, Object>) operation);
+                Map<String, Object> integration = new LinkedHashMap<>((Map<String, Object>) httpOperation.get("x-amazon-apigateway-integration"));
+                integration.remove("passthroughBehavior");
+                integration.put("payloadFormatVersion", "2.0");
+                httpOperation.put("x-amazon-apigateway-integration", integration);
+                operations.put(method, httpOperation);
+            });
+            paths.put(path, operations);
+        });
+        spec.put("paths", paths);
+        return spec;
+    }
+
+    /**
+     * @return the REST API, or {@code null} if the api is deployed as an HTTP API
+     */
     public IRestApi getRestApi() {
         return restApi;
     }
+
+    /**
+     * @return the id of the REST or HTTP API, whose execute-api domain is the CloudFront origin for api/*
+     */
+    public String getApiId() {
+        return apiId;
+    }
+
+    /**
+     * @return the REST or HTTP API stage, which a custom domain can only be mapped onto once it exists
+     */
+    public IConstruct getStage() {
+        return stage;
+    }
 }
@@ -3,7 +3,9 @@ package org.johntipper.blog.aws.cdk.webapp;
 import org.jetbrains.annotations.Nullable;
 import software.amazon.awscdk.core.*;
 import software.amazon.awscdk.services.iam.CompositePrincipal;
+import software.amazon.awscdk.services.iam.Effect;
 import software.amazon.awscdk.services.iam.ManagedPolicy;
+import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.iam.Role;
 import software.amazon.awscdk.services.iam.ServicePrincipal;
 import software.amazon.awscdk.services.lambda.Code;
@@ -16,6 +18,17 @@ import java.util.List;
 
 public class LambdaEdgeCloudFrontRewriteStack extends Stack {
 
+    // read back by the distribution's stack, which is in another region
+    public static final String VERSION_PARAMETER_NAME = "/blog/lambdaEdgeLambdaVersion";
+
+    private static final String HANDLER = "index.handler";
+    private static final Runtime RUNTIME = Runtime.NODEJS_12_X;
+    private static final int MEMORY_SIZE = 128;
+    private static final int TIMEOUT_SECONDS = 5;
+
+    // as in index.js, which reads it from the website bucket rather than carrying the site's build output
+    private static final String NOT_FOUND_KEY = "404.html";
+
     public LambdaEdgeCloudFrontRewriteStack(@Nullable Construct scope, @Nullable String id, @Nullable StackProps props, WebBackendStackConfig stackConfig) {
         super(scope, id, props);
 
@@ -27,25 +40,40 @@ public class LambdaEdgeCloudFrontRewriteStack extends Stack {
                                     .managedPolicies(List.of(ManagedPolicy.fromAwsManagedPolicyName("service-role/AWSLambdaBasicExecutionRole")))
                                     .build();
 
+        // the bucket is in the distribution's stack, but its name is fixed by the account
+        edgeRole.addToPolicy(PolicyStatement.Builder.create()
+                                                    .resources(List.of(String.format("arn:aws:s3:::%s/%s", WebBackendStack.websiteBucketName(stackConfig.getTargetAccount()), NOT_FOUND_KEY)))
+                                                    .actions(List.of("s3:GetObject"))
+                                                    .effect(Effect.ALLOW)
+                                                    .build());
+
         Function lambdaEdgeFunction = Function.Builder.create(this, "LambdaEdgeFunction")
-                                                      .description("LambdaEdge function to rewrite directory requests")
+                                                      .description("LambdaEdge function to rewrite directory requests and serve the 404 page")
                                                       .code(Code.fromAsset(stackConfig.getLambdaEdgeLambdaPath()))
-                                                      .handler("index.handler")
-                                                      .timeout(Duration.seconds(5))
-                                                      .runtime(Runtime.NODEJS_12_X)
-                                                      .memorySize(128)
+                                                      .handler(HANDLER)
+                                                      .timeout(Duration.seconds(TIMEOUT_SECONDS))
+                                                      .runtime(RUNTIME)
+                                                      .memorySize(MEMORY_SIZE)
                                                       .role(edgeRole)
                                                       .functionName(PhysicalName.GENERATE_IF_NEEDED)
                                                       .logRetention(RetentionDays.ONE_DAY)
                                                       .build();
 
         StringParameter lambdaEdgeLambdaVersion = StringParameter.Builder.create(this, "LambdaEdgeLambdaVersion")
-                                                                         .parameterName("/blog/lambdaEdgeLambdaVersion")
+                                                                         .parameterName(VERSION_PARAMETER_NAME)
                                                                          .description("CDK parameter stored for cross region Edge Lambda")
                                                                          .stringValue(lambdaEdgeFunction.getCurrentVersion().getFunctionArn())
                                                                          .build();
 
     }
 
-
+    /**
+     * Changes whenever deploying this stack publishes a new version of the edge function: the content hash CDK gives
+     * the function's asset, plus the settings that go into the version.
+     */
+    public static String versionKey(WebBackendStackConfig stackConfig) {
+        return FileSystem.fingerprint(stackConfig.getLambdaEdgeLambdaPath(), FingerprintOptions.builder()
+                                                                                               .extraHash(String.join(",", HANDLER, RUNTIME.getName(), Integer.toString(MEMORY_SIZE), Integer.toString(TIMEOUT_SECONDS)))
+                                                                                               .build());
+    }
 }
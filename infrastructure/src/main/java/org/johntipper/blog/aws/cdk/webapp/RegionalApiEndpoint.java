@@ -0,0 +1,94 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.core.CfnResource;
+import software.amazon.awscdk.core.Construct;
+import software.amazon.awscdk.core.Stack;
+import software.amazon.awscdk.core.Token;
+import software.amazon.awscdk.services.certificatemanager.DnsValidatedCertificate;
+import software.amazon.awscdk.services.route53.CfnHealthCheck;
+import software.amazon.awscdk.services.route53.CfnRecordSet;
+import software.amazon.awscdk.services.route53.IHostedZone;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One region's api behind the latency records that CloudFront's {@code api/*} origin resolves: a regional custom
+ * domain mapped onto the api's stage, a health check on the api itself, and a latency record that Route 53 only
+ * answers with while the health check passes. CloudFront resolves the origin from the edge location, so each edge gets
+ * the nearest healthy region. CDK 1.60's {@code ARecord} has no latency routing or health checks, and its api domain
+ * constructs are REST only, so these are L1 or raw resources.
+ */
+public class RegionalApiEndpoint extends Construct {
+
+    // each checker (a few per Route 53 region) requests every 30s: well under the stage's rate limit
+    private static final int HEALTH_CHECK_INTERVAL_SECONDS = 30;
+    private static final int HEALTH_CHECK_FAILURE_THRESHOLD = 3;
+
+    // a route that doesn't depend on the views table, which only the main region has
+    private static final String HEALTH_CHECK_PATH = String.format("/%s/hello", HelloWorldApi.STAGE_NAME);
+
+    public RegionalApiEndpoint(@NotNull Construct scope, @NotNull String id, IHostedZone hostedZone, HelloWorldApi api, WebBackendStackConfig stackConfig) {
+        super(scope, id);
+
+        String region = Stack.of(this).getRegion();
+
+        DnsValidatedCertificate certificate = DnsValidatedCertificate.Builder.create(this, "Certificate")
+                                                                             .hostedZone(hostedZone)
+                                                                             .region(region)
+                                                                             .domainName(stackConfig.getApiDomainName())
+                                                                             .build();
+
+        // the V2 domain resources map REST APIs as well as HTTP APIs
+        CfnResource domainName = CfnResource.Builder.create(this, "DomainName")
+                                                    .type("AWS::ApiGatewayV2::DomainName")
+                                                    .properties(Map.of("DomainName", stackConfig.getApiDomainName(),
+                                                                       "DomainNameConfigurations", List.of(Map.of("CertificateArn", certificate.getCertificateArn(),
+                                                                                                                  "EndpointType", "REGIONAL",
+                                                                                                                  "SecurityPolicy", "TLS_1_2"))))
+                                                    .build();
+
+        // /api/... on the custom domain is /... on the api stage, as on the execute-api domain
+        CfnResource apiMapping = CfnResource.Builder.create(this, "ApiMapping")
+                                                    .type("AWS::ApiGatewayV2::ApiMapping")
+                                                    .properties(Map.of("DomainName", domainName.getRef(),
+                                                                       "ApiId", api.getApiId(),
+                                                                       "Stage", HelloWorldApi.STAGE_NAME,
+                                                                       "ApiMappingKey", HelloWorldApi.STAGE_NAME))
+                                                    .build();
+        apiMapping.getNode()
+                  .addDependency(api.getStage());
+
+        // on the execute-api domain, as the custom domain's name resolves to whichever region is nearest the checker
+        CfnHealthCheck healthCheck = CfnHealthCheck.Builder.create(this, "HealthCheck")
+                                                           .healthCheckConfig(CfnHealthCheck.HealthCheckConfigProperty.builder()
+                                                                                                                      .type("HTTPS")
+                                                                                                                      .fullyQualifiedDomainName(String.format("%s.execute-api.%s.amazonaws.com", api.getApiId(), region))
+                                                                                                                      .port(443)
+                                                                                                                      .resourcePath(HEALTH_CHECK_PATH)
+                                                                                                                      .enableSni(true)
+                                                                                                                      .requestInterval(HEALTH_CHECK_INTERVAL_SECONDS)
+                                                                                                                      .failureThreshold(HEALTH_CHECK_FAILURE_THRESHOLD)
+                                                                                                                      .build())
+                                                           .healthCheckTags(List.of(CfnHealthCheck.HealthCheckTagProperty.builder()
+                                                                                                                         .key("Name")
+                                                                                                                         .value(String.format("%s %s", stackConfig.getApiDomainName(), region))
+                                                                                                                         .build()))
+                                                           .build();
+
+        CfnRecordSet.Builder.create(this, "LatencyRecord")
+                            .hostedZoneId(hostedZone.getHostedZoneId())
+                            .name(String.format("%s.", stackConfig.getApiDomainName()))
+                            .type("A")
+                            .setIdentifier(region)
+                            .region(region)
+                            .healthCheckId(healthCheck.getRef())
+                            .aliasTarget(CfnRecordSet.AliasTargetProperty.builder()
+                                                                         .dnsName(Token.asString(domainName.getAtt("RegionalDomainName")))
+                                                                         .hostedZoneId(Token.asString(domainName.getAtt("RegionalHostedZoneId")))
+                                                                         .evaluateTargetHealth(false)
+                                                                         .build())
+                            .build();
+    }
+}
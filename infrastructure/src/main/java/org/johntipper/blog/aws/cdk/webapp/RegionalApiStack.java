@@ -0,0 +1,30 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import software.amazon.awscdk.core.Construct;
+import software.amazon.awscdk.core.Stack;
+import software.amazon.awscdk.core.StackProps;
+import software.amazon.awscdk.services.route53.HostedZone;
+import software.amazon.awscdk.services.route53.HostedZoneProviderProps;
+import software.amazon.awscdk.services.route53.IHostedZone;
+
+import java.io.IOException;
+
+/**
+ * The api in a region other than the main one, which keeps its api in {@link WebBackendStack} along with the views
+ * table and the distribution. It's registered under the same latency record as the main region's api.
+ */
+public class RegionalApiStack extends Stack {
+
+    public RegionalApiStack(Construct scope, String id, StackProps props, WebBackendStackConfig stackConfig) throws IOException {
+        super(scope, id, props);
+
+        // Route53 hosted zone created out-of-band
+        IHostedZone hostedZone = HostedZone.fromLookup(this, "HostedZone", HostedZoneProviderProps.builder()
+                                                                                                  .domainName(stackConfig.getDomainName())
+                                                                                                  .build());
+
+        HelloWorldApi helloWorldApi = new HelloWorldApi(this, "HelloWorldApi", props, stackConfig);
+
+        new RegionalApiEndpoint(this, "RegionalApiEndpoint", hostedZone, helloWorldApi, stackConfig);
+    }
+}
@@ -0,0 +1,102 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import software.amazon.awscdk.core.IConstruct;
+import software.amazon.awscdk.core.Stack;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+import software.amazon.awscdk.cxapi.CloudFormationStackArtifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Records where synth time goes: wall time to construct each stack (every construct is a round trip through jsii),
+ * the constructs each stack ends up with, the time spent in {@code app.synth()} and the size of each template.
+ * <p>
+ * Constructs aren't timed one by one: CDK has no hook on a construct's creation (aspects and {@code onPrepare} run at
+ * synth, after construction) and jsii's engine has no public listener, so it would take a wrapper around every
+ * {@code new} in every stack. A stack's construction time over its construct count, with the counts by type, stands in
+ * for it: the jsii round trips, which are most of the time, grow with the number of constructs.
+ */
+public class SynthProfiler {
+
+    private final long startNanos = System.nanoTime();
+
+    private final Map<String, StackProfile> stacks = new LinkedHashMap<>();
+
+    private long synthNanos;
+
+    private long totalNanos;
+
+    public interface StackFactory<T extends Stack> {
+        T create() throws IOException;
+    }
+
+    public <T extends Stack> T profile(StackFactory<T> factory) throws IOException {
+        long start = System.nanoTime();
+        T stack = factory.create();
+        long elapsed = System.nanoTime() - start;
+
+        StackProfile profile = new StackProfile();
+        profile.constructionMillis = elapsed / 1_000_000.0;
+        for (IConstruct construct : stack.getNode().findAll()) {
+            profile.constructCount++;
+            profile.constructsByType.merge(construct.getClass().getSimpleName(), 1, Integer::sum);
+        }
+        profile.millisPerConstruct = profile.constructCount == 0 ? 0 : profile.constructionMillis / profile.constructCount;
+        stacks.put(stack.getStackName(), profile);
+        return stack;
+    }
+
+    public void recordSynth(long synthNanos, CloudAssembly assembly) throws IOException {
+        this.synthNanos = synthNanos;
+        this.totalNanos = System.nanoTime() - startNanos;
+
+        for (CloudFormationStackArtifact artifact : assembly.getStacks()) {
+            StackProfile profile = stacks.computeIfAbsent(artifact.getStackName(), name -> new StackProfile());
+            profile.templateBytes = Files.size(Paths.get(assembly.getDirectory(), artifact.getTemplateFile()));
+        }
+    }
+
+    public double getTotalMillis() {
+        return totalNanos / 1_000_000.0;
+    }
+
+    public long getLargestTemplateBytes() {
+        return stacks.values()
+                     .stream()
+                     .mapToLong(profile -> profile.templateBytes)
+                     .max()
+                     .orElse(0);
+    }
+
+    public void writeReport(File reportFile) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("totalMillis", getTotalMillis());
+        report.put("synthMillis", synthNanos / 1_000_000.0);
+        report.put("stacks", stacks);
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                          .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                          .writeValue(reportFile, report);
+    }
+
+    private static class StackProfile {
+
+        private double constructionMillis;
+
+        private int constructCount;
+
+        private double millisPerConstruct;
+
+        private final Map<String, Integer> constructsByType = new TreeMap<>();
+
+        private long templateBytes;
+    }
+}
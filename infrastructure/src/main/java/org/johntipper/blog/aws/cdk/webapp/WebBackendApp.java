@@ -5,8 +5,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awscdk.core.App;
 import software.amazon.awscdk.core.Environment;
+import software.amazon.awscdk.core.Stack;
 import software.amazon.awscdk.core.StackProps;
+import software.amazon.awscdk.cxapi.CloudAssembly;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -16,15 +19,28 @@ public class WebBackendApp {
 
     private static final Logger LOG = LoggerFactory.getLogger(WebBackendApp.class);
 
+    public static final String SYNTH_REPORT_KEY = "synthReport";
+
     final App app;
 
+    final WebBackendStackConfig webStackConfig;
+
+    // only set when profiling, as walking the construct tree is itself a lot of jsii calls
+    final SynthProfiler profiler;
+
     public WebBackendApp(CommandLine cmd) throws IOException {
+        this(new App(), WebBackendStackConfig.fromCommandLine(cmd), cmd.hasOption(SYNTH_REPORT_KEY));
+    }
+
+    WebBackendApp(App app, WebBackendStackConfig webStackConfig, boolean profile) throws IOException {
 
-        this.app = new App();
+        this.app = app;
 
-        WebBackendStackConfig webStackConfig = WebBackendStackConfig.fromCommandLine(cmd);
+        this.profiler = profile ? new SynthProfiler() : null;
 
-        LambdaEdgeCloudFrontRewriteStack lambdaEdgeCloudFrontRewriteStack = new LambdaEdgeCloudFrontRewriteStack(app, "LambdaEdgeCloudFrontRewriteStack",
+        this.webStackConfig = webStackConfig;
+
+        LambdaEdgeCloudFrontRewriteStack lambdaEdgeCloudFrontRewriteStack = profile(() -> new LambdaEdgeCloudFrontRewriteStack(app, "LambdaEdgeCloudFrontRewriteStack",
                                                                                                                  StackProps.builder()
                                                                                                                            .env(Environment.builder()
                                                                                                                                            .account(webStackConfig.getTargetAccount())
@@ -33,9 +49,9 @@ public class WebBackendApp {
                                                                                                                            .stackName("LambdaEdgeCloudFrontRewriteStack")
                                                                                                                            .tags(Map.of("cdk", Boolean.toString(true)))
                                                                                                                            .build(),
-                                                                                                                 webStackConfig);
+                                                                                                                 webStackConfig));
 
-        WebBackendStack webBackendStack = new WebBackendStack(app, "WebBackendStack",
+        WebBackendStack webBackendStack = profile(() -> new WebBackendStack(app, "WebBackendStack",
                                                               StackProps.builder()
                                                                         .env(Environment.builder()
                                                                                         .account(webStackConfig.getTargetAccount())
@@ -44,16 +60,48 @@ public class WebBackendApp {
                                                                         .stackName("WebBackendStack")
                                                                         .tags(Map.of("cdk", Boolean.toString(true)))
                                                                         .build(),
-                                                              webStackConfig);
+                                                              webStackConfig));
+
+        // the distribution's stack reads the version the edge stack publishes, so has to deploy after it
+        webBackendStack.addDependency(lambdaEdgeCloudFrontRewriteStack);
+
+        // the main region's api is in WebBackendStack, along with the views table whose name the others read from SSM
+        for (String apiRegion : webStackConfig.getApiRegions().subList(1, webStackConfig.getApiRegions().size())) {
+            RegionalApiStack regionalApiStack = profile(() -> new RegionalApiStack(app, String.format("RegionalApiStack-%s", apiRegion),
+                                                                    StackProps.builder()
+                                                                              .env(Environment.builder()
+                                                                                              .account(webStackConfig.getTargetAccount())
+                                                                                              .region(apiRegion)
+                                                                                              .build())
+                                                                              .stackName(String.format("RegionalApiStack-%s", apiRegion))
+                                                                              .tags(Map.of("cdk", Boolean.toString(true)))
+                                                                              .build(),
+                                                                    webStackConfig));
+            regionalApiStack.addDependency(webBackendStack);
+        }
+    }
 
+    private <T extends Stack> T profile(SynthProfiler.StackFactory<T> factory) throws IOException {
+        return profiler == null ? factory.create() : profiler.profile(factory);
     }
 
-    public void synth() {
+    public CloudAssembly synth() throws IOException {
 
-        app.synth();
+        long start = System.nanoTime();
+        CloudAssembly assembly = app.synth();
+        if (profiler != null) {
+            profiler.recordSynth(System.nanoTime() - start, assembly);
+        }
+        return assembly;
     }
 
-    public static void main(String[] args) {
+    void writeSynthReport(CommandLine cmd) throws IOException {
+        if (profiler != null) {
+            profiler.writeReport(new File(cmd.getOptionValue(SYNTH_REPORT_KEY)));
+        }
+    }
+
+    static Options options() {
         Options options = new Options();
 
         options.addOption(Option.builder(REGION_KEY)
@@ -63,6 +111,13 @@ public class WebBackendApp {
                                 .required(true)
                                 .build());
 
+        options.addOption(Option.builder(API_REGIONS_KEY)
+                                .argName(API_REGIONS_KEY)
+                                .desc("Comma separated regions to deploy the api to as well as the main region. CloudFront reaches each through latency records with health checks.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
         options.addOption(Option.builder(TARGET_ACCOUNT_KEY)
                                 .argName(TARGET_ACCOUNT_KEY)
                                 .desc("AWS target account.")
@@ -91,6 +146,61 @@ public class WebBackendApp {
                                 .required(true)
                                 .build());
 
+        options.addOption(Option.builder(API_NATIVE_LAMBDA_PATH_KEY)
+                                .argName(API_NATIVE_LAMBDA_PATH_KEY)
+                                .desc("Path to the native-image api lambda bundle. If set, the api is deployed on the provided.al2 runtime instead of Java 11.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(API_STREAMING_HANDLER_KEY)
+                                .argName(API_STREAMING_HANDLER_KEY)
+                                .desc("Deploy the streaming (RequestStreamHandler) variant of the api handlers.")
+                                .hasArg(false)
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(API_HTTP_API_KEY)
+                                .argName(API_HTTP_API_KEY)
+                                .desc("Deploy the api as an HTTP API (payload format 2.0) instead of a REST API.")
+                                .hasArg(false)
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(EDGE_REWRITE_EVENT_KEY)
+                                .argName(EDGE_REWRITE_EVENT_KEY)
+                                .desc("CloudFront event the Lambda@Edge index rewrite runs on: origin-request (default, cache misses only) or viewer-request.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(API_ORIGIN_SHIELD_REGION_KEY)
+                                .argName(API_ORIGIN_SHIELD_REGION_KEY)
+                                .desc("Region of the CloudFront origin shield in front of the api origin, usually the api's own region. No origin shield if unset.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(API_ORIGIN_SECRET_KEY)
+                                .argName(API_ORIGIN_SECRET_KEY)
+                                .desc("Secret CloudFront sends to the api origin. The api's rate limiter only trusts the viewer address headers on requests carrying it, and keys every other request on its source IP.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(SYNTH_REPORT_KEY)
+                                .argName(SYNTH_REPORT_KEY)
+                                .desc("Profile synthesis and write a JSON report (per stack construction time, construct counts, template sizes) to this path.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        return options;
+    }
+
+    public static void main(String[] args) {
+        Options options = options();
+
         CommandLineParser parser = new DefaultParser();
 
         try {
@@ -101,6 +211,8 @@ public class WebBackendApp {
 
             cdkApp.synth();
 
+            cdkApp.writeSynthReport(cmd);
+
         } catch (MissingArgumentException | MissingOptionException | UnrecognizedOptionException e) {
             System.err.println(e.getMessage());
             HelpFormatter formatter = new HelpFormatter();
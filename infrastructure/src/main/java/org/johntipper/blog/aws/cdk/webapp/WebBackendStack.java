@@ -1,15 +1,9 @@
 package org.johntipper.blog.aws.cdk.webapp;
 
 import software.amazon.awscdk.core.*;
-import software.amazon.awscdk.customresources.AwsCustomResource;
-import software.amazon.awscdk.customresources.AwsCustomResourcePolicy;
-import software.amazon.awscdk.customresources.AwsSdkCall;
-import software.amazon.awscdk.customresources.PhysicalResourceId;
 import software.amazon.awscdk.services.certificatemanager.DnsValidatedCertificate;
 import software.amazon.awscdk.services.cloudfront.*;
-import software.amazon.awscdk.services.iam.Effect;
-import software.amazon.awscdk.services.iam.PolicyStatement;
-import software.amazon.awscdk.services.lambda.Version;
+import software.amazon.awscdk.services.lambda.IVersion;
 import software.amazon.awscdk.services.route53.*;
 import software.amazon.awscdk.services.route53.patterns.HttpsRedirect;
 import software.amazon.awscdk.services.route53.targets.CloudFrontTarget;
@@ -17,9 +11,10 @@ import software.amazon.awscdk.services.s3.Bucket;
 import software.amazon.awscdk.services.s3.BucketEncryption;
 
 import java.io.IOException;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class WebBackendStack extends Stack {
     public WebBackendStack(Construct scope, String id, StackProps props, WebBackendStackConfig stackConfig) throws IOException {
@@ -37,12 +32,22 @@ public class WebBackendStack extends Stack {
                                                                                     .subjectAlternativeNames(List.of(String.format("www.%s", stackConfig.getDomainName())))
                                                                                     .build();
 
-        // commented out purely so I don't have to pay someone deciding to hit my endpoint in a for loop...
-//        HelloWorldApi helloWorldApi = new HelloWorldApi(this, "HelloWorldApi", props, stackConfig);
+        // throttled at the stage and per client (a rate limiter in the lambda), so someone hitting the
+        // endpoint in a for loop mostly gets cheap 429s; cacheable responses are served by CloudFront without reaching it
+        HelloWorldApi helloWorldApi = new HelloWorldApi(this, "HelloWorldApi", props, stackConfig);
+
+        // with apis in other regions too, CloudFront goes through the latency records rather than straight to this one
+        String apiOriginDomainName;
+        if (stackConfig.isMultiRegionApi()) {
+            new RegionalApiEndpoint(this, "RegionalApiEndpoint", hostedZone, helloWorldApi, stackConfig);
+            apiOriginDomainName = stackConfig.getApiDomainName();
+        } else {
+            apiOriginDomainName = String.format("%s.execute-api.%s.amazonaws.com", helloWorldApi.getApiId(), stackConfig.getRegion());
+        }
 
         // S3 bucket we'll use for storing our website in
         Bucket websiteBucket = Bucket.Builder.create(this, "WebsiteBucket")
-                                             .bucketName(String.format("website-%s", props.getEnv().getAccount()))
+                                             .bucketName(websiteBucketName(props.getEnv().getAccount()))
                                              .encryption(BucketEncryption.UNENCRYPTED)
                                              .websiteIndexDocument("index.html")
                                              .removalPolicy(RemovalPolicy.DESTROY)
@@ -55,25 +60,22 @@ public class WebBackendStack extends Stack {
 
         websiteBucket.grantRead(webOai);
 
-        AwsCustomResource lambdaParameter = AwsCustomResource.Builder.create(this, "LambdaParameter")
-                                                                     .policy(AwsCustomResourcePolicy.fromStatements(List.of(
-                                                                         PolicyStatement.Builder.create()
-                                                                                                .effect(Effect.ALLOW)
-                                                                                                .actions(List.of("ssm:GetParameter*"))
-                                                                                                .resources(List.of(formatArn(ArnComponents.builder()
-                                                                                                                                          .service("ssm")
-                                                                                                                                          .region("us-east-1")
-                                                                                                                                          .resource("parameter/blog/lambdaEdgeLambdaVersion")
-                                                                                                                                          .build())))
-                                                                                                .build())))
-                                                                     .onUpdate(AwsSdkCall.builder()
-                                                                                         .service("SSM")
-                                                                                         .action("getParameter")
-                                                                                         .parameters(Map.of("Name", "/blog/lambdaEdgeLambdaVersion"))
-                                                                                         .region("us-east-1")
-                                                                                         .physicalResourceId(PhysicalResourceId.of(new Date().toString()))
-                                                                                         .build())
-                                                                     .build();
+        // only looked up again, and the distribution only updated, when the edge function has changed
+        IVersion edgeLambdaVersion = new EdgeLambdaVersionLookup(this, "EdgeLambdaVersionLookup",
+                                                                 LambdaEdgeCloudFrontRewriteStack.VERSION_PARAMETER_NAME,
+                                                                 "us-east-1",
+                                                                 LambdaEdgeCloudFrontRewriteStack.versionKey(stackConfig)).getVersion();
+
+        // one behavior per cache tier path pattern, matched in tier order; the default tier becomes the default behavior
+        List<Behavior> websiteBehaviors = new ArrayList<>();
+        for (CacheTier cacheTier : stackConfig.getCacheTiers()) {
+            if (cacheTier.isDefault()) {
+                websiteBehaviors.add(cacheTierBehavior(cacheTier, null, edgeLambdaVersion, stackConfig.getEdgeRewriteEventType()));
+            }
+            for (String pathPattern : cacheTier.getPathPatterns()) {
+                websiteBehaviors.add(cacheTierBehavior(cacheTier, pathPattern, edgeLambdaVersion, stackConfig.getEdgeRewriteEventType()));
+            }
+        }
 
         CloudFrontWebDistribution cloudFrontWebDistribution = CloudFrontWebDistribution.Builder.create(this, "CloudFrontWebDistribution")
                                                                                                .comment(String.format("CloudFront distribution for %s", stackConfig.getDomainName()))
@@ -81,48 +83,35 @@ public class WebBackendStack extends Stack {
                                                                                                                                                                                                    .aliases(List.of(stackConfig.getDomainName()))
                                                                                                                                                                                                    .build()))
                                                                                                .originConfigs(List.of(SourceConfiguration.builder()
-                                                                                                                                         .behaviors(List.of(Behavior.builder()
-                                                                                                                                                                    .isDefaultBehavior(true)
-                                                                                                                                                                    .defaultTtl(Duration.minutes(5))
-                                                                                                                                                                    .maxTtl(Duration.minutes(5))
-                                                                                                                                                                    .lambdaFunctionAssociations(List.of(
-                                                                                                                                                                        LambdaFunctionAssociation.builder()
-                                                                                                                                                                                                 .eventType(LambdaEdgeEventType.VIEWER_REQUEST)
-                                                                                                                                                                                                 .lambdaFunction(Version.fromVersionArn(this, "EdgeLambdaVersion", lambdaParameter.getResponseField("Parameter.Value")))
-                                                                                                                                                                                                 .build()
-                                                                                                                                                                    ))
-                                                                                                                                                                    .build()))
+                                                                                                                                         .behaviors(websiteBehaviors)
                                                                                                                                          .s3OriginSource(S3OriginConfig.builder()
                                                                                                                                                                        .originAccessIdentity(webOai)
                                                                                                                                                                        .s3BucketSource(websiteBucket)
                                                                                                                                                                        .build())
+                                                                                                                                         .build(),
+                                                                                                                      // the stage is named api, so /api/... maps straight onto it
+                                                                                                                      SourceConfiguration.builder()
+                                                                                                                                         .behaviors(List.of(Behavior.builder()
+                                                                                                                                                                    .pathPattern("api/*")
+                                                                                                                                                                    .allowedMethods(CloudFrontAllowedMethods.ALL)
+                                                                                                                                                                    .build()))
+                                                                                                                                         .customOriginSource(CustomOriginConfig.builder()
+                                                                                                                                                                               .domainName(apiOriginDomainName)
+                                                                                                                                                                               .build())
+                                                                                                                                         .originHeaders(apiOriginHeaders(stackConfig))
                                                                                                                                          .build()
-                                                                                                                      // commented out putrely so I don't have to pay someone deciding to hit my endpoint in a for loop...
-//                                                                                                   ,
-//                                                                                                                      SourceConfiguration.builder()
-//                                                                                                                                         .behaviors(List.of(Behavior.builder()
-//                                                                                                                                                                    .pathPattern("api/*")
-//                                                                                                                                                                    .allowedMethods(CloudFrontAllowedMethods.ALL)
-//                                                                                                                                                                    .build()))
-//                                                                                                                                         .customOriginSource(CustomOriginConfig.builder()
-//                                                                                                                                                                               .domainName(String.format("%s.execute-api.%s.amazonaws.com", helloWorldApi.getRestApi().getRestApiId(), stackConfig.getRegion()))
-//                                                                                                                                                                               .build())
-//                                                                                                                                         .build()
                                                                                                ))
                                                                                                .priceClass(PriceClass.PRICE_CLASS_100)
                                                                                                .viewerProtocolPolicy(ViewerProtocolPolicy.REDIRECT_TO_HTTPS)
-                                                                                               .errorConfigurations(List.of(CfnDistribution.CustomErrorResponseProperty.builder()
-                                                                                                                                                                       .errorCode(403)
-                                                                                                                                                                       .responseCode(200)
-                                                                                                                                                                       .responsePagePath("/index.html")
-                                                                                                                                                                       .build(),
-                                                                                                                            CfnDistribution.CustomErrorResponseProperty.builder()
-                                                                                                                                                                       .errorCode(404)
-                                                                                                                                                                       .responseCode(200)
-                                                                                                                                                                       .responsePagePath("/index.html")
-                                                                                                                                                                       .build()))
+                                                                                               // no error responses: they'd apply to every origin, rewriting the api's 403s and 404s too,
+                                                                                               // so the website's behaviors serve its 404 page from the edge function instead
                                                                                                .build();
 
+        CfnDistribution distribution = (CfnDistribution) cloudFrontWebDistribution.getNode().findChild("CFDistribution");
+        applyWebsiteCachePolicies(distribution, stackConfig.getCacheTiers());
+        // the api behavior comes after the website's path pattern behaviors, and its origin after the bucket
+        applyApiCachePolicy(distribution, websiteBehaviors.size() - 1, 1, stackConfig.getApiCachePolicy());
+
         HttpsRedirect webHttpsRedirect = HttpsRedirect.Builder.create(this, "WebHttpsRedirect")
                                                               .certificate(websiteCertificate)
                                                               .recordNames(List.of(String.format("www.%s", stackConfig.getDomainName())))
@@ -139,5 +128,150 @@ public class WebBackendStack extends Stack {
 
     }
 
+    /**
+     * @return the name of the website bucket, which the edge function reads the 404 page from
+     */
+    public static String websiteBucketName(String account) {
+        return String.format("website-%s", account);
+    }
+
+    // lets the api tell requests from CloudFront, whose viewer address headers it can trust, from direct calls
+    private static Map<String, String> apiOriginHeaders(WebBackendStackConfig stackConfig) {
+        return stackConfig.getApiOriginSecret() == null ? null : Map.of(HelloWorldApi.ORIGIN_SECRET_HEADER, stackConfig.getApiOriginSecret());
+    }
+
+    // the TTLs are the cache policy's (see applyWebsiteCachePolicies)
+    private static Behavior cacheTierBehavior(CacheTier cacheTier, String pathPattern, IVersion edgeLambdaVersion, LambdaEdgeEventType edgeRewriteEventType) {
+        return Behavior.builder()
+                       .isDefaultBehavior(cacheTier.isDefault())
+                       .pathPattern(pathPattern)
+                       .compress(cacheTier.isCompress())
+                       .lambdaFunctionAssociations(edgeAssociations(cacheTier, edgeLambdaVersion, edgeRewriteEventType))
+                       .build();
+    }
+
+    /**
+     * A cache policy per cache tier, with the tier's TTLs and Accept-Encoding in the cache key: CloudFront normalizes
+     * the header to {@code br} and {@code gzip} and forwards it, so the edge function can fetch the matching
+     * precompressed variant, and each encoding is cached separately. Nothing else is in the key or forwarded to S3.
+     */
+    private void applyWebsiteCachePolicies(CfnDistribution distribution, List<CacheTier> cacheTiers) {
+        List<Object> pathPatterns = cacheBehaviors(distribution).stream()
+                                                                .map(behavior -> ((Map<?, ?>) behavior).get("pathPattern"))
+                                                                .collect(Collectors.toList());
+        for (CacheTier cacheTier : cacheTiers) {
+            CfnResource cachePolicy = CfnResource.Builder.create(this, String.format("%sCachePolicy", cacheTier.getName()))
+                                                         .type("AWS::CloudFront::CachePolicy")
+                                                         .properties(Map.of("CachePolicyConfig", Map.of(
+                                                             "Name", String.format("%s-%s", getStackName(), cacheTier.getName()),
+                                                             "Comment", String.format("Cache key for the %s tier: the path and the viewer's encoding", cacheTier.getName()),
+                                                             "MinTTL", cacheTier.getMinTtl().toSeconds(),
+                                                             "DefaultTTL", cacheTier.getDefaultTtl().toSeconds(),
+                                                             "MaxTTL", cacheTier.getMaxTtl().toSeconds(),
+                                                             "ParametersInCacheKeyAndForwardedToOrigin", Map.of(
+                                                                 "EnableAcceptEncodingGzip", true,
+                                                                 "EnableAcceptEncodingBrotli", true,
+                                                                 "QueryStringsConfig", Map.of("QueryStringBehavior", "none"),
+                                                                 "HeadersConfig", Map.of("HeaderBehavior", "none"),
+                                                                 "CookiesConfig", Map.of("CookieBehavior", "none")))))
+                                                         .build();
+
+            if (cacheTier.isDefault()) {
+                useCachePolicy(distribution, "DistributionConfig.DefaultCacheBehavior", cachePolicy);
+            }
+            for (String pathPattern : cacheTier.getPathPatterns()) {
+                int behaviorIndex = pathPatterns.indexOf(pathPattern);
+                if (behaviorIndex < 0) {
+                    throw new IllegalStateException(String.format("No behavior for %s", pathPattern));
+                }
+                useCachePolicy(distribution, String.format("DistributionConfig.CacheBehaviors.%d", behaviorIndex), cachePolicy);
+            }
+        }
+    }
+
+    /**
+     * Cache and origin request policies for the api behavior. CDK 1.60's {@code CloudFrontWebDistribution} only knows
+     * the legacy forwarded values settings, so the policies are raw resources and the behavior and origin are
+     * overridden on the distribution's template.
+     */
+    private void applyApiCachePolicy(CfnDistribution distribution, int behaviorIndex, int originIndex, ApiCachePolicy apiCachePolicy) {
+        CfnResource cachePolicy = CfnResource.Builder.create(this, "ApiCachePolicy")
+                                                     .type("AWS::CloudFront::CachePolicy")
+                                                     .properties(Map.of("CachePolicyConfig", Map.of(
+                                                         "Name", String.format("%s-api", getStackName()),
+                                                         "Comment", "Cache key for api/*: listed query strings and headers only, TTLs from the api's Cache-Control",
+                                                         "MinTTL", apiCachePolicy.getMinTtl().toSeconds(),
+                                                         "DefaultTTL", apiCachePolicy.getDefaultTtl().toSeconds(),
+                                                         "MaxTTL", apiCachePolicy.getMaxTtl().toSeconds(),
+                                                         "ParametersInCacheKeyAndForwardedToOrigin", Map.of(
+                                                             "EnableAcceptEncodingGzip", true,
+                                                             "QueryStringsConfig", policyValues("QueryString", apiCachePolicy.getCacheKeyQueryStrings()),
+                                                             "HeadersConfig", policyValues("Header", apiCachePolicy.getCacheKeyHeaders()),
+                                                             "CookiesConfig", Map.of("CookieBehavior", "none")))))
+                                                     .build();
+
+        CfnResource originRequestPolicy = CfnResource.Builder.create(this, "ApiOriginRequestPolicy")
+                                                             .type("AWS::CloudFront::OriginRequestPolicy")
+                                                             .properties(Map.of("OriginRequestPolicyConfig", Map.of(
+                                                                 "Name", String.format("%s-api", getStackName()),
+                                                                 "Comment", "Forwarded to the api/* origin on top of the cache key",
+                                                                 "QueryStringsConfig", Map.of("QueryStringBehavior", "none"),
+                                                                 "HeadersConfig", policyValues("Header", apiCachePolicy.getForwardedHeaders()),
+                                                                 "CookiesConfig", Map.of("CookieBehavior", "none"))))
+                                                             .build();
+
+        // overrides are by position, so make sure it's the right one
+        Map<?, ?> apiBehavior = (Map<?, ?>) cacheBehaviors(distribution).get(behaviorIndex);
+        if (!"api/*".equals(apiBehavior.get("pathPattern"))) {
+            throw new IllegalStateException(String.format("Expected the api/* behavior at %d, found %s", behaviorIndex, apiBehavior.get("pathPattern")));
+        }
+
+        String behavior = String.format("DistributionConfig.CacheBehaviors.%d", behaviorIndex);
+        useCachePolicy(distribution, behavior, cachePolicy);
+        distribution.addPropertyOverride(behavior + ".OriginRequestPolicyId", originRequestPolicy.getRef());
+
+        if (apiCachePolicy.isOriginShield()) {
+            distribution.addPropertyOverride(String.format("DistributionConfig.Origins.%d.OriginShield", originIndex), Map.of("Enabled", true,
+                                                                                                                            "OriginShieldRegion", apiCachePolicy.getOriginShieldRegion()));
+        }
+    }
+
+    private List<?> cacheBehaviors(CfnDistribution distribution) {
+        return (List<?>) ((Map<?, ?>) resolve(distribution.getDistributionConfig())).get("cacheBehaviors");
+    }
+
+    private static void useCachePolicy(CfnDistribution distribution, String behavior, CfnResource cachePolicy) {
+        distribution.addPropertyOverride(behavior + ".CachePolicyId", cachePolicy.getRef());
+        // not allowed alongside a cache policy
+        for (String legacySetting : List.of("ForwardedValues", "MinTTL", "DefaultTTL", "MaxTTL")) {
+            distribution.addPropertyDeletionOverride(String.format("%s.%s", behavior, legacySetting));
+        }
+    }
 
-}
\ No newline at end of file
+    private static List<LambdaFunctionAssociation> edgeAssociations(CacheTier cacheTier, IVersion edgeLambdaVersion, LambdaEdgeEventType edgeRewriteEventType) {
+        List<LambdaFunctionAssociation> associations = new ArrayList<>();
+        if (cacheTier.isDirectoryIndexRewrite() && edgeRewriteEventType != LambdaEdgeEventType.ORIGIN_REQUEST) {
+            associations.add(LambdaFunctionAssociation.builder()
+                                                      .eventType(edgeRewriteEventType)
+                                                      .lambdaFunction(edgeLambdaVersion)
+                                                      .build());
+        }
+        // every tier's misses pick their precompressed variant, and the index rewrite runs there unless moved to
+        // viewer requests; on a path without a trailing slash it changes nothing
+        associations.add(LambdaFunctionAssociation.builder()
+                                                  .eventType(LambdaEdgeEventType.ORIGIN_REQUEST)
+                                                  .lambdaFunction(edgeLambdaVersion)
+                                                  .build());
+        // S3's 403s and 404s replaced by the site's 404 page
+        associations.add(LambdaFunctionAssociation.builder()
+                                                  .eventType(LambdaEdgeEventType.ORIGIN_RESPONSE)
+                                                  .lambdaFunction(edgeLambdaVersion)
+                                                  .build());
+        return associations;
+    }
+
+    // {"<Kind>Behavior": "whitelist", "<Kind>s": [...]}, or "none" when there aren't any
+    private static Map<String, Object> policyValues(String kind, List<String> values) {
+        return values.isEmpty() ? Map.of(kind + "Behavior", "none") : Map.of(kind + "Behavior", "whitelist", kind + "s", values);
+    }
+}
@@ -1,6 +1,12 @@
 package org.johntipper.blog.aws.cdk.webapp;
 
 import org.apache.commons.cli.CommandLine;
+import software.amazon.awscdk.services.cloudfront.LambdaEdgeEventType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 
 public class WebBackendStackConfig {
 
@@ -8,8 +14,15 @@ public class WebBackendStackConfig {
     public static final String WEB_ASSETS_KEY = "webAssets";
     public static final String TARGET_ACCOUNT_KEY = "targetAccount";
     public static final String REGION_KEY = "region";
+    public static final String API_REGIONS_KEY = "apiRegions";
     public static final String DOMAIN_NAME_KEY = "domainName";
     public static final String LAMBDA_EDGE_LAMBDA_PATH_KEY = "lambdaEdge";
+    public static final String API_NATIVE_LAMBDA_PATH_KEY = "apiNativeLambdaPath";
+    public static final String API_STREAMING_HANDLER_KEY = "apiStreamingHandler";
+    public static final String API_HTTP_API_KEY = "apiHttpApi";
+    public static final String EDGE_REWRITE_EVENT_KEY = "edgeRewriteEvent";
+    public static final String API_ORIGIN_SHIELD_REGION_KEY = "apiOriginShieldRegion";
+    public static final String API_ORIGIN_SECRET_KEY = "apiOriginSecret";
 
     private final String domainName;
 
@@ -22,13 +35,55 @@ public class WebBackendStackConfig {
 
     private final String region;
 
+    // regions the api is deployed to, behind latency records; the first is the region above, which keeps the views table
+    private final List<String> apiRegions;
+
+    // optional: when set, the api lambda is deployed as a native-image custom runtime instead of on the JVM
+    private final String apiNativeLambdaPath;
+
+    // use the RequestStreamHandler variant of the api handlers rather than having the runtime bind the full event
+    private final boolean apiStreamingHandler;
+
+    // deploy api.yaml as an HTTP API (payload v2) rather than a REST API: cheaper, with less added latency
+    private final boolean apiHttpApi;
+
+    private final List<CacheTier> cacheTiers;
 
-    public WebBackendStackConfig(String domainName, String apiLambdaPath, String targetAccount, String region, String lambdaEdgeLambdaPath) {
+    // where the index.html rewrite runs: at origin-request it only runs on cache misses and its result is cached
+    private final LambdaEdgeEventType edgeRewriteEventType;
+
+    private final ApiCachePolicy apiCachePolicy;
+
+    // optional: sent by CloudFront to the api, which only believes the viewer address headers on requests carrying it
+    private final String apiOriginSecret;
+
+    public WebBackendStackConfig(String domainName, String apiLambdaPath, String targetAccount, String region, List<String> apiRegions, String lambdaEdgeLambdaPath, String apiNativeLambdaPath, boolean apiStreamingHandler, boolean apiHttpApi, List<CacheTier> cacheTiers, LambdaEdgeEventType edgeRewriteEventType, ApiCachePolicy apiCachePolicy, String apiOriginSecret) {
         this.domainName = domainName;
         this.apiLambdaPath = apiLambdaPath;
         this.targetAccount = targetAccount;
         this.region = region;
+        this.apiRegions = List.copyOf(apiRegions);
         this.lambdaEdgeLambdaPath = lambdaEdgeLambdaPath;
+        this.apiNativeLambdaPath = apiNativeLambdaPath;
+        this.apiStreamingHandler = apiStreamingHandler;
+        this.apiHttpApi = apiHttpApi;
+        this.cacheTiers = List.copyOf(cacheTiers);
+        this.edgeRewriteEventType = edgeRewriteEventType;
+        this.apiCachePolicy = apiCachePolicy;
+        this.apiOriginSecret = apiOriginSecret;
+        if (apiStreamingHandler && apiHttpApi) {
+            throw new IllegalArgumentException("The streaming api handler only reads REST API (payload v1) events");
+        }
+        if (apiRegions.isEmpty() || !apiRegions.get(0).equals(region) || new HashSet<>(apiRegions).size() != apiRegions.size()) {
+            throw new IllegalArgumentException(String.format("The api regions must start with %s and not repeat, not %s", region, apiRegions));
+        }
+        if (apiRegions.size() > 1 && apiCachePolicy.isOriginShield()) {
+            // every edge's misses would go through the shield's region, so its latency record would pick the same api each time
+            throw new IllegalArgumentException("An origin shield defeats the latency routing between api regions");
+        }
+        if (cacheTiers.stream().filter(CacheTier::isDefault).count() != 1) {
+            throw new IllegalArgumentException("Exactly one cache tier must be the default (have no path patterns)");
+        }
     }
 
     public String getDomainName() {
@@ -47,11 +102,80 @@ public class WebBackendStackConfig {
         return region;
     }
 
+    public List<String> getApiRegions() {
+        return apiRegions;
+    }
+
+    public boolean isMultiRegionApi() {
+        return apiRegions.size() > 1;
+    }
+
+    /**
+     * @return the name of the latency records in front of the regional apis, only used when there's more than one
+     */
+    public String getApiDomainName() {
+        return String.format("api.%s", domainName);
+    }
+
     public String getLambdaEdgeLambdaPath() {
         return lambdaEdgeLambdaPath;
     }
 
+    public String getApiNativeLambdaPath() {
+        return apiNativeLambdaPath;
+    }
+
+    public boolean isApiNativeRuntime() {
+        return apiNativeLambdaPath != null;
+    }
+
+    public boolean isApiStreamingHandler() {
+        return apiStreamingHandler;
+    }
+
+    public boolean isApiHttpApi() {
+        return apiHttpApi;
+    }
+
+    public List<CacheTier> getCacheTiers() {
+        return cacheTiers;
+    }
+
+    public LambdaEdgeEventType getEdgeRewriteEventType() {
+        return edgeRewriteEventType;
+    }
+
+    public ApiCachePolicy getApiCachePolicy() {
+        return apiCachePolicy;
+    }
+
+    public String getApiOriginSecret() {
+        return apiOriginSecret;
+    }
+
     public static WebBackendStackConfig fromCommandLine(CommandLine cmd) {
-        return new WebBackendStackConfig(cmd.getOptionValue(DOMAIN_NAME_KEY), cmd.getOptionValue(API_LAMBDA_PATH_KEY), cmd.getOptionValue(TARGET_ACCOUNT_KEY), cmd.getOptionValue(REGION_KEY), cmd.getOptionValue(LAMBDA_EDGE_LAMBDA_PATH_KEY));
+        return new WebBackendStackConfig(cmd.getOptionValue(DOMAIN_NAME_KEY), cmd.getOptionValue(API_LAMBDA_PATH_KEY), cmd.getOptionValue(TARGET_ACCOUNT_KEY), cmd.getOptionValue(REGION_KEY), parseApiRegions(cmd.getOptionValue(REGION_KEY), cmd.getOptionValue(API_REGIONS_KEY)), cmd.getOptionValue(LAMBDA_EDGE_LAMBDA_PATH_KEY), cmd.getOptionValue(API_NATIVE_LAMBDA_PATH_KEY), cmd.hasOption(API_STREAMING_HANDLER_KEY), cmd.hasOption(API_HTTP_API_KEY), CacheTier.gatsbyDefaults(), parseEdgeEventType(cmd.getOptionValue(EDGE_REWRITE_EVENT_KEY, "origin-request")), ApiCachePolicy.apiDefaults(cmd.getOptionValue(API_ORIGIN_SHIELD_REGION_KEY)), cmd.getOptionValue(API_ORIGIN_SECRET_KEY));
+    }
+
+    // the main region, then any others given as a comma separated list
+    static List<String> parseApiRegions(String region, String otherRegions) {
+        List<String> apiRegions = new ArrayList<>(List.of(region));
+        if (otherRegions != null) {
+            for (String otherRegion : otherRegions.split(",")) {
+                if (!otherRegion.isBlank() && !otherRegion.trim().equals(region)) {
+                    apiRegions.add(otherRegion.trim());
+                }
+            }
+        }
+        return apiRegions;
+    }
+
+    static LambdaEdgeEventType parseEdgeEventType(String eventType) {
+        // viewer-request -> VIEWER_REQUEST etc.
+        LambdaEdgeEventType parsed = LambdaEdgeEventType.valueOf(eventType.toUpperCase(Locale.ROOT).replace('-', '_'));
+        if (parsed != LambdaEdgeEventType.VIEWER_REQUEST && parsed != LambdaEdgeEventType.ORIGIN_REQUEST) {
+            throw new IllegalArgumentException(String.format("The index rewrite must run on a request event, not %s", eventType));
+        }
+        return parsed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package org.johntipper.blog.web;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+/**
+ * One packaged web asset: its S3 key, the hash of the bytes stored under it, and the metadata it must be uploaded with.
+ * A precompressed variant is an entry of its own, under its identity object's key plus {@code .br} or {@code .gz}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AssetEntry {
+
+    // the suffix a variant's key adds to its identity object's key, by Content-Encoding
+    static final Map<String, String> VARIANT_SUFFIXES = Map.of("br", ".br", "gzip", ".gz");
+
+    private final String key;
+
+    private final String hash;
+
+    private final long size;
+
+    private final String contentType;
+
+    private final String contentEncoding;
+
+    private final String cacheControl;
+
+    @JsonCreator
+    public AssetEntry(@JsonProperty("key") String key,
+                      @JsonProperty("hash") String hash,
+                      @JsonProperty("size") long size,
+                      @JsonProperty("contentType") String contentType,
+                      @JsonProperty("contentEncoding") String contentEncoding,
+                      @JsonProperty("cacheControl") String cacheControl) {
+        this.key = key;
+        this.hash = hash;
+        this.size = size;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.cacheControl = cacheControl;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * @return the key of the object this is a precompressed variant of, or its own key if it's stored as is
+     */
+    @JsonIgnore
+    public String getIdentityKey() {
+        String suffix = contentEncoding == null ? null : VARIANT_SUFFIXES.get(contentEncoding);
+        return suffix != null && key.endsWith(suffix) ? key.substring(0, key.length() - suffix.length()) : key;
+    }
+
+    @JsonIgnore
+    public boolean isVariant() {
+        return !getIdentityKey().equals(key);
+    }
+}
@@ -0,0 +1,100 @@
+package org.johntipper.blog.web;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Content-hash manifest of a packaged web asset tree, keyed on S3 key. A copy is stored alongside the assets in the
+ * bucket so the next deploy can tell which objects actually changed.
+ */
+public class AssetManifest {
+
+    public static final String MANIFEST_KEY = ".asset-manifest.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final SortedMap<String, AssetEntry> entries;
+
+    public AssetManifest(Collection<AssetEntry> entries) {
+        this.entries = new TreeMap<>();
+        entries.forEach(entry -> this.entries.put(entry.getKey(), entry));
+    }
+
+    @JsonCreator
+    static AssetManifest fromEntries(@JsonProperty("entries") List<AssetEntry> entries) {
+        return new AssetManifest(entries == null ? List.of() : entries);
+    }
+
+    public static AssetManifest empty() {
+        return new AssetManifest(List.of());
+    }
+
+    public static AssetManifest read(Path path) throws IOException {
+        return MAPPER.readValue(path.toFile(), AssetManifest.class);
+    }
+
+    public static AssetManifest read(InputStream in) throws IOException {
+        return MAPPER.readValue(in, AssetManifest.class);
+    }
+
+    public void write(Path path) throws IOException {
+        MAPPER.writeValue(path.toFile(), this);
+    }
+
+    public byte[] toBytes() throws IOException {
+        return MAPPER.writeValueAsBytes(this);
+    }
+
+    @JsonValue
+    Map<String, Object> toJson() {
+        return Map.of("entries", entries.values());
+    }
+
+    public AssetEntry get(String key) {
+        return entries.get(key);
+    }
+
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public Collection<AssetEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * True if the object under {@code key} in this manifest differs from (or is absent in) {@code previous}.
+     */
+    public boolean changedSince(AssetManifest previous, String key) {
+        AssetEntry current = entries.get(key);
+        AssetEntry before = previous.get(key);
+        return before == null
+            || !before.getHash().equals(current.getHash())
+            || !Objects.equals(before.getContentEncoding(), current.getContentEncoding())
+            || !Objects.equals(before.getCacheControl(), current.getCacheControl());
+    }
+
+    public long totalSize() {
+        return entries.values().stream().mapToLong(AssetEntry::getSize).sum();
+    }
+
+    /**
+     * Bytes the {@code contentEncoding} variants save over their identity objects: what a viewer fetching every
+     * precompressed object in that encoding doesn't download.
+     */
+    public long bytesSavedBy(String contentEncoding) {
+        return entries.values()
+                      .stream()
+                      .filter(entry -> entry.isVariant() && contentEncoding.equals(entry.getContentEncoding()))
+                      .mapToLong(entry -> entries.get(entry.getIdentityKey()).getSize() - entry.getSize())
+                      .sum();
+    }
+}
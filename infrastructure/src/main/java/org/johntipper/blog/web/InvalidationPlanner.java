@@ -0,0 +1,224 @@
+package org.johntipper.blog.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Works out which CloudFront paths need invalidating after a deploy by diffing the previous and new
+ * {@link AssetManifest}s. Only objects that were changed or removed can be stale at the edge (added objects were never
+ * cached), and where most of a directory is stale its paths are collapsed into a single {@code /dir/*} wildcard, since
+ * CloudFront charges per path, wildcard or not. Precompressed variants are cached under the path of the object they
+ * encode, so they're invalidated with it. Without a previous manifest (the first deploy to a bucket, or one lost)
+ * nothing is known about what the edges hold, so everything is invalidated.
+ */
+public class InvalidationPlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationPlanner.class);
+
+    public static final String PREVIOUS_KEY = "previous";
+    public static final String CURRENT_KEY = "current";
+    public static final String OUTPUT_KEY = "output";
+    public static final String MAX_COLLATERAL_KEY = "maxCollateral";
+
+    // CloudFront accepts at most 3000 paths per invalidation batch
+    public static final int MAX_BATCH_PATHS = 3000;
+
+    // ...and at most 15 wildcard paths in progress at a time
+    public static final int MAX_WILDCARD_PATHS = 15;
+
+    private static final String INDEX_DOCUMENT = "index.html";
+
+    private final double maxCollateralRatio;
+
+    private final int maxPaths;
+
+    /**
+     * @param maxCollateralRatio the largest fraction of still-valid cached objects under a prefix that may be
+     *                           invalidated along with the stale ones to collapse it into a wildcard
+     * @param maxPaths           beyond this many paths, the whole distribution is invalidated instead
+     */
+    public InvalidationPlanner(double maxCollateralRatio, int maxPaths) {
+        this.maxCollateralRatio = maxCollateralRatio;
+        this.maxPaths = maxPaths;
+    }
+
+    public List<String> plan(AssetManifest previous, AssetManifest current) {
+        // CI passes an empty manifest when the bucket has none
+        if (previous.keys().isEmpty()) {
+            return List.of("/*");
+        }
+
+        Directory root = new Directory("");
+        for (AssetEntry entry : previous.entries()) {
+            // a variant is cached under its identity object's path, and changes whenever that object does
+            if (entry.isVariant()) {
+                continue;
+            }
+            String key = entry.getKey();
+            boolean stale = current.get(key) == null || current.changedSince(previous, key);
+            root.add(key, 0, stale);
+        }
+
+        if (root.staleCount == 0) {
+            return List.of();
+        }
+
+        List<String> paths = root.plan();
+        long wildcards = paths.stream().filter(path -> path.endsWith("*")).count();
+        return paths.size() > maxPaths || wildcards > MAX_WILDCARD_PATHS ? List.of("/*") : paths;
+    }
+
+    private class Directory {
+
+        private final String prefix;
+
+        private final SortedMap<String, Directory> children = new TreeMap<>();
+
+        private final List<String> staleFiles = new ArrayList<>();
+
+        private int totalCount;
+
+        private int staleCount;
+
+        private Directory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        private void add(String key, int offset, boolean stale) {
+            totalCount++;
+            if (stale) {
+                staleCount++;
+            }
+
+            int slash = key.indexOf('/', offset);
+            if (slash < 0) {
+                if (stale) {
+                    staleFiles.add(key);
+                }
+                return;
+            }
+
+            children.computeIfAbsent(key.substring(offset, slash), name -> new Directory(key.substring(0, slash + 1)))
+                    .add(key, slash + 1, stale);
+        }
+
+        private List<String> plan() {
+            List<String> explicit = new ArrayList<>();
+            for (Directory child : children.values()) {
+                if (child.staleCount > 0) {
+                    explicit.addAll(child.plan());
+                }
+            }
+            for (String key : staleFiles) {
+                explicit.addAll(pathsFor(key));
+            }
+
+            double collateral = (totalCount - staleCount) / (double) totalCount;
+            if (explicit.size() > 1 && collateral <= maxCollateralRatio) {
+                return List.of(String.format("/%s*", encode(prefix)));
+            }
+            return explicit;
+        }
+    }
+
+    static List<String> pathsFor(String key) {
+        String path = String.format("/%s", encode(key));
+        if (key.equals(INDEX_DOCUMENT) || key.endsWith("/" + INDEX_DOCUMENT)) {
+            // directory requests are cached under the directory path as well as the index document
+            return List.of(path, path.substring(0, path.length() - INDEX_DOCUMENT.length()));
+        }
+        return List.of(path);
+    }
+
+    static String encode(String key) {
+        // invalidation paths must be URL-encoded, and Gatsby slugs happily contain spaces and en dashes
+        StringBuilder encoded = new StringBuilder(key.length());
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-._~/".indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%')
+                       .append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)))
+                       .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    public static Map<String, Object> toInvalidationBatch(List<String> paths, String callerReference) {
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("Paths", Map.of("Quantity", paths.size(), "Items", paths));
+        batch.put("CallerReference", callerReference);
+        return batch;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        options.addOption(Option.builder(PREVIOUS_KEY)
+                                .argName(PREVIOUS_KEY)
+                                .desc("Asset manifest of the currently deployed site.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(CURRENT_KEY)
+                                .argName(CURRENT_KEY)
+                                .desc("Asset manifest of the site being deployed.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(OUTPUT_KEY)
+                                .argName(OUTPUT_KEY)
+                                .desc("File to write the invalidation batch to. Not written if nothing needs invalidating.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(MAX_COLLATERAL_KEY)
+                                .argName(MAX_COLLATERAL_KEY)
+                                .desc("Largest fraction of unchanged objects under a prefix that may be invalidated to collapse it into a wildcard (default 0.25).")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            AssetManifest previous = AssetManifest.read(Paths.get(cmd.getOptionValue(PREVIOUS_KEY)));
+            AssetManifest current = AssetManifest.read(Paths.get(cmd.getOptionValue(CURRENT_KEY)));
+
+            List<String> paths = new InvalidationPlanner(Double.parseDouble(cmd.getOptionValue(MAX_COLLATERAL_KEY, "0.25")), MAX_BATCH_PATHS).plan(previous, current);
+
+            if (paths.isEmpty()) {
+                LOG.info("No changed or removed assets, nothing to invalidate");
+                return;
+            }
+
+            LOG.info("Invalidating {} paths: {}", paths.size(), paths.stream().limit(20).collect(Collectors.joining(", ")));
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                              .writeValue(new File(cmd.getOptionValue(OUTPUT_KEY)), toInvalidationBatch(paths, String.format("deploy-%d", System.currentTimeMillis())));
+
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(120, "java -cp /path/to/jar org.johntipper.blog.web.InvalidationPlanner ARGS", "Args:", options, "", false);
+            System.exit(1);
+
+        } catch (Exception e) {
+            LOG.error("Error when planning invalidation: {}", e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+}
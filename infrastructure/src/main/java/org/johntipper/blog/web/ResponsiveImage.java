@@ -0,0 +1,119 @@
+package org.johntipper.blog.web;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One source image in the responsive image manifest: the hash of the original and the settings its variants were
+ * generated with (together, what decides whether the next build can reuse them), and the variants with a ready-made
+ * {@code srcset}.
+ */
+public class ResponsiveImage {
+
+    private final String key;
+
+    private final String hash;
+
+    private final String settings;
+
+    private final int width;
+
+    private final int height;
+
+    private final long size;
+
+    private final List<Variant> variants;
+
+    private final String srcset;
+
+    @JsonCreator
+    public ResponsiveImage(@JsonProperty("key") String key,
+                           @JsonProperty("hash") String hash,
+                           @JsonProperty("settings") String settings,
+                           @JsonProperty("width") int width,
+                           @JsonProperty("height") int height,
+                           @JsonProperty("size") long size,
+                           @JsonProperty("variants") List<Variant> variants,
+                           @JsonProperty("srcset") String srcset) {
+        this.key = key;
+        this.hash = hash;
+        this.settings = settings;
+        this.width = width;
+        this.height = height;
+        this.size = size;
+        this.variants = List.copyOf(variants);
+        this.srcset = srcset;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getSettings() {
+        return settings;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    public String getSrcset() {
+        return srcset;
+    }
+
+    public static class Variant {
+
+        private final String path;
+
+        private final int width;
+
+        private final int height;
+
+        private final long size;
+
+        @JsonCreator
+        public Variant(@JsonProperty("path") String path,
+                       @JsonProperty("width") int width,
+                       @JsonProperty("height") int height,
+                       @JsonProperty("size") long size) {
+            this.path = path;
+            this.width = width;
+            this.height = height;
+            this.size = size;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
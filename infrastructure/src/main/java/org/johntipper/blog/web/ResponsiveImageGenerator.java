@@ -0,0 +1,436 @@
+package org.johntipper.blog.web;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates resized, recompressed variants of the images under the web content directory (the multi-megabyte photos
+ * the posts embed), in parallel across cores, and writes a {@value #MANIFEST_FILE} listing them with a {@code srcset}
+ * per source image. The manifest doubles as the cache: an image whose content hash and settings match the previous
+ * run's entry, and whose variants are all still there, is skipped. Only the JDK's ImageIO is used, so it runs offline.
+ * <p>
+ * EXIF orientation isn't applied, so photos need to be stored upright.
+ */
+public class ResponsiveImageGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponsiveImageGenerator.class);
+
+    public static final String SOURCE_KEY = "source";
+    public static final String OUTPUT_KEY = "output";
+    public static final String WIDTHS_KEY = "widths";
+    public static final String QUALITY_KEY = "quality";
+    public static final String URL_PREFIX_KEY = "urlPrefix";
+    public static final String THREADS_KEY = "threads";
+    public static final String REPORT_KEY = "report";
+
+    public static final String MANIFEST_FILE = "responsive-images.json";
+
+    public static final List<Integer> DEFAULT_WIDTHS = List.of(480, 960, 1440, 1920);
+
+    public static final float DEFAULT_QUALITY = 0.8f;
+
+    // WebAssetPackager uploads the output directory under this prefix
+    public static final String DEFAULT_URL_PREFIX = "/" + WebAssetPackager.RESPONSIVE_IMAGES_PREFIX;
+
+    private static final Set<String> EXTENSIONS = Set.of("jpg", "jpeg", "png");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Path sourceDir;
+
+    private final Path outputDir;
+
+    private final List<Integer> widths;
+
+    private final float quality;
+
+    private final String urlPrefix;
+
+    private final String settings;
+
+    public ResponsiveImageGenerator(Path sourceDir, Path outputDir, List<Integer> widths, float quality, String urlPrefix) {
+        this.sourceDir = sourceDir;
+        this.outputDir = outputDir;
+        List<Integer> sortedWidths = new ArrayList<>(widths);
+        Collections.sort(sortedWidths);
+        this.widths = List.copyOf(sortedWidths);
+        this.quality = quality;
+        this.urlPrefix = urlPrefix;
+        this.settings = String.format("widths=%s;quality=%s;urlPrefix=%s", this.widths, quality, urlPrefix);
+    }
+
+    public Result generate(int threads) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+
+        Path manifestFile = outputDir.resolve(MANIFEST_FILE);
+        Map<String, ResponsiveImage> previous = Files.exists(manifestFile)
+            ? MAPPER.readValue(manifestFile.toFile(), new TypeReference<TreeMap<String, ResponsiveImage>>() { })
+            : Map.of();
+
+        List<Path> images;
+        try (Stream<Path> walk = Files.walk(sourceDir)) {
+            images = walk.filter(Files::isRegularFile)
+                         .filter(file -> EXTENSIONS.contains(extension(file.getFileName().toString())))
+                         .sorted()
+                         .collect(Collectors.toList());
+        }
+        checkForCollisions(images);
+
+        // one task per source image, so each is decoded once for all of its widths
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Processed> processed;
+        try {
+            processed = pool.submit(() -> images.parallelStream()
+                                                .map(image -> process(image, previous))
+                                                .collect(Collectors.toList()))
+                            .get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException ? ((UncheckedIOException) e.getCause()).getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        SortedMap<String, ResponsiveImage> manifest = new TreeMap<>();
+        processed.forEach(image -> manifest.put(image.image.getKey(), image.image));
+        deleteStaleVariants(previous, manifest);
+        Files.createDirectories(outputDir);
+        MAPPER.writeValue(manifestFile.toFile(), manifest);
+
+        return new Result(processed, (System.nanoTime() - startNanos) / 1_000_000, threads);
+    }
+
+    private Processed process(Path file, Map<String, ResponsiveImage> previous) {
+        try {
+            String key = WebAssetPackager.toKey(sourceDir.relativize(file));
+            byte[] content = Files.readAllBytes(file);
+            String hash = WebAssetPackager.sha256(content);
+
+            ResponsiveImage cached = previous.get(key);
+            if (cached != null && cached.getHash().equals(hash) && cached.getSettings().equals(settings)
+                && cached.getVariants().stream().allMatch(variant -> Files.exists(outputDir.resolve(variant.getPath())))) {
+                return new Processed(cached, true, 0);
+            }
+
+            long startNanos = System.nanoTime();
+            BufferedImage source = ImageIO.read(new ByteArrayInputStream(content));
+            if (source == null) {
+                throw new IOException(String.format("No ImageIO reader for %s", key));
+            }
+
+            String format = format(key);
+            List<ResponsiveImage.Variant> variants = new ArrayList<>();
+            for (int width : targetWidths(source.getWidth())) {
+                BufferedImage scaled = scale(source, width);
+                byte[] encoded = encode(scaled, format);
+
+                String path = variantPath(key, width);
+                Path target = outputDir.resolve(path);
+                Files.createDirectories(target.getParent());
+                Files.write(target, encoded);
+                variants.add(new ResponsiveImage.Variant(path, width, scaled.getHeight(), encoded.length));
+            }
+
+            String srcset = variants.stream()
+                                    .map(variant -> String.format("%s%s %dw", urlPrefix, variant.getPath(), variant.getWidth()))
+                                    .collect(Collectors.joining(", "));
+            ResponsiveImage image = new ResponsiveImage(key, hash, settings, source.getWidth(), source.getHeight(), content.length, variants, srcset);
+            return new Processed(image, false, (System.nanoTime() - startNanos) / 1_000_000);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The configured widths narrower than the image, plus the image's own width if it's narrower than the widest.
+     */
+    List<Integer> targetWidths(int sourceWidth) {
+        List<Integer> targets = widths.stream()
+                                      .filter(width -> width < sourceWidth)
+                                      .collect(Collectors.toList());
+        if (widths.isEmpty() || sourceWidth < widths.get(widths.size() - 1)) {
+            targets.add(sourceWidth);
+        }
+        return targets;
+    }
+
+    static BufferedImage scale(BufferedImage source, int targetWidth) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        // halving with bilinear filtering until close, then one bicubic step: a single large bilinear step aliases badly
+        BufferedImage current = source;
+        int width = source.getWidth();
+        do {
+            int nextWidth = Math.max(targetWidth, width / 2);
+            int nextHeight = Math.max(1, (int) Math.round((double) source.getHeight() * nextWidth / source.getWidth()));
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, nextWidth == targetWidth
+                    ? RenderingHints.VALUE_INTERPOLATION_BICUBIC
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+            width = nextWidth;
+        } while (width > targetWidth);
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (format.equals("png")) {
+            ImageIO.write(image, format, out);
+            return out.toByteArray();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            // renders coarse-to-fine as it downloads
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private void deleteStaleVariants(Map<String, ResponsiveImage> previous, Map<String, ResponsiveImage> current) throws IOException {
+        Set<String> kept = current.values()
+                                  .stream()
+                                  .flatMap(image -> image.getVariants().stream())
+                                  .map(ResponsiveImage.Variant::getPath)
+                                  .collect(Collectors.toSet());
+        for (ResponsiveImage image : previous.values()) {
+            for (ResponsiveImage.Variant variant : image.getVariants()) {
+                if (!kept.contains(variant.getPath())) {
+                    Files.deleteIfExists(outputDir.resolve(variant.getPath()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails if two source images would be written to the same variant paths, as "a.jpg" and "a.jpeg" or "NZ 046.jpeg"
+     * and "nz-046.jpg" would: one would silently overwrite the other's variants, and both srcsets would point at them.
+     */
+    private void checkForCollisions(List<Path> images) throws IOException {
+        Map<String, String> sourceByVariant = new HashMap<>();
+        for (Path image : images) {
+            String key = WebAssetPackager.toKey(sourceDir.relativize(image));
+            String variants = String.format("%s-<width>w.%s", stem(key), format(key));
+            String other = sourceByVariant.putIfAbsent(variants, key);
+            if (other != null) {
+                throw new IOException(String.format("%s and %s would both be resized to %s; rename one of them", other, key, variants));
+            }
+        }
+    }
+
+    static String variantPath(String key, int width) {
+        return String.format("%s-%dw.%s", stem(key), width, format(key));
+    }
+
+    private static String format(String key) {
+        return extension(key).equals("png") ? "png" : "jpg";
+    }
+
+    static String stem(String key) {
+        // ASCII, URL-friendly paths: "posts/2018-07-18-gradle–integration-testing/images/NZ 046.jpeg" becomes
+        // "posts/2018-07-18-gradle-integration-testing/images/nz-046"
+        int dot = key.lastIndexOf('.');
+        String withoutExtension = dot > key.lastIndexOf('/') ? key.substring(0, dot) : key;
+        StringJoiner stem = new StringJoiner("/");
+        for (String segment : withoutExtension.split("/")) {
+            stem.add(Normalizer.normalize(segment, Normalizer.Form.NFD)
+                               .toLowerCase(Locale.ROOT)
+                               .replaceAll("\\p{M}", "")
+                               .replaceAll("[^a-z0-9_.-]+", "-")
+                               .replaceAll("-{2,}", "-"));
+        }
+        return stem.toString();
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static class Processed {
+
+        private final ResponsiveImage image;
+
+        private final boolean cached;
+
+        private final long millis;
+
+        private Processed(ResponsiveImage image, boolean cached, long millis) {
+            this.image = image;
+            this.cached = cached;
+            this.millis = millis;
+        }
+    }
+
+    public static class Result {
+
+        private final List<Processed> images;
+
+        private final long wallMillis;
+
+        private final int threads;
+
+        private Result(List<Processed> images, long wallMillis, int threads) {
+            this.images = images;
+            this.wallMillis = wallMillis;
+            this.threads = threads;
+        }
+
+        /**
+         * Savings are what a reader downloads instead of the original: the widest variant on a large screen, the
+         * narrowest on a phone.
+         */
+        public Map<String, Object> toReport() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("images", images.size());
+            report.put("generated", images.stream().filter(image -> !image.cached).count());
+            report.put("cached", images.stream().filter(image -> image.cached).count());
+            report.put("variants", images.stream().mapToInt(image -> image.image.getVariants().size()).sum());
+            report.put("threads", threads);
+            report.put("wallMillis", wallMillis);
+            report.put("imageMillis", images.stream().mapToLong(image -> image.millis).sum());
+            report.put("originalBytes", images.stream().mapToLong(image -> image.image.getSize()).sum());
+            report.put("widestVariantBytes", images.stream().mapToLong(image -> last(image.image.getVariants()).getSize()).sum());
+            report.put("narrowestVariantBytes", images.stream().mapToLong(image -> image.image.getVariants().get(0).getSize()).sum());
+            return report;
+        }
+
+        private static ResponsiveImage.Variant last(List<ResponsiveImage.Variant> variants) {
+            return variants.get(variants.size() - 1);
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Options options = new Options();
+
+        options.addOption(Option.builder(SOURCE_KEY)
+                                .argName(SOURCE_KEY)
+                                .desc("Directory to find images in, e.g. web/content.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(OUTPUT_KEY)
+                                .argName(OUTPUT_KEY)
+                                .desc("Directory to write the variants and manifest to; kept between builds as the cache.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(WIDTHS_KEY)
+                                .argName(WIDTHS_KEY)
+                                .desc(String.format("Comma-separated variant widths in pixels, default %s.", DEFAULT_WIDTHS))
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(QUALITY_KEY)
+                                .argName(QUALITY_KEY)
+                                .desc(String.format("JPEG quality between 0 and 1, default %s.", DEFAULT_QUALITY))
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(URL_PREFIX_KEY)
+                                .argName(URL_PREFIX_KEY)
+                                .desc(String.format("Prefix of the variant URLs in each srcset, default %s.", DEFAULT_URL_PREFIX))
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(THREADS_KEY)
+                                .argName(THREADS_KEY)
+                                .desc("Images to process at once, default the number of cores.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(REPORT_KEY)
+                                .argName(REPORT_KEY)
+                                .desc("File to write timings and byte savings to as JSON.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            List<Integer> widths = cmd.hasOption(WIDTHS_KEY)
+                ? Arrays.stream(cmd.getOptionValue(WIDTHS_KEY).split(",")).map(String::trim).map(Integer::valueOf).collect(Collectors.toList())
+                : DEFAULT_WIDTHS;
+            float quality = cmd.hasOption(QUALITY_KEY) ? Float.parseFloat(cmd.getOptionValue(QUALITY_KEY)) : DEFAULT_QUALITY;
+            int threads = cmd.hasOption(THREADS_KEY) ? Integer.parseInt(cmd.getOptionValue(THREADS_KEY)) : Runtime.getRuntime().availableProcessors();
+
+            ResponsiveImageGenerator generator = new ResponsiveImageGenerator(Paths.get(cmd.getOptionValue(SOURCE_KEY)),
+                                                                              Paths.get(cmd.getOptionValue(OUTPUT_KEY)),
+                                                                              widths,
+                                                                              quality,
+                                                                              cmd.getOptionValue(URL_PREFIX_KEY, DEFAULT_URL_PREFIX));
+            Map<String, Object> report = generator.generate(threads).toReport();
+
+            LOG.info("Responsive images: {} images ({} generated, {} cached), {} variants in {} ms on {} threads ({} ms of image work); {} original bytes -> {} widest / {} narrowest",
+                     report.get("images"), report.get("generated"), report.get("cached"), report.get("variants"), report.get("wallMillis"),
+                     report.get("threads"), report.get("imageMillis"), report.get("originalBytes"), report.get("widestVariantBytes"),
+                     report.get("narrowestVariantBytes"));
+
+            if (cmd.hasOption(REPORT_KEY)) {
+                Path reportFile = Paths.get(cmd.getOptionValue(REPORT_KEY));
+                Files.createDirectories(reportFile.toAbsolutePath().getParent());
+                MAPPER.writeValue(reportFile.toFile(), report);
+            }
+
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(120, "java -cp /path/to/jar org.johntipper.blog.web.ResponsiveImageGenerator ARGS", "Args:", options, "", false);
+            System.exit(1);
+
+        } catch (Exception e) {
+            LOG.error("Error when generating responsive images: {}", e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+}
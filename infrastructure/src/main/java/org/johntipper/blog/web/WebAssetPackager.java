@@ -0,0 +1,296 @@
+package org.johntipper.blog.web;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packages the Gatsby build output for upload: assets are hashed, copied and, if text, precompressed (in parallel, on a
+ * fork/join pool), and an {@link AssetManifest} of content hashes and upload metadata (including an immutable
+ * {@code Cache-Control} for content-hashed objects) is written next to them. Generated responsive images, if given, are
+ * packaged alongside under {@value #RESPONSIVE_IMAGES_PREFIX}.
+ * <p>
+ * Each {@link #PRECOMPRESSED} object is stored as is, and alongside it as {@code <key>.br} (brotli, quality 11) and
+ * {@code <key>.gz} (gzip, level 9) with the matching {@code Content-Encoding}. The Lambda@Edge function picks the
+ * variant on origin requests from the Accept-Encoding CloudFront has normalized into the cache key, so clients that send
+ * none (curl, crawlers, link unfurlers) still get the identity object. CloudFront's own compression, which trades
+ * ratio for speed, leaves objects stored with a {@code Content-Encoding} alone.
+ */
+public class WebAssetPackager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WebAssetPackager.class);
+
+    public static final String SOURCE_KEY = "source";
+    public static final String OUTPUT_KEY = "output";
+    public static final String IMAGES_KEY = "images";
+
+    // the URL prefix ResponsiveImageGenerator writes srcsets with
+    public static final String RESPONSIVE_IMAGES_PREFIX = "responsive/";
+
+    // files per fork/join leaf task
+    private static final int BATCH_SIZE = 8;
+
+    public static final String BROTLI = "br";
+    public static final String GZIP = "gzip";
+
+    // text formats, stored with a variant in each encoding; the edge function's PRECOMPRESSED must list the same ones,
+    // as it asks for a variant by extension alone
+    public static final Set<String> PRECOMPRESSED = Set.of("html", "css", "js", "json", "map", "webmanifest", "xml", "txt", "svg", "ico", "ttf");
+
+    // shared by every task: the encoder only reads it
+    private static final Encoder.Parameters BROTLI_PARAMETERS = new Encoder.Parameters().setQuality(11);
+
+    // for objects that never change under the same key, as CacheTier's immutable tier caches them
+    public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    // webpack's [name]-[contenthash].js and [name].[contenthash].css, with Gatsby's 20 character content hash
+    private static final Pattern CONTENT_HASHED = Pattern.compile("(.*/)?[^/]+(-[0-9a-f]{20}\\.js|\\.[0-9a-f]{20}\\.css)");
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+        Map.entry("html", "text/html; charset=utf-8"),
+        Map.entry("css", "text/css; charset=utf-8"),
+        Map.entry("js", "application/javascript; charset=utf-8"),
+        Map.entry("json", "application/json; charset=utf-8"),
+        Map.entry("map", "application/json; charset=utf-8"),
+        Map.entry("webmanifest", "application/manifest+json; charset=utf-8"),
+        Map.entry("xml", "application/xml; charset=utf-8"),
+        Map.entry("txt", "text/plain; charset=utf-8"),
+        Map.entry("svg", "image/svg+xml"),
+        Map.entry("ico", "image/x-icon"),
+        Map.entry("png", "image/png"),
+        Map.entry("jpg", "image/jpeg"),
+        Map.entry("jpeg", "image/jpeg"),
+        Map.entry("gif", "image/gif"),
+        Map.entry("webp", "image/webp"),
+        Map.entry("avif", "image/avif"),
+        Map.entry("woff", "font/woff"),
+        Map.entry("woff2", "font/woff2"),
+        Map.entry("ttf", "font/ttf"),
+        Map.entry("pdf", "application/pdf")
+    );
+
+    private final Path sourceDir;
+
+    private final Path imagesDir;
+
+    private final Path outputDir;
+
+    public WebAssetPackager(Path sourceDir, Path outputDir) {
+        this(sourceDir, null, outputDir);
+    }
+
+    /**
+     * @param imagesDir responsive image variants to package under {@value #RESPONSIVE_IMAGES_PREFIX}, or {@code null}
+     */
+    public WebAssetPackager(Path sourceDir, Path imagesDir, Path outputDir) {
+        this.sourceDir = sourceDir;
+        this.imagesDir = imagesDir;
+        this.outputDir = outputDir;
+    }
+
+    public AssetManifest packageAssets() throws IOException {
+        // the edge function asks for the variants whether or not they were written, so don't package without them
+        Brotli4jLoader.ensureAvailability();
+
+        List<Path> files = new ArrayList<>();
+        for (Path dir : imagesDir == null ? List.of(sourceDir) : List.of(sourceDir, imagesDir)) {
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.filter(Files::isRegularFile)
+                    .forEach(files::add);
+            }
+        }
+
+        List<AssetEntry> entries = ForkJoinPool.commonPool()
+                                               .invoke(new PackageTask(files, 0, files.size()));
+
+        AssetManifest manifest = new AssetManifest(entries);
+        if (manifest.keys().size() < entries.size()) {
+            // e.g. a source file named like another one's variant, which would overwrite it, or be overwritten
+            Set<String> keys = new HashSet<>();
+            throw new IOException(String.format("Packaged more than once: %s", entries.stream()
+                                                                                     .map(AssetEntry::getKey)
+                                                                                     .filter(key -> !keys.add(key))
+                                                                                     .collect(Collectors.joining(", "))));
+        }
+        manifest.write(outputDir.resolve(AssetManifest.MANIFEST_KEY));
+        return manifest;
+    }
+
+    private List<AssetEntry> packageFile(Path file) throws IOException {
+        String key = imagesDir != null && file.startsWith(imagesDir)
+            ? RESPONSIVE_IMAGES_PREFIX + toKey(imagesDir.relativize(file))
+            : toKey(sourceDir.relativize(file));
+        String extension = extension(key);
+        byte[] content = Files.readAllBytes(file);
+
+        String contentType = CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+        String cacheControl = isContentHashed(key) ? IMMUTABLE_CACHE_CONTROL : null;
+
+        AssetEntry identity = write(key, content, contentType, null, cacheControl);
+        if (!PRECOMPRESSED.contains(extension)) {
+            return List.of(identity);
+        }
+        // written however small the saving: the edge function can't tell which objects are worth it
+        return List.of(identity,
+                       write(key + AssetEntry.VARIANT_SUFFIXES.get(BROTLI), Encoder.compress(content, BROTLI_PARAMETERS), contentType, BROTLI, cacheControl),
+                       write(key + AssetEntry.VARIANT_SUFFIXES.get(GZIP), gzip(content), contentType, GZIP, cacheControl));
+    }
+
+    private AssetEntry write(String key, byte[] content, String contentType, String contentEncoding, String cacheControl) throws IOException {
+        Path target = outputDir.resolve(key);
+        Files.createDirectories(target.getParent());
+        Files.write(target, content);
+        return new AssetEntry(key, sha256(content), content.length, contentType, contentEncoding, cacheControl);
+    }
+
+    /**
+     * True for the objects Gatsby names by content hash, which are never changed under the same key: everything under
+     * {@code static/}, and the webpack bundles. Other objects get no {@code Cache-Control}, so CloudFront's tier TTLs
+     * decide how long they're kept, and browsers revalidate them.
+     */
+    public static boolean isContentHashed(String key) {
+        return key.startsWith("static/") || CONTENT_HASHED.matcher(key).matches();
+    }
+
+    private class PackageTask extends RecursiveTask<List<AssetEntry>> {
+
+        private final List<Path> files;
+
+        private final int from;
+
+        private final int to;
+
+        private PackageTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<AssetEntry> compute() {
+            if (to - from <= BATCH_SIZE) {
+                List<AssetEntry> entries = new ArrayList<>(to - from);
+                for (Path file : files.subList(from, to)) {
+                    try {
+                        entries.addAll(packageFile(file));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return entries;
+            }
+
+            int middle = (from + to) >>> 1;
+            PackageTask left = new PackageTask(files, from, middle);
+            left.fork();
+            List<AssetEntry> entries = new ArrayList<>(new PackageTask(files, middle, to).compute());
+            entries.addAll(left.join());
+            return entries;
+        }
+    }
+
+    static String toKey(Path relativePath) {
+        StringJoiner key = new StringJoiner("/");
+        relativePath.forEach(part -> key.add(part.toString()));
+        return key.toString();
+    }
+
+    private static String extension(String key) {
+        int dot = key.lastIndexOf('.');
+        return dot < 0 || dot < key.lastIndexOf('/') ? "" : key.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // GZIPOutputStream writes no file name and a zero mtime, so the same content always gives the same bytes and hash
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                   .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        options.addOption(Option.builder(SOURCE_KEY)
+                                .argName(SOURCE_KEY)
+                                .desc("Directory of the built website, e.g. web/public.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(OUTPUT_KEY)
+                                .argName(OUTPUT_KEY)
+                                .desc("Directory to write the packaged assets and manifest to.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(IMAGES_KEY)
+                                .argName(IMAGES_KEY)
+                                .desc("Directory of responsive image variants from ResponsiveImageGenerator, packaged under responsive/.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            long start = System.nanoTime();
+            AssetManifest manifest = new WebAssetPackager(Paths.get(cmd.getOptionValue(SOURCE_KEY)),
+                                                          cmd.hasOption(IMAGES_KEY) ? Paths.get(cmd.getOptionValue(IMAGES_KEY)) : null,
+                                                          Paths.get(cmd.getOptionValue(OUTPUT_KEY))).packageAssets();
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            LOG.info("Packaged {} objects, precompressed variants included, {} bytes, in {} ms: brotli saves {} bytes, gzip {} bytes",
+                     manifest.keys().size(), manifest.totalSize(), elapsedMillis, manifest.bytesSavedBy(BROTLI), manifest.bytesSavedBy(GZIP));
+
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(120, "java -cp /path/to/jar org.johntipper.blog.web.WebAssetPackager ARGS", "Args:", options, "", false);
+            System.exit(1);
+
+        } catch (Exception e) {
+            LOG.error("Error when packaging web assets: {}", e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+}
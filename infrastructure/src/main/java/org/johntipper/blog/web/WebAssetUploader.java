@@ -0,0 +1,282 @@
+package org.johntipper.blog.web;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Uploads a tree packaged by {@link WebAssetPackager} to the website bucket. Only objects whose content hash differs
+ * from the manifest stored by the previous upload are sent, objects no longer in the tree are deleted, and each object
+ * carries its {@code Content-Type}, its {@code Content-Encoding} if it's a precompressed variant, and, if content-hashed,
+ * {@code Cache-Control}. The report gives the bytes the hash diff skipped alongside the bytes sent, and the bytes the
+ * variants save viewers. {@code -endpoint} points the client at a local S3-compatible server for testing.
+ * <p>
+ * A variant goes up in the same upload as its identity object, so the edge function never asks for one that isn't
+ * there (see {@link WebAssetPackager}).
+ */
+public class WebAssetUploader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WebAssetUploader.class);
+
+    public static final String ASSETS_KEY = "assets";
+    public static final String BUCKET_KEY = "bucket";
+    public static final String REGION_KEY = "region";
+    public static final String ENDPOINT_KEY = "endpoint";
+    public static final String CONCURRENCY_KEY = "concurrency";
+
+    // DeleteObjects limit
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final S3Client s3;
+
+    private final String bucket;
+
+    private final Path assetsDir;
+
+    private final int concurrency;
+
+    public WebAssetUploader(S3Client s3, String bucket, Path assetsDir, int concurrency) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.assetsDir = assetsDir;
+        this.concurrency = concurrency;
+    }
+
+    public UploadReport upload() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+
+        AssetManifest manifest = AssetManifest.read(assetsDir.resolve(AssetManifest.MANIFEST_KEY));
+        Optional<AssetManifest> stored = fetchPreviousManifest();
+        AssetManifest previous = stored.orElse(AssetManifest.empty());
+
+        List<AssetEntry> changed = manifest.entries()
+                                           .stream()
+                                           .filter(entry -> manifest.changedSince(previous, entry.getKey()))
+                                           .collect(Collectors.toList());
+
+        AtomicLong bytesSent = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> uploads = new ArrayList<>(changed.size());
+            for (AssetEntry entry : changed) {
+                uploads.add(executor.submit(() -> {
+                    s3.putObject(PutObjectRequest.builder()
+                                                 .bucket(bucket)
+                                                 .key(entry.getKey())
+                                                 .contentType(entry.getContentType())
+                                                 .contentEncoding(entry.getContentEncoding())
+                                                 .cacheControl(entry.getCacheControl())
+                                                 .build(),
+                                 RequestBody.fromFile(assetsDir.resolve(entry.getKey())));
+                    bytesSent.addAndGet(entry.getSize());
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(String.format("Upload to %s failed", bucket), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // without a manifest (the first upload, or one lost) what's in the bucket is unknown, so it's listed instead
+        Collection<String> previousKeys = stored.isPresent() ? previous.keys() : listKeys();
+        List<String> removed = previousKeys.stream()
+                                           .filter(key -> manifest.get(key) == null && !AssetManifest.MANIFEST_KEY.equals(key))
+                                           .collect(Collectors.toList());
+        for (int i = 0; i < removed.size(); i += DELETE_BATCH_SIZE) {
+            List<ObjectIdentifier> batch = removed.subList(i, Math.min(removed.size(), i + DELETE_BATCH_SIZE))
+                                                  .stream()
+                                                  .map(key -> ObjectIdentifier.builder().key(key).build())
+                                                  .collect(Collectors.toList());
+            s3.deleteObjects(DeleteObjectsRequest.builder()
+                                                 .bucket(bucket)
+                                                 .delete(Delete.builder().objects(batch).quiet(true).build())
+                                                 .build());
+        }
+
+        // written last, so an interrupted upload is simply retried in full next time
+        s3.putObject(PutObjectRequest.builder()
+                                     .bucket(bucket)
+                                     .key(AssetManifest.MANIFEST_KEY)
+                                     .contentType("application/json")
+                                     .cacheControl("no-cache")
+                                     .build(),
+                     RequestBody.fromBytes(manifest.toBytes()));
+
+        long bytesSkipped = manifest.totalSize() - changed.stream().mapToLong(AssetEntry::getSize).sum();
+        return new UploadReport(manifest.keys().size(), changed.size(), removed.size(), bytesSent.get(), bytesSkipped,
+                                manifest.bytesSavedBy(WebAssetPackager.BROTLI), manifest.bytesSavedBy(WebAssetPackager.GZIP), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    Optional<AssetManifest> fetchPreviousManifest() throws IOException {
+        try {
+            ResponseBytes<GetObjectResponse> previous = s3.getObjectAsBytes(GetObjectRequest.builder()
+                                                                                            .bucket(bucket)
+                                                                                            .key(AssetManifest.MANIFEST_KEY)
+                                                                                            .build());
+            return Optional.of(AssetManifest.read(previous.asInputStream()));
+        } catch (NoSuchKeyException e) {
+            // first upload to this bucket: everything is new
+            return Optional.empty();
+        }
+    }
+
+    List<String> listKeys() {
+        return s3.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                                                             .bucket(bucket)
+                                                             .build())
+                 .contents()
+                 .stream()
+                 .map(S3Object::key)
+                 .collect(Collectors.toList());
+    }
+
+    public static class UploadReport {
+
+        private final int assets;
+
+        private final int uploaded;
+
+        private final int deleted;
+
+        private final long bytesSent;
+
+        // the unchanged objects' bytes, which a full upload would have sent again
+        private final long bytesSkipped;
+
+        // what the precompressed variants save a viewer that downloads every text object, over the identity objects
+        private final long bytesSavedByBrotli;
+
+        private final long bytesSavedByGzip;
+
+        private final long elapsedMillis;
+
+        public UploadReport(int assets, int uploaded, int deleted, long bytesSent, long bytesSkipped, long bytesSavedByBrotli, long bytesSavedByGzip, long elapsedMillis) {
+            this.assets = assets;
+            this.uploaded = uploaded;
+            this.deleted = deleted;
+            this.bytesSent = bytesSent;
+            this.bytesSkipped = bytesSkipped;
+            this.bytesSavedByBrotli = bytesSavedByBrotli;
+            this.bytesSavedByGzip = bytesSavedByGzip;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getUploaded() {
+            return uploaded;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesSkipped() {
+            return bytesSkipped;
+        }
+
+        public long getBytesSavedByBrotli() {
+            return bytesSavedByBrotli;
+        }
+
+        public long getBytesSavedByGzip() {
+            return bytesSavedByGzip;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d assets: %d uploaded (%d bytes sent), %d unchanged (%d bytes skipped), %d deleted, in %d ms; precompression saves %d bytes with brotli, %d with gzip",
+                                 assets, uploaded, bytesSent, assets - uploaded, bytesSkipped, deleted, elapsedMillis, bytesSavedByBrotli, bytesSavedByGzip);
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+
+        options.addOption(Option.builder(ASSETS_KEY)
+                                .argName(ASSETS_KEY)
+                                .desc("Directory written by WebAssetPackager.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(BUCKET_KEY)
+                                .argName(BUCKET_KEY)
+                                .desc("Website bucket to upload to.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(REGION_KEY)
+                                .argName(REGION_KEY)
+                                .desc("AWS region of the bucket.")
+                                .hasArg()
+                                .required(true)
+                                .build());
+
+        options.addOption(Option.builder(ENDPOINT_KEY)
+                                .argName(ENDPOINT_KEY)
+                                .desc("Endpoint of an S3-compatible server to use instead of AWS, e.g. http://localhost:9000.")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        options.addOption(Option.builder(CONCURRENCY_KEY)
+                                .argName(CONCURRENCY_KEY)
+                                .desc("Number of parallel uploads (default 16).")
+                                .hasArg()
+                                .required(false)
+                                .build());
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            S3ClientBuilder s3Builder = S3Client.builder()
+                                                .region(Region.of(cmd.getOptionValue(REGION_KEY)));
+            if (cmd.hasOption(ENDPOINT_KEY)) {
+                s3Builder.endpointOverride(URI.create(cmd.getOptionValue(ENDPOINT_KEY)))
+                         .serviceConfiguration(S3Configuration.builder()
+                                                              .pathStyleAccessEnabled(true)
+                                                              .build());
+            }
+
+            try (S3Client s3 = s3Builder.build()) {
+                UploadReport report = new WebAssetUploader(s3,
+                                                           cmd.getOptionValue(BUCKET_KEY),
+                                                           Paths.get(cmd.getOptionValue(ASSETS_KEY)),
+                                                           Integer.parseInt(cmd.getOptionValue(CONCURRENCY_KEY, "16"))).upload();
+                LOG.info("Uploaded web assets: {}", report);
+            }
+
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(120, "java -cp /path/to/jar org.johntipper.blog.web.WebAssetUploader ARGS", "Args:", options, "", false);
+            System.exit(1);
+
+        } catch (Exception e) {
+            LOG.error("Error when uploading web assets: {}", e.getMessage());
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.johntipper.blog.web.WebAssetPackager;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class DistributionTest {
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String ORIGIN_SHIELD_REGION = "eu-west-2";
+
+    private static final String ORIGIN_SECRET = "0d9c2b7e5a";
+
+    private static final ApiCachePolicy API_CACHE_POLICY = ApiCachePolicy.apiDefaults(null);
+
+    private static JsonNode template;
+
+    private static JsonNode edgeTemplate;
+
+    private static JsonNode distributionConfig;
+
+    // with an origin shield in front of the api, and an origin secret
+    private static JsonNode shieldedTemplate;
+
+    private static JsonNode shieldedDistributionConfig;
+
+    @BeforeClass
+    public static void synth() throws Exception {
+        SynthFixture fixture = new SynthFixture(temporaryFolder.getRoot().toPath());
+        CloudAssembly assembly = fixture.synth();
+        template = fixture.template(assembly, "WebBackendStack");
+        edgeTemplate = fixture.template(assembly, "LambdaEdgeCloudFrontRewriteStack");
+        distributionConfig = distributionConfig(template);
+        shieldedTemplate = fixture.template(fixture.synth("-apiOriginShieldRegion", ORIGIN_SHIELD_REGION, "-apiOriginSecret", ORIGIN_SECRET), "WebBackendStack");
+        shieldedDistributionConfig = distributionConfig(shieldedTemplate);
+    }
+
+    @Test
+    public void eachCacheTierPathPatternHasABehaviorWithTheTiersTtlsAndCompression() {
+        Map<String, JsonNode> behaviors = new HashMap<>();
+        for (JsonNode behavior : distributionConfig.path("CacheBehaviors")) {
+            behaviors.put(behavior.path("PathPattern").asText(), behavior);
+        }
+
+        for (CacheTier cacheTier : CacheTier.gatsbyDefaults()) {
+            if (cacheTier.isDefault()) {
+                assertTiered(cacheTier, distributionConfig.path("DefaultCacheBehavior"));
+            }
+            for (String pathPattern : cacheTier.getPathPatterns()) {
+                assertTrue(String.format("No behavior for %s", pathPattern), behaviors.containsKey(pathPattern));
+                assertTiered(cacheTier, behaviors.get(pathPattern));
+            }
+        }
+    }
+
+    @Test
+    public void everyCacheTierCompresses() {
+        // what isn't precompressed, such as PDFs, is left to CloudFront
+        for (CacheTier cacheTier : CacheTier.gatsbyDefaults()) {
+            assertTrue(cacheTier.getName(), cacheTier.isCompress());
+        }
+    }
+
+    @Test
+    public void websiteCachePoliciesKeyOnTheNormalizedAcceptEncodingOnly() {
+        List<JsonNode> websiteBehaviors = new ArrayList<>(List.of(distributionConfig.path("DefaultCacheBehavior")));
+        for (JsonNode behavior : distributionConfig.path("CacheBehaviors")) {
+            if (behavior != apiBehavior(distributionConfig)) {
+                websiteBehaviors.add(behavior);
+            }
+        }
+
+        for (JsonNode behavior : websiteBehaviors) {
+            String description = behavior.path("PathPattern").asText("(default)");
+            JsonNode parameters = cachePolicyConfig(behavior).path("ParametersInCacheKeyAndForwardedToOrigin");
+            // so the edge function can pick the precompressed variant, and each encoding is cached apart
+            assertTrue(description, parameters.path("EnableAcceptEncodingBrotli").asBoolean());
+            assertTrue(description, parameters.path("EnableAcceptEncodingGzip").asBoolean());
+            assertEquals(description, "none", parameters.path("QueryStringsConfig").path("QueryStringBehavior").asText());
+            assertEquals(description, "none", parameters.path("HeadersConfig").path("HeaderBehavior").asText());
+            assertEquals(description, "none", parameters.path("CookiesConfig").path("CookieBehavior").asText());
+            for (String legacySetting : List.of("ForwardedValues", "MinTTL", "DefaultTTL", "MaxTTL")) {
+                assertFalse(description + " " + legacySetting, behavior.has(legacySetting));
+            }
+        }
+        // one per tier, and the api's
+        assertEquals(CacheTier.gatsbyDefaults().size() + 1, SynthFixture.resources(template, "AWS::CloudFront::CachePolicy").size());
+    }
+
+    @Test
+    public void onlyContentHashedAssetsAreCachedForAYear() {
+        long year = Duration.ofDays(365).toSeconds();
+        // file names from a Gatsby build of the site
+        Map<String, Boolean> keys = new HashMap<>();
+        keys.put("static/d/123/logo.png", true);
+        keys.put("app-4d1c5a3e9b6f0f2e7a8c.js", true);
+        keys.put("framework-0f5d3a8b6c2e9a1d7b44.js", true);
+        keys.put("webpack-runtime-8a3f1c9e2d7b5064ae13.js", true);
+        keys.put("component---src-templates-blog-post-js-a5f2c7b0e1d3948c6b72.js", true);
+        keys.put("styles.9e2b1c40d6a8f3e57b10.css", true);
+        keys.put("app-polyfill-legacy-build.js", false);
+        // an unhashed chunk name with 20 characters after a dash, which the immutable tier's patterns match
+        keys.put("component---src-pages-index-js.js", false);
+        keys.put("polyfill-4d1c5a3e9b6f0f2e7a8c.js.map", false);
+        keys.put("sw.js", false);
+        keys.put("idb-keyval-3.2.0-iife.min.js", false);
+        keys.put("workbox-v4.3.1/workbox-sw.js", false);
+        keys.put("chunk-map.json", false);
+        keys.put("index.html", false);
+        keys.put("page-data/index/page-data.json", false);
+
+        keys.forEach((key, immutable) -> {
+            assertEquals(String.format("Cache-Control of %s", key), immutable, WebAssetPackager.isContentHashed(key));
+            assertEquals(String.format("CloudFront caching %s for a year", key), immutable, edgeTtl(key) == year);
+        });
+    }
+
+    @Test
+    public void servesTheSites404PageFromTheWebsiteBehaviorsOnly() {
+        // error responses would apply to the api's 403s and 404s as well
+        assertTrue(distributionConfig.path("CustomErrorResponses").isMissingNode());
+
+        JsonNode apiBehavior = apiBehavior(distributionConfig);
+        assertEquals(List.of(), edgeEventTypes(apiBehavior));
+        assertTrue(edgeEventTypes(distributionConfig.path("DefaultCacheBehavior")).contains("origin-response"));
+        for (JsonNode behavior : distributionConfig.path("CacheBehaviors")) {
+            if (behavior != apiBehavior) {
+                assertTrue(behavior.path("PathPattern").asText(), edgeEventTypes(behavior).contains("origin-response"));
+            }
+        }
+    }
+
+    @Test
+    public void edgeFunctionMayReadOnlyThe404PageFromTheWebsiteBucket() {
+        List<String> s3Resources = new ArrayList<>();
+        for (JsonNode policy : SynthFixture.resources(edgeTemplate, "AWS::IAM::Policy").values()) {
+            for (JsonNode statement : policy.path("Properties").path("PolicyDocument").path("Statement")) {
+                if (statement.path("Action").asText().startsWith("s3:")) {
+                    assertEquals("s3:GetObject", statement.path("Action").asText());
+                    s3Resources.add(statement.path("Resource").asText());
+                }
+            }
+        }
+        assertEquals(List.of(String.format("arn:aws:s3:::%s/404.html", WebBackendStack.websiteBucketName(SynthFixture.ACCOUNT))), s3Resources);
+    }
+
+    @Test
+    public void apiBehaviorUsesThePoliciesInsteadOfForwardedValues() {
+        JsonNode apiBehavior = apiBehavior(distributionConfig);
+
+        assertTrue(SynthFixture.resources(template, "AWS::CloudFront::CachePolicy").containsKey(apiBehavior.path("CachePolicyId").path("Ref").asText()));
+        assertEquals(logicalId("AWS::CloudFront::OriginRequestPolicy"), apiBehavior.path("OriginRequestPolicyId").path("Ref").asText());
+        for (String legacySetting : List.of("ForwardedValues", "MinTTL", "DefaultTTL", "MaxTTL")) {
+            assertFalse(legacySetting, apiBehavior.has(legacySetting));
+        }
+        assertTrue(origin(distributionConfig, apiBehavior.path("TargetOriginId").asText()).has("CustomOriginConfig"));
+        // the website's behaviors have their tiers' policies, and the api's origin request policy is its own
+        for (JsonNode behavior : distributionConfig.path("CacheBehaviors")) {
+            assertEquals(behavior == apiBehavior, behavior.path("CachePolicyId").equals(apiBehavior.path("CachePolicyId")));
+            assertEquals(behavior == apiBehavior, behavior.has("OriginRequestPolicyId"));
+        }
+    }
+
+    @Test
+    public void cachePolicyKeysOnTheListedQueryStringsAndHeadersOnly() {
+        JsonNode cachePolicyConfig = cachePolicyConfig(apiBehavior(distributionConfig));
+
+        assertEquals(API_CACHE_POLICY.getMinTtl().toSeconds().longValue(), cachePolicyConfig.path("MinTTL").asLong());
+        assertEquals(API_CACHE_POLICY.getDefaultTtl().toSeconds().longValue(), cachePolicyConfig.path("DefaultTTL").asLong());
+        assertEquals(API_CACHE_POLICY.getMaxTtl().toSeconds().longValue(), cachePolicyConfig.path("MaxTTL").asLong());
+
+        JsonNode parameters = cachePolicyConfig.path("ParametersInCacheKeyAndForwardedToOrigin");
+        assertTrue(parameters.path("EnableAcceptEncodingGzip").asBoolean());
+        assertEquals("whitelist", parameters.path("QueryStringsConfig").path("QueryStringBehavior").asText());
+        assertEquals(API_CACHE_POLICY.getCacheKeyQueryStrings(), texts(parameters.path("QueryStringsConfig").path("QueryStrings")));
+        assertEquals("whitelist", parameters.path("HeadersConfig").path("HeaderBehavior").asText());
+        assertEquals(API_CACHE_POLICY.getCacheKeyHeaders(), texts(parameters.path("HeadersConfig").path("Headers")));
+        assertEquals("none", parameters.path("CookiesConfig").path("CookieBehavior").asText());
+    }
+
+    @Test
+    public void originRequestPolicyForwardsOnlyTheViewerAddressOutsideTheCacheKey() {
+        JsonNode originRequestPolicyConfig = only(template, "AWS::CloudFront::OriginRequestPolicy").path("Properties").path("OriginRequestPolicyConfig");
+
+        assertEquals("none", originRequestPolicyConfig.path("QueryStringsConfig").path("QueryStringBehavior").asText());
+        assertEquals("whitelist", originRequestPolicyConfig.path("HeadersConfig").path("HeaderBehavior").asText());
+        // the rate limiter's client key
+        assertEquals(List.of("CloudFront-Viewer-Address"), texts(originRequestPolicyConfig.path("HeadersConfig").path("Headers")));
+        assertEquals("none", originRequestPolicyConfig.path("CookiesConfig").path("CookieBehavior").asText());
+    }
+
+    @Test
+    public void originShieldIsOnlyInFrontOfTheApiOriginAndOnlyWhenSet() {
+        for (JsonNode origin : distributionConfig.path("Origins")) {
+            assertFalse(origin.has("OriginShield"));
+        }
+
+        String apiOriginId = apiBehavior(shieldedDistributionConfig).path("TargetOriginId").asText();
+        for (JsonNode origin : shieldedDistributionConfig.path("Origins")) {
+            if (origin.path("Id").asText().equals(apiOriginId)) {
+                assertTrue(origin.path("OriginShield").path("Enabled").asBoolean());
+                assertEquals(ORIGIN_SHIELD_REGION, origin.path("OriginShield").path("OriginShieldRegion").asText());
+            } else {
+                assertFalse(origin.has("OriginShield"));
+            }
+        }
+    }
+
+    @Test
+    public void onlyTheApiOriginIsSentTheOriginSecretAndOnlyWhenSet() {
+        for (JsonNode origin : distributionConfig.path("Origins")) {
+            assertFalse(origin.has("OriginCustomHeaders"));
+        }
+
+        String apiOriginId = apiBehavior(shieldedDistributionConfig).path("TargetOriginId").asText();
+        for (JsonNode origin : shieldedDistributionConfig.path("Origins")) {
+            if (origin.path("Id").asText().equals(apiOriginId)) {
+                JsonNode customHeaders = origin.path("OriginCustomHeaders");
+                assertEquals(1, customHeaders.size());
+                assertEquals(HelloWorldApi.ORIGIN_SECRET_HEADER, customHeaders.path(0).path("HeaderName").asText());
+                assertEquals(ORIGIN_SECRET, customHeaders.path(0).path("HeaderValue").asText());
+            } else {
+                assertFalse(origin.has("OriginCustomHeaders"));
+            }
+        }
+    }
+
+    @Test
+    public void everyApiLambdaIsGivenTheOriginSecretToCheckAgainst() {
+        for (JsonNode function : SynthFixture.resources(template, "AWS::Lambda::Function").values()) {
+            assertTrue(function.path("Properties").path("Environment").path("Variables").path("ORIGIN_SECRET").isMissingNode());
+        }
+
+        int apiLambdas = 0;
+        for (JsonNode function : SynthFixture.resources(shieldedTemplate, "AWS::Lambda::Function").values()) {
+            JsonNode variables = function.path("Properties").path("Environment").path("Variables");
+            // the log retention function CDK adds has no rate limit
+            if (variables.has("RATE_LIMIT_PER_SECOND")) {
+                assertEquals(ORIGIN_SECRET, variables.path("ORIGIN_SECRET").asText());
+                apiLambdas++;
+            }
+        }
+        assertEquals(3, apiLambdas);
+    }
+
+    private static JsonNode distributionConfig(JsonNode template) {
+        return only(template, "AWS::CloudFront::Distribution").path("Properties").path("DistributionConfig");
+    }
+
+    private static JsonNode only(JsonNode template, String type) {
+        Map<String, JsonNode> resources = SynthFixture.resources(template, type);
+        assertEquals(type, 1, resources.size());
+        return resources.values().iterator().next();
+    }
+
+    private static JsonNode cachePolicyConfig(JsonNode behavior) {
+        JsonNode cachePolicy = SynthFixture.resources(template, "AWS::CloudFront::CachePolicy").get(behavior.path("CachePolicyId").path("Ref").asText());
+        assertNotNull(behavior.path("PathPattern").asText("(default)"), cachePolicy);
+        return cachePolicy.path("Properties").path("CachePolicyConfig");
+    }
+
+    private static String logicalId(String type) {
+        return SynthFixture.resources(template, type).keySet().iterator().next();
+    }
+
+    // the overrides are by position: the api behavior is the last one
+    private static JsonNode apiBehavior(JsonNode distributionConfig) {
+        JsonNode behaviors = distributionConfig.path("CacheBehaviors");
+        JsonNode apiBehavior = behaviors.path(behaviors.size() - 1);
+        assertEquals("api/*", apiBehavior.path("PathPattern").asText());
+        return apiBehavior;
+    }
+
+    private static JsonNode origin(JsonNode distributionConfig, String id) {
+        for (JsonNode origin : distributionConfig.path("Origins")) {
+            if (origin.path("Id").asText().equals(id)) {
+                return origin;
+            }
+        }
+        throw new AssertionError(String.format("No origin %s", id));
+    }
+
+    private static List<String> texts(JsonNode array) {
+        List<String> texts = new ArrayList<>();
+        array.forEach(text -> texts.add(text.asText()));
+        return texts;
+    }
+
+    private static List<String> edgeEventTypes(JsonNode behavior) {
+        List<String> eventTypes = new ArrayList<>();
+        behavior.path("LambdaFunctionAssociations").forEach(association -> eventTypes.add(association.path("EventType").asText()));
+        return eventTypes;
+    }
+
+    private static void assertTiered(CacheTier cacheTier, JsonNode behavior) {
+        String description = String.format("%s behavior %s", cacheTier.getName(), behavior.path("PathPattern").asText("(default)"));
+        // the TTLs are the tier's cache policy's
+        JsonNode cachePolicyConfig = cachePolicyConfig(behavior);
+        assertEquals(description, cacheTier.getMinTtl().toSeconds().longValue(), cachePolicyConfig.path("MinTTL").asLong());
+        assertEquals(description, cacheTier.getDefaultTtl().toSeconds().longValue(), cachePolicyConfig.path("DefaultTTL").asLong());
+        assertEquals(description, cacheTier.getMaxTtl().toSeconds().longValue(), cachePolicyConfig.path("MaxTTL").asLong());
+        assertEquals(description, cacheTier.isCompress(), behavior.path("Compress").asBoolean());
+        // every tier's misses pick a precompressed variant; the rewrite runs there too, so never on viewer requests
+        assertEquals(description, List.of("origin-request", "origin-response"), edgeEventTypes(behavior));
+    }
+
+    // how long CloudFront keeps a key: its Cache-Control max-age, within the matching tier's bounds, or the tier's default
+    private static long edgeTtl(String key) {
+        CacheTier cacheTier = CacheTier.gatsbyDefaults()
+                                       .stream()
+                                       .filter(tier -> tier.isDefault() || tier.getPathPatterns().stream().anyMatch(pattern -> matches(pattern, key)))
+                                       .findFirst()
+                                       .orElseThrow();
+        if (!WebAssetPackager.isContentHashed(key)) {
+            return cacheTier.getDefaultTtl().toSeconds().longValue();
+        }
+        Matcher maxAge = Pattern.compile("max-age=(\\d+)").matcher(WebAssetPackager.IMMUTABLE_CACHE_CONTROL);
+        assertTrue(maxAge.find());
+        long seconds = Long.parseLong(maxAge.group(1));
+        return Math.max(cacheTier.getMinTtl().toSeconds().longValue(), Math.min(cacheTier.getMaxTtl().toSeconds().longValue(), seconds));
+    }
+
+    // CloudFront path patterns: * is any run of characters, / included, and ? exactly one
+    private static boolean matches(String pathPattern, String key) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pathPattern.toCharArray()) {
+            regex.append(c == '*' ? ".*" : c == '?' ? "." : Pattern.quote(String.valueOf(c)));
+        }
+        return key.matches(regex.toString());
+    }
+}
@@ -0,0 +1,129 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class HttpApiTest {
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    // the handler each of api.yaml's integration placeholders stands for
+    private static final Map<String, String> HANDLERS = Map.of("{{helloworld-lambda}}", "org.johntipper.blog.lambda.HelloWorldHandler",
+                                                               "{{search-lambda}}", "org.johntipper.blog.lambda.SearchHandler",
+                                                               "{{views-lambda}}", "org.johntipper.blog.lambda.ViewCountHandler");
+
+    private static JsonNode spec;
+
+    private static JsonNode template;
+
+    private static JsonNode body;
+
+    @BeforeClass
+    public static void synth() throws Exception {
+        // the tests run from the repository root, as the app does
+        spec = new ObjectMapper(new YAMLFactory()).readTree(new File("api.yaml"));
+
+        SynthFixture fixture = new SynthFixture(temporaryFolder.getRoot().toPath());
+        template = fixture.template(fixture.synth("-apiHttpApi"), "WebBackendStack");
+
+        Map<String, JsonNode> httpApis = SynthFixture.resources(template, "AWS::ApiGatewayV2::Api");
+        assertEquals(1, httpApis.size());
+        body = httpApis.values().iterator().next().path("Properties").path("Body");
+    }
+
+    @Test
+    public void routesEveryOperationInTheSpec() {
+        assertEquals(operations(spec.path("paths")), operations(body.path("paths")));
+        assertFalse(operations(body.path("paths")).isEmpty());
+    }
+
+    @Test
+    public void integratesEachRouteWithItsHandlerInPayloadFormat2() {
+        Map<String, JsonNode> lambdas = SynthFixture.resources(template, "AWS::Lambda::Function");
+
+        for (String operation : operations(spec.path("paths"))) {
+            String[] pathAndMethod = operation.split(" ");
+            String placeholder = spec.path("paths").path(pathAndMethod[1]).path(pathAndMethod[0]).path("x-amazon-apigateway-integration").path("uri").asText();
+            JsonNode integration = body.path("paths").path(pathAndMethod[1]).path(pathAndMethod[0]).path("x-amazon-apigateway-integration");
+
+            assertEquals(operation, "aws_proxy", integration.path("type").asText());
+            assertEquals(operation, "POST", integration.path("httpMethod").asText());
+            assertEquals(operation, "2.0", integration.path("payloadFormatVersion").asText());
+            // a REST-only property, which HTTP APIs reject
+            assertFalse(operation, integration.has("passthroughBehavior"));
+
+            String lambda = lambdaReferencedBy(integration.path("uri"));
+            assertTrue(operation, lambdas.containsKey(lambda));
+            assertTrue(operation, HANDLERS.containsKey(placeholder));
+            assertEquals(operation, HANDLERS.get(placeholder) + "::handleHttpRequest", lambdas.get(lambda).path("Properties").path("Handler").asText());
+        }
+    }
+
+    @Test
+    public void keepsTheCacheControlExtensionsAndDropsTheRestOnlyOnes() {
+        for (String operation : operations(spec.path("paths"))) {
+            String[] pathAndMethod = operation.split(" ");
+            assertEquals(operation,
+                         spec.path("paths").path(pathAndMethod[1]).path(pathAndMethod[0]).path("x-cache-control"),
+                         body.path("paths").path(pathAndMethod[1]).path(pathAndMethod[0]).path("x-cache-control"));
+        }
+
+        assertFalse(body.has("x-amazon-apigateway-binary-media-types"));
+        assertFalse(body.has("x-amazon-apigateway-gateway-responses"));
+        // the stage supplies the /api prefix
+        assertFalse(body.has("servers"));
+        assertEquals(spec.path("components"), body.path("components"));
+    }
+
+    @Test
+    public void deploysOnlyTheHttpApiOnTheApiStage() {
+        assertEquals(Map.of(), SynthFixture.resources(template, "AWS::ApiGateway::RestApi"));
+
+        Map<String, JsonNode> stages = SynthFixture.resources(template, "AWS::ApiGatewayV2::Stage");
+        assertEquals(1, stages.size());
+        assertEquals(HelloWorldApi.STAGE_NAME, stages.values().iterator().next().path("Properties").path("StageName").asText());
+    }
+
+    /**
+     * @return "get /hello" and so on, for each operation under the spec's paths
+     */
+    private static TreeSet<String> operations(JsonNode paths) {
+        TreeSet<String> operations = new TreeSet<>();
+        paths.fields().forEachRemaining(path -> path.getValue().fieldNames().forEachRemaining(
+            method -> operations.add(String.format("%s %s", method, path.getKey()))));
+        return operations;
+    }
+
+    /**
+     * @return the logical id of the function whose ARN the integration uri is joined from
+     */
+    private static String lambdaReferencedBy(JsonNode uri) {
+        List<JsonNode> nodes = new ArrayList<>(List.of(uri));
+        while (!nodes.isEmpty()) {
+            JsonNode node = nodes.remove(nodes.size() - 1);
+            JsonNode getAtt = node.path("Fn::GetAtt");
+            if (getAtt.isArray() && "Arn".equals(getAtt.path(1).asText())) {
+                return getAtt.path(0).asText();
+            }
+            for (Iterator<JsonNode> children = node.elements(); children.hasNext(); ) {
+                nodes.add(children.next());
+            }
+        }
+        return null;
+    }
+}
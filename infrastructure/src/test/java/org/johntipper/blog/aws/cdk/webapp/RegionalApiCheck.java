@@ -0,0 +1,107 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+import software.amazon.awscdk.cxapi.CloudFormationStackArtifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks the synthesized stacks of a multi-region api: a latency record with a health check for every api region and
+ * for no others, each in a stack deployed to its region; CloudFront's api origin on the records; the views lambdas
+ * outside the main region pointed at its table; and no account-wide name (IAM roles, dashboards) used twice.
+ */
+class RegionalApiCheck {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final WebBackendStackConfig stackConfig;
+
+    RegionalApiCheck(WebBackendStackConfig stackConfig) {
+        this.stackConfig = stackConfig;
+    }
+
+    /**
+     * @return a description of each problem found
+     */
+    List<String> problems(CloudAssembly assembly) throws IOException {
+        List<String> problems = new ArrayList<>();
+        String recordName = String.format("%s.", stackConfig.getApiDomainName());
+        Map<String, String> recordStacks = new HashMap<>();
+        Map<String, String> globalNames = new HashMap<>();
+        boolean apiOrigin = false;
+
+        for (CloudFormationStackArtifact artifact : assembly.getStacks()) {
+            String stackName = artifact.getStackName();
+            String stackRegion = artifact.getEnvironment().getRegion();
+            JsonNode resources = mapper.readTree(new File(assembly.getDirectory(), artifact.getTemplateFile())).path("Resources");
+
+            for (Iterator<Map.Entry<String, JsonNode>> it = resources.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> resource = it.next();
+                JsonNode properties = resource.getValue().path("Properties");
+                switch (resource.getValue().path("Type").asText()) {
+                    case "AWS::Route53::RecordSet":
+                        if (!recordName.equals(properties.path("Name").asText())) {
+                            break;
+                        }
+                        String recordRegion = properties.path("Region").asText();
+                        if (!recordRegion.equals(stackRegion)) {
+                            problems.add(String.format("%s: latency record for %s in a stack deployed to %s", stackName, recordRegion, stackRegion));
+                        }
+                        if (!recordRegion.equals(properties.path("SetIdentifier").asText())) {
+                            problems.add(String.format("%s: latency record for %s has set identifier %s", stackName, recordRegion, properties.path("SetIdentifier").asText()));
+                        }
+                        String healthCheck = properties.path("HealthCheckId").path("Ref").asText();
+                        if (!"AWS::Route53::HealthCheck".equals(resources.path(healthCheck).path("Type").asText())) {
+                            problems.add(String.format("%s: latency record for %s has no health check", stackName, recordRegion));
+                        }
+                        if (recordStacks.put(recordRegion, stackName) != null) {
+                            problems.add(String.format("%s: a second latency record for %s", stackName, recordRegion));
+                        }
+                        break;
+                    case "AWS::CloudFront::Distribution":
+                        for (JsonNode origin : properties.path("DistributionConfig").path("Origins")) {
+                            apiOrigin |= stackConfig.getApiDomainName().equals(origin.path("DomainName").asText());
+                        }
+                        break;
+                    case "AWS::Lambda::Function":
+                        JsonNode tableRegion = properties.path("Environment").path("Variables").path("VIEWS_TABLE_REGION");
+                        if (properties.path("Environment").path("Variables").has("VIEWS_TABLE_NAME")
+                                && !stackConfig.getRegion().equals(tableRegion.isMissingNode() ? stackRegion : tableRegion.asText())) {
+                            problems.add(String.format("%s: views lambda %s doesn't use the table in %s", stackName, resource.getKey(), stackConfig.getRegion()));
+                        }
+                        break;
+                    case "AWS::IAM::Role":
+                        checkGlobalName(stackName, properties.path("RoleName"), globalNames, problems);
+                        break;
+                    case "AWS::CloudWatch::Dashboard":
+                        checkGlobalName(stackName, properties.path("DashboardName"), globalNames, problems);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        if (!recordStacks.keySet().equals(new HashSet<>(stackConfig.getApiRegions()))) {
+            problems.add(String.format("Latency records for %s, expected %s", new TreeSet<>(recordStacks.keySet()), stackConfig.getApiRegions()));
+        }
+        if (!apiOrigin) {
+            problems.add(String.format("No distribution has %s as an origin", stackConfig.getApiDomainName()));
+        }
+        return problems;
+    }
+
+    // generated names are unique anyway; only literal ones can clash
+    private static void checkGlobalName(String stackName, JsonNode name, Map<String, String> globalNames, List<String> problems) {
+        if (name.isTextual()) {
+            String otherStack = globalNames.put(name.asText(), stackName);
+            if (otherStack != null) {
+                problems.add(String.format("%s: %s is also used in %s", stackName, name.asText(), otherStack));
+            }
+        }
+    }
+}
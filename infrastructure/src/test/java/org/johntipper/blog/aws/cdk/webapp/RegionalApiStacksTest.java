@@ -0,0 +1,66 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+import software.amazon.awscdk.cxapi.CloudFormationStackArtifact;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegionalApiStacksTest {
+
+    private static final String API_REGIONS = "us-east-1,ap-southeast-2";
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static SynthFixture fixture;
+
+    private static CloudAssembly assembly;
+
+    @BeforeClass
+    public static void synth() throws Exception {
+        fixture = new SynthFixture(temporaryFolder.getRoot().toPath());
+        assembly = fixture.synth("-apiRegions", API_REGIONS);
+    }
+
+    @Test
+    public void synthesizesAStackPerExtraApiRegion() {
+        Set<String> stackNames = new TreeSet<>();
+        for (CloudFormationStackArtifact artifact : assembly.getStacks()) {
+            stackNames.add(String.format("%s@%s", artifact.getStackName(), artifact.getEnvironment().getRegion()));
+        }
+
+        assertEquals(Set.of("LambdaEdgeCloudFrontRewriteStack@us-east-1",
+                            String.format("WebBackendStack@%s", SynthFixture.REGION),
+                            "RegionalApiStack-us-east-1@us-east-1",
+                            "RegionalApiStack-ap-southeast-2@ap-southeast-2"), stackNames);
+    }
+
+    @Test
+    public void stacksFitTogether() throws Exception {
+        assertEquals(List.of(), new RegionalApiCheck(fixture.config("-apiRegions", API_REGIONS)).problems(assembly));
+    }
+
+    @Test
+    public void stacksFitTogetherAsHttpApis() throws Exception {
+        CloudAssembly httpApiAssembly = fixture.synth("-apiRegions", API_REGIONS, "-apiHttpApi");
+
+        assertEquals(List.of(), new RegionalApiCheck(fixture.config("-apiRegions", API_REGIONS, "-apiHttpApi")).problems(httpApiAssembly));
+    }
+
+    @Test
+    public void reportsARegionWithoutALatencyRecord() throws Exception {
+        List<String> problems = new RegionalApiCheck(fixture.config("-apiRegions", API_REGIONS + ",eu-central-1")).problems(assembly);
+
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0), problems.get(0).startsWith("Latency records for"));
+    }
+}
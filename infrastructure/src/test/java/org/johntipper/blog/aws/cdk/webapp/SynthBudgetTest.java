@@ -0,0 +1,40 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertTrue;
+
+public class SynthBudgetTest {
+
+    // the whole app, the jsii runtime's start up included
+    private static final double SYNTH_TIME_BUDGET_MILLIS = 30_000;
+
+    // CloudFormation takes templates of up to 1 MB through the bootstrap bucket; well short of that, so a construct that
+    // blows a template up shows here first
+    private static final long TEMPLATE_SIZE_BUDGET_BYTES = 200_000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void synthesizesWithinBudget() throws Exception {
+        assertWithinBudget(new SynthFixture(temporaryFolder.getRoot().toPath()).app());
+    }
+
+    @Test
+    public void synthesizesTheLargestConfigurationWithinBudget() throws Exception {
+        assertWithinBudget(new SynthFixture(temporaryFolder.getRoot().toPath()).app("-apiRegions", "us-east-1,ap-southeast-2",
+                                                                                     "-apiHttpApi"));
+    }
+
+    private static void assertWithinBudget(WebBackendApp app) throws Exception {
+        app.synth();
+
+        assertTrue(String.format("Synth took %.0f ms, over the budget of %.0f ms", app.profiler.getTotalMillis(), SYNTH_TIME_BUDGET_MILLIS),
+                   app.profiler.getTotalMillis() <= SYNTH_TIME_BUDGET_MILLIS);
+        assertTrue(String.format("Largest template is %d bytes, over the budget of %d bytes", app.profiler.getLargestTemplateBytes(), TEMPLATE_SIZE_BUDGET_BYTES),
+                   app.profiler.getLargestTemplateBytes() <= TEMPLATE_SIZE_BUDGET_BYTES);
+    }
+}
@@ -0,0 +1,111 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import software.amazon.awscdk.core.App;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+import software.amazon.awscdk.cxapi.CloudFormationStackArtifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds the app offline, with the arguments CI's synth uses: the hosted zone lookups are answered from context and
+ * the lambda assets are placeholders, so no AWS credentials or build outputs are needed.
+ */
+class SynthFixture {
+
+    static final String ACCOUNT = "111111111111";
+    static final String REGION = "eu-west-2";
+    static final String DOMAIN_NAME = "johntipper.org";
+
+    // the regions the hosted zone can be looked up in
+    static final List<String> LOOKUP_REGIONS = List.of("eu-west-2", "us-east-1", "ap-southeast-2");
+
+    private final Path directory;
+
+    private final Path apiLambdaPath;
+
+    private final Path lambdaEdgePath;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    SynthFixture(Path directory) throws IOException {
+        this.directory = directory;
+
+        apiLambdaPath = directory.resolve("api-lambdas.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(apiLambdaPath))) {
+            zip.putNextEntry(new ZipEntry("placeholder"));
+            zip.closeEntry();
+        }
+
+        lambdaEdgePath = Files.createDirectories(directory.resolve("lambdaEdge"));
+        try (OutputStream out = Files.newOutputStream(lambdaEdgePath.resolve("index.js"))) {
+            out.write("exports.handler = async (event) => event.Records[0].cf.request;\n".getBytes());
+        }
+    }
+
+    WebBackendStackConfig config(String... extraArgs) {
+        List<String> args = new ArrayList<>(List.of("-apiLambdaPath", apiLambdaPath.toString(),
+                                                    "-lambdaEdge", lambdaEdgePath.toString(),
+                                                    "-domainName", DOMAIN_NAME,
+                                                    "-region", REGION,
+                                                    "-targetAccount", ACCOUNT));
+        args.addAll(List.of(extraArgs));
+        try {
+            return WebBackendStackConfig.fromCommandLine(new DefaultParser().parse(WebBackendApp.options(), args.toArray(new String[0])));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return the app, profiled, configured with the fixture's arguments and these
+     */
+    WebBackendApp app(String... extraArgs) throws IOException {
+        Map<String, Object> context = new HashMap<>();
+        for (String region : LOOKUP_REGIONS) {
+            context.put(String.format("hosted-zone:account=%s:domainName=%s:region=%s", ACCOUNT, DOMAIN_NAME, region),
+                        Map.of("Id", "/hostedzone/Z0000000000000", "Name", DOMAIN_NAME + "."));
+        }
+
+        App app = App.Builder.create()
+                             .outdir(Files.createTempDirectory(directory, "cdk.out").toString())
+                             .context(context)
+                             .build();
+        return new WebBackendApp(app, config(extraArgs), true);
+    }
+
+    CloudAssembly synth(String... extraArgs) throws IOException {
+        return app(extraArgs).synth();
+    }
+
+    JsonNode template(CloudAssembly assembly, String stackName) throws IOException {
+        CloudFormationStackArtifact artifact = assembly.getStackByName(stackName);
+        return mapper.readTree(new File(assembly.getDirectory(), artifact.getTemplateFile()));
+    }
+
+    /**
+     * @return the template's resources of this type, by logical id
+     */
+    static Map<String, JsonNode> resources(JsonNode template, String type) {
+        Map<String, JsonNode> resources = new HashMap<>();
+        template.path("Resources").fields().forEachRemaining(resource -> {
+            if (type.equals(resource.getValue().path("Type").asText())) {
+                resources.put(resource.getKey(), resource.getValue());
+            }
+        });
+        return resources;
+    }
+}
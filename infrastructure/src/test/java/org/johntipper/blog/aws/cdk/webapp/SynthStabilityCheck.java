@@ -0,0 +1,49 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+import software.amazon.awscdk.cxapi.CloudFormationStackArtifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares the templates of two synths of the same app with the same arguments. Anything that differs (a timestamp,
+ * a random id) is a resource CloudFormation will update, or replace, on every deploy even though nothing changed.
+ */
+class SynthStabilityCheck {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @return {@code stack: /json/pointer} for each value that differs between the two synths
+     */
+    List<String> differences(CloudAssembly first, CloudAssembly second) throws IOException {
+        List<String> differences = new ArrayList<>();
+        for (CloudFormationStackArtifact artifact : first.getStacks()) {
+            CloudFormationStackArtifact other = second.getStackByName(artifact.getStackName());
+            JsonNode template = mapper.readTree(new File(first.getDirectory(), artifact.getTemplateFile()));
+            JsonNode otherTemplate = mapper.readTree(new File(second.getDirectory(), other.getTemplateFile()));
+            compare(artifact.getStackName(), "", template, otherTemplate, differences);
+        }
+        return differences;
+    }
+
+    private static void compare(String stackName, String pointer, JsonNode first, JsonNode second, List<String> differences) {
+        if (first.isContainerNode() && first.getNodeType() == second.getNodeType()) {
+            Set<String> fields = new TreeSet<>();
+            first.fieldNames().forEachRemaining(fields::add);
+            second.fieldNames().forEachRemaining(fields::add);
+            for (String field : fields) {
+                compare(stackName, pointer + "/" + field, first.path(field), second.path(field), differences);
+            }
+            for (int i = 0; i < Math.max(first.size(), second.size()) && first.isArray(); i++) {
+                compare(stackName, pointer + "/" + i, first.path(i), second.path(i), differences);
+            }
+        } else if (!first.equals(second)) {
+            differences.add(String.format("%s: %s", stackName, pointer));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.johntipper.blog.aws.cdk.webapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SynthStabilityTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void synthesizesTheSameTemplatesTwice() throws Exception {
+        assertStable();
+    }
+
+    @Test
+    public void synthesizesTheSameTemplatesTwiceForTheLargestConfiguration() throws Exception {
+        assertStable("-apiRegions", "us-east-1,ap-southeast-2", "-apiHttpApi");
+    }
+
+    // a value that differs (a timestamp, a random id) is a resource CloudFormation updates, or replaces, on every deploy
+    private void assertStable(String... args) throws Exception {
+        SynthFixture fixture = new SynthFixture(temporaryFolder.getRoot().toPath());
+        CloudAssembly first = fixture.synth(args);
+        CloudAssembly second = fixture.synth(args);
+
+        assertEquals(List.of(), new SynthStabilityCheck().differences(first, second));
+    }
+}
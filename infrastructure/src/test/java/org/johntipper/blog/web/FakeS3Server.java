@@ -0,0 +1,205 @@
+package org.johntipper.blog.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single bucket S3 stand-in, path-style, speaking just enough of the REST API for {@link WebAssetUploader}: PUT and
+ * GET of an object, ListObjectsV2 and DeleteObjects. Objects are held in memory with the headers they were put with.
+ */
+class FakeS3Server implements AutoCloseable {
+
+    private static final Pattern DELETE_KEY = Pattern.compile("<Key>(.*?)</Key>");
+
+    private final String bucket;
+
+    private final HttpServer server;
+
+    private final SortedMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger puts = new AtomicInteger();
+
+    FakeS3Server(String bucket) throws IOException {
+        this.bucket = bucket;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    URI endpoint() {
+        return URI.create(String.format("http://localhost:%d", server.getAddress().getPort()));
+    }
+
+    SortedMap<String, StoredObject> objects() {
+        return objects;
+    }
+
+    void put(String key, byte[] content) {
+        objects.put(key, new StoredObject(content, null, null, null));
+    }
+
+    /**
+     * @return the objects put since the last call
+     */
+    int takePuts() {
+        return puts.getAndSet(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String query = Objects.toString(exchange.getRequestURI().getRawQuery(), "");
+            String prefix = String.format("/%s", bucket);
+            if (!path.startsWith(prefix)) {
+                error(exchange, 404, "NoSuchBucket");
+                return;
+            }
+            String key = path.substring(prefix.length()).replaceFirst("^/", "");
+
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                    byte[] content = body(exchange);
+                    objects.put(key, new StoredObject(content,
+                                                      exchange.getRequestHeaders().getFirst("Content-Type"),
+                                                      exchange.getRequestHeaders().getFirst("Content-Encoding"),
+                                                      exchange.getRequestHeaders().getFirst("Cache-Control")));
+                    puts.incrementAndGet();
+                    exchange.getResponseHeaders().add("ETag", etag(content));
+                    exchange.sendResponseHeaders(200, -1);
+                    break;
+                case "GET":
+                    if (key.isEmpty() && query.contains("list-type=2")) {
+                        list(exchange);
+                        break;
+                    }
+                    StoredObject object = objects.get(key);
+                    if (object == null) {
+                        error(exchange, 404, "NoSuchKey");
+                        break;
+                    }
+                    exchange.getResponseHeaders().add("ETag", etag(object.content));
+                    exchange.sendResponseHeaders(200, object.content.length);
+                    exchange.getResponseBody().write(object.content);
+                    break;
+                case "POST":
+                    if (!key.isEmpty() || !query.startsWith("delete")) {
+                        error(exchange, 400, "NotImplemented");
+                        break;
+                    }
+                    Matcher keys = DELETE_KEY.matcher(new String(body(exchange), StandardCharsets.UTF_8));
+                    while (keys.find()) {
+                        objects.remove(keys.group(1));
+                    }
+                    xml(exchange, "<DeleteResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"></DeleteResult>");
+                    break;
+                default:
+                    error(exchange, 405, "MethodNotAllowed");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        objects.forEach((key, object) -> contents.append(String.format("<Contents><Key>%s</Key><Size>%d</Size></Contents>", key, object.content.length)));
+        xml(exchange, String.format("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Name>%s</Name><KeyCount>%d</KeyCount>"
+                                        + "<MaxKeys>1000</MaxKeys><IsTruncated>false</IsTruncated>%s</ListBucketResult>",
+                                    bucket, objects.size(), contents));
+    }
+
+    private static void xml(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void error(HttpExchange exchange, int status, String code) throws IOException {
+        byte[] bytes = String.format("<Error><Code>%s</Code><Message>%s</Message></Error>", code, code).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // plain, or in the aws-chunked framing the SDK signs streaming uploads over http with
+    private static byte[] body(HttpExchange exchange) throws IOException {
+        byte[] raw = exchange.getRequestBody().readAllBytes();
+        String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (contentSha256 == null || !contentSha256.startsWith("STREAMING-")) {
+            return raw;
+        }
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int lineEnd = indexOfCrLf(raw, position);
+            String header = new String(raw, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";")[0], 16);
+            if (size == 0) {
+                return decoded.toByteArray();
+            }
+            decoded.write(raw, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+    }
+
+    private static int indexOfCrLf(byte[] bytes, int from) throws IOException {
+        for (int i = from; i < bytes.length - 1; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IOException("Truncated aws-chunked body");
+    }
+
+    // the SDK checks the ETag of puts and gets against the MD5 of the content
+    private static String etag(byte[] content) {
+        try {
+            byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+            StringBuilder hex = new StringBuilder("\"");
+            for (byte b : md5) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class StoredObject {
+
+        final byte[] content;
+
+        final String contentType;
+
+        final String contentEncoding;
+
+        final String cacheControl;
+
+        StoredObject(byte[] content, String contentType, String contentEncoding, String cacheControl) {
+            this.content = content;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.cacheControl = cacheControl;
+        }
+    }
+}
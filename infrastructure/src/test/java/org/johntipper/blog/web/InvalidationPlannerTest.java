@@ -0,0 +1,175 @@
+package org.johntipper.blog.web;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InvalidationPlannerTest {
+
+    private final InvalidationPlanner planner = new InvalidationPlanner(0.25, InvalidationPlanner.MAX_BATCH_PATHS);
+
+    @Test
+    public void invalidatesNothingWhenNothingChanged() {
+        Map<String, String> site = site(10, 10);
+
+        assertEquals(List.of(), planner.plan(manifest(site), manifest(site)));
+    }
+
+    @Test
+    public void invalidatesEverythingWithoutAPreviousManifest() {
+        // whatever the edges hold was uploaded without a manifest, so none of it can be ruled out
+        assertEquals(List.of("/*"), planner.plan(AssetManifest.empty(), manifest(site(10, 10))));
+        assertEquals(List.of("/*"), planner.plan(manifest(Map.of()), manifest(site(1, 1))));
+    }
+
+    @Test
+    public void invalidatesOnlyChangedAndRemovedFilesInALargeTree() {
+        Map<String, String> previous = site(50, 100);
+        Map<String, String> current = new TreeMap<>(previous);
+        current.put("post-7/image-3.png", "changed");
+        current.put("post-42/image-99.png", "changed");
+        current.remove("post-13/image-0.png");
+        // never cached, so never stale
+        current.put("post-new/image-0.png", "added");
+
+        assertEquals(List.of("/post-13/image-0.png", "/post-42/image-99.png", "/post-7/image-3.png"),
+                     sorted(planner.plan(manifest(previous), manifest(current))));
+    }
+
+    @Test
+    public void collapsesADirectoryIntoAWildcardWithinTheCollateralRatio() {
+        Map<String, String> previous = site(20, 20);
+        Map<String, String> current = new TreeMap<>(previous);
+        // 16 of 20 stale: a collateral of 0.2
+        for (int i = 0; i < 16; i++) {
+            current.put(String.format("post-3/image-%d.png", i), "changed");
+        }
+
+        assertEquals(List.of("/post-3/*"), planner.plan(manifest(previous), manifest(current)));
+    }
+
+    @Test
+    public void keepsExplicitPathsBeyondTheCollateralRatio() {
+        Map<String, String> previous = site(20, 20);
+        Map<String, String> current = new TreeMap<>(previous);
+        // 14 of 20 stale: a collateral of 0.3
+        for (int i = 0; i < 14; i++) {
+            current.put(String.format("post-3/image-%d.png", i), "changed");
+        }
+
+        List<String> paths = planner.plan(manifest(previous), manifest(current));
+
+        assertEquals(14, paths.size());
+        assertTrue(paths.stream().noneMatch(path -> path.endsWith("*")));
+    }
+
+    @Test
+    public void invalidatesEverythingAboveTheBatchLimit() {
+        Map<String, String> previous = site(InvalidationPlanner.MAX_BATCH_PATHS + 1, 10);
+        Map<String, String> current = new TreeMap<>(previous);
+        // one file per directory, so nothing collapses
+        for (int i = 0; i <= InvalidationPlanner.MAX_BATCH_PATHS; i++) {
+            current.put(String.format("post-%d/image-0.png", i), "changed");
+        }
+
+        assertEquals(List.of("/*"), planner.plan(manifest(previous), manifest(current)));
+    }
+
+    @Test
+    public void invalidatesEverythingAboveTheWildcardLimit() {
+        AssetManifest previous = manifest(site(100, 10));
+
+        List<String> atLimit = planner.plan(previous, manifest(rebuilt(site(100, 10), InvalidationPlanner.MAX_WILDCARD_PATHS)));
+        assertEquals(InvalidationPlanner.MAX_WILDCARD_PATHS, atLimit.size());
+        assertTrue(atLimit.stream().allMatch(path -> path.endsWith("/*")));
+
+        assertEquals(List.of("/*"), planner.plan(previous, manifest(rebuilt(site(100, 10), InvalidationPlanner.MAX_WILDCARD_PATHS + 1))));
+    }
+
+    @Test
+    public void invalidatesTheDirectoryPathOfAnIndexDocument() {
+        Map<String, String> previous = site(10, 10);
+        previous.put("index.html", "home");
+        previous.put("blog/my-post/index.html", "post");
+        // otherwise the post's directory is collapsed into a wildcard
+        for (int i = 0; i < 10; i++) {
+            previous.put(String.format("blog/my-post/figure-%d.png", i), "figure");
+        }
+        Map<String, String> current = new TreeMap<>(previous);
+        current.put("index.html", "home, changed");
+        current.put("blog/my-post/index.html", "post, changed");
+
+        assertEquals(List.of("/", "/blog/my-post/", "/blog/my-post/index.html", "/index.html"),
+                     sorted(planner.plan(manifest(previous), manifest(current))));
+    }
+
+    @Test
+    public void invalidatesPrecompressedVariantsUnderTheirIdentityPath() {
+        Map<String, String> previous = site(10, 10);
+        previous.put("blog/my-post/index.html", "post");
+        previous.put("blog/my-post/figure.png", "figure");
+        Map<String, String> current = new TreeMap<>(previous);
+        current.put("blog/my-post/index.html", "post, changed");
+
+        // not /blog/my-post/index.html.br and so on; counted as stale too, they'd collapse the post into a wildcard
+        assertEquals(List.of("/blog/my-post/", "/blog/my-post/index.html"),
+                     sorted(planner.plan(withVariants(manifest(previous)), withVariants(manifest(current)))));
+    }
+
+    @Test
+    public void percentEncodesSpacesAndEnDashes() {
+        assertEquals("blog/2020%E2%80%932021/my%20post/index.html", InvalidationPlanner.encode("blog/2020–2021/my post/index.html"));
+        assertEquals("static/app-0a1b.js", InvalidationPlanner.encode("static/app-0a1b.js"));
+        assertEquals(List.of("/blog/my%20post/index.html", "/blog/my%20post/"), InvalidationPlanner.pathsFor("blog/my post/index.html"));
+    }
+
+    // directories of files, all hashed by their key
+    private static Map<String, String> site(int directories, int filesPerDirectory) {
+        Map<String, String> site = new TreeMap<>();
+        for (int d = 0; d < directories; d++) {
+            for (int f = 0; f < filesPerDirectory; f++) {
+                String key = String.format("post-%d/image-%d.png", d, f);
+                site.put(key, key);
+            }
+        }
+        return site;
+    }
+
+    // every file of the first few directories changed
+    private static Map<String, String> rebuilt(Map<String, String> site, int directories) {
+        Map<String, String> rebuilt = new TreeMap<>(site);
+        for (String key : site.keySet()) {
+            if (Integer.parseInt(key.substring("post-".length(), key.indexOf('/'))) < directories) {
+                rebuilt.put(key, "changed");
+            }
+        }
+        return rebuilt;
+    }
+
+    private static AssetManifest manifest(Map<String, String> hashes) {
+        List<AssetEntry> entries = new ArrayList<>();
+        hashes.forEach((key, hash) -> entries.add(new AssetEntry(key, hash, 100, "image/png", null, null)));
+        return new AssetManifest(entries);
+    }
+
+    // a .br and .gz of every html entry, hashed by the entry's hash, as the packager writes them
+    private static AssetManifest withVariants(AssetManifest manifest) {
+        List<AssetEntry> entries = new ArrayList<>(manifest.entries());
+        for (AssetEntry entry : manifest.entries()) {
+            if (entry.getKey().endsWith(".html")) {
+                entries.add(new AssetEntry(entry.getKey() + ".br", entry.getHash() + "br", 40, "text/html; charset=utf-8", "br", null));
+                entries.add(new AssetEntry(entry.getKey() + ".gz", entry.getHash() + "gz", 50, "text/html; charset=utf-8", "gzip", null));
+            }
+        }
+        return new AssetManifest(entries);
+    }
+
+    private static List<String> sorted(List<String> paths) {
+        List<String> sorted = new ArrayList<>(paths);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,133 @@
+package org.johntipper.blog.web;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResponsiveImageGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void resizesToTheWidthsNarrowerThanTheImage() throws IOException {
+        ResponsiveImageGenerator generator = generator(List.of(960, 480, 1440));
+
+        assertEquals(List.of(480, 960, 1440), generator.targetWidths(4000));
+        // and the image's own width, as it's narrower than the widest
+        assertEquals(List.of(480, 960, 1000), generator.targetWidths(1000));
+        assertEquals(List.of(480, 960), generator.targetWidths(1440));
+        assertEquals(List.of(300), generator.targetWidths(300));
+    }
+
+    @Test
+    public void makesAsciiUrlFriendlyStems() {
+        assertEquals("posts/2018-07-18-gradle-integration-testing/images/nz-046",
+                     ResponsiveImageGenerator.stem("posts/2018-07-18-gradle–integration-testing/images/NZ 046.jpeg"));
+        assertEquals("images/cafe-creme", ResponsiveImageGenerator.stem("images/Café Crème.png"));
+        assertEquals("images.v2/readme", ResponsiveImageGenerator.stem("images.v2/README"));
+
+        assertEquals("images/nz-046-480w.jpg", ResponsiveImageGenerator.variantPath("images/NZ 046.jpeg", 480));
+        assertEquals("images/diagram-960w.png", ResponsiveImageGenerator.variantPath("images/diagram.PNG", 960));
+    }
+
+    @Test
+    public void skipsImagesThatHaveNotChanged() throws Exception {
+        write("posts/a/photo.jpg", 400);
+        write("posts/b/diagram.png", 250);
+
+        Map<String, Object> first = generator(List.of(100, 200)).generate(2).toReport();
+        assertEquals(2, first.get("images"));
+        assertEquals(2L, first.get("generated"));
+        assertEquals(4, first.get("variants"));
+        assertTrue(Files.exists(output().resolve("posts/a/photo-200w.jpg")));
+        assertTrue(Files.exists(output().resolve("posts/b/diagram-100w.png")));
+
+        Map<String, Object> second = generator(List.of(100, 200)).generate(2).toReport();
+        assertEquals(0L, second.get("generated"));
+        assertEquals(2L, second.get("cached"));
+
+        // a changed image, and one whose variant has gone, are both generated again
+        write("posts/a/photo.jpg", 401);
+        Files.delete(output().resolve("posts/b/diagram-100w.png"));
+        Map<String, Object> third = generator(List.of(100, 200)).generate(2).toReport();
+        assertEquals(2L, third.get("generated"));
+        assertTrue(Files.exists(output().resolve("posts/b/diagram-100w.png")));
+    }
+
+    @Test
+    public void deletesVariantsThatAreNoLongerListed() throws Exception {
+        write("posts/a/photo.jpg", 400);
+        write("posts/b/photo.jpg", 400);
+        generator(List.of(100, 200)).generate(1);
+
+        Files.delete(source().resolve("posts/b/photo.jpg"));
+        Map<String, Object> report = generator(List.of(100, 300)).generate(1).toReport();
+
+        assertEquals(1, report.get("images"));
+        assertFalse(Files.exists(output().resolve("posts/a/photo-200w.jpg")));
+        assertTrue(Files.exists(output().resolve("posts/a/photo-100w.jpg")));
+        assertTrue(Files.exists(output().resolve("posts/a/photo-300w.jpg")));
+        assertFalse(Files.exists(output().resolve("posts/b/photo-100w.jpg")));
+        assertFalse(Files.exists(output().resolve("posts/b/photo-200w.jpg")));
+    }
+
+    @Test
+    public void failsOnSourcesThatWouldShareVariants() throws Exception {
+        assertCollision("images/a.jpg", "images/a.jpeg");
+        assertCollision("images/NZ 046.jpeg", "images/nz-046.jpg");
+    }
+
+    @Test
+    public void keepsSourcesWhoseFormatsDiffer() throws Exception {
+        write("images/a.jpg", 200);
+        write("images/a.png", 200);
+
+        assertEquals(2, generator(List.of(100)).generate(1).toReport().get("images"));
+    }
+
+    private void assertCollision(String first, String second) throws Exception {
+        write(first, 200);
+        write(second, 200);
+        try {
+            generator(List.of(100)).generate(1);
+            fail(String.format("expected %s and %s to collide", first, second));
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(first) && e.getMessage().contains(second));
+        }
+        Files.delete(source().resolve(first));
+        Files.delete(source().resolve(second));
+    }
+
+    private ResponsiveImageGenerator generator(List<Integer> widths) {
+        return new ResponsiveImageGenerator(source(), output(), widths, ResponsiveImageGenerator.DEFAULT_QUALITY, ResponsiveImageGenerator.DEFAULT_URL_PREFIX);
+    }
+
+    private Path source() {
+        return temporaryFolder.getRoot().toPath().resolve("content");
+    }
+
+    private Path output() {
+        return temporaryFolder.getRoot().toPath().resolve("responsive");
+    }
+
+    private void write(String key, int width) throws IOException {
+        BufferedImage image = new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, x / 4, 0xff8800);
+        }
+        Path file = source().resolve(key);
+        Files.createDirectories(file.getParent());
+        ImageIO.write(image, key.endsWith(".png") ? "png" : "jpg", file.toFile());
+    }
+}
@@ -0,0 +1,212 @@
+package org.johntipper.blog.web;
+
+import com.aayushatharva.brotli4j.decoder.Decoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class WebAssetUploaderTest {
+
+    private static final String BUCKET = "website";
+
+    private static final String PAGE = "<html><body>" + "All work and no play makes Jack a dull boy. ".repeat(20) + "</body></html>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeS3Server server;
+
+    private S3Client s3;
+
+    private Path sourceDir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeS3Server(BUCKET);
+        s3 = S3Client.builder()
+                     .region(Region.EU_WEST_2)
+                     .endpointOverride(server.endpoint())
+                     .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                     .serviceConfiguration(S3Configuration.builder()
+                                                          .pathStyleAccessEnabled(true)
+                                                          .build())
+                     .build();
+        sourceDir = temporaryFolder.newFolder("public").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        s3.close();
+        server.close();
+    }
+
+    @Test
+    public void uploadsEachAssetWithItsMetadataAndTheManifestLast() throws Exception {
+        write("index.html", PAGE);
+        write("favicon.png", "not really a png");
+
+        upload();
+
+        // as is, for the clients that send no Accept-Encoding
+        FakeS3Server.StoredObject page = server.objects().get("index.html");
+        assertEquals("text/html; charset=utf-8", page.contentType);
+        assertNull(page.contentEncoding);
+        assertEquals(PAGE, new String(page.content, StandardCharsets.UTF_8));
+
+        FakeS3Server.StoredObject brotli = server.objects().get("index.html.br");
+        assertEquals("text/html; charset=utf-8", brotli.contentType);
+        assertEquals("br", brotli.contentEncoding);
+        assertEquals(PAGE, new String(Decoder.decompress(brotli.content).getDecompressedData(), StandardCharsets.UTF_8));
+
+        FakeS3Server.StoredObject gzip = server.objects().get("index.html.gz");
+        assertEquals("text/html; charset=utf-8", gzip.contentType);
+        assertEquals("gzip", gzip.contentEncoding);
+        assertEquals(PAGE, new String(gunzip(gzip.content), StandardCharsets.UTF_8));
+
+        // images aren't precompressed
+        FakeS3Server.StoredObject image = server.objects().get("favicon.png");
+        assertEquals("image/png", image.contentType);
+        assertNull(image.contentEncoding);
+        assertFalse(server.objects().containsKey("favicon.png.br"));
+
+        assertEquals("no-cache", server.objects().get(AssetManifest.MANIFEST_KEY).cacheControl);
+        assertEquals(5, server.takePuts());
+    }
+
+    @Test
+    public void reportsTheBytesEachEncodingSaves() throws Exception {
+        write("index.html", PAGE);
+        write("favicon.png", "not really a png");
+
+        WebAssetUploader.UploadReport report = upload();
+
+        assertEquals(PAGE.length() - server.objects().get("index.html.br").content.length, report.getBytesSavedByBrotli());
+        assertEquals(PAGE.length() - server.objects().get("index.html.gz").content.length, report.getBytesSavedByGzip());
+        // brotli's window and context modelling beat deflate on repetitive text
+        assertTrue(report.getBytesSavedByBrotli() > report.getBytesSavedByGzip());
+    }
+
+    @Test
+    public void refusesASourceNamedLikeAnotherOnesVariant() throws Exception {
+        write("index.html", PAGE);
+        write("index.html.gz", "a download, not a variant");
+
+        try {
+            upload();
+            fail("expected the variant key to clash");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("index.html.gz"));
+        }
+        assertEquals(0, server.takePuts());
+    }
+
+    @Test
+    public void marksOnlyContentHashedAssetsImmutable() throws Exception {
+        write("index.html", PAGE);
+        write("sw.js", "self.addEventListener('fetch', () => {});");
+        write("app-4d1c5a3e9b6f0f2e7a8c.js", "console.log('hello');");
+        write("static/d/123/logo.png", "not really a png");
+
+        upload();
+
+        assertNull(server.objects().get("index.html").cacheControl);
+        assertNull(server.objects().get("sw.js").cacheControl);
+        assertEquals(WebAssetPackager.IMMUTABLE_CACHE_CONTROL, server.objects().get("app-4d1c5a3e9b6f0f2e7a8c.js").cacheControl);
+        // the variants are served in place of the bundle, so they're as immutable
+        assertEquals(WebAssetPackager.IMMUTABLE_CACHE_CONTROL, server.objects().get("app-4d1c5a3e9b6f0f2e7a8c.js.br").cacheControl);
+        assertEquals(WebAssetPackager.IMMUTABLE_CACHE_CONTROL, server.objects().get("app-4d1c5a3e9b6f0f2e7a8c.js.gz").cacheControl);
+        assertEquals(WebAssetPackager.IMMUTABLE_CACHE_CONTROL, server.objects().get("static/d/123/logo.png").cacheControl);
+    }
+
+    @Test
+    public void uploadsOnlyWhatChangedSinceTheStoredManifest() throws Exception {
+        write("index.html", PAGE);
+        write("about/index.html", PAGE.replace("Jack", "Jill"));
+        upload();
+        server.takePuts();
+
+        write("about/index.html", PAGE.replace("Jack", "Joan"));
+        WebAssetUploader.UploadReport report = upload();
+
+        // the changed page, its variants and the manifest
+        assertEquals(4, server.takePuts());
+        assertEquals(PAGE.replace("Jack", "Joan"), new String(server.objects().get("about/index.html").content, StandardCharsets.UTF_8));
+
+        assertEquals(3, report.getUploaded());
+        assertEquals(storedSize("about/index.html", "about/index.html.br", "about/index.html.gz"), report.getBytesSent());
+        assertEquals(storedSize("index.html", "index.html.br", "index.html.gz"), report.getBytesSkipped());
+    }
+
+    @Test
+    public void deletesAssetsRemovedSinceTheStoredManifest() throws Exception {
+        write("index.html", PAGE);
+        write("old/index.html", PAGE);
+        upload();
+
+        Files.delete(sourceDir.resolve("old/index.html"));
+        upload();
+
+        assertEquals(Set.of("index.html", "index.html.br", "index.html.gz", AssetManifest.MANIFEST_KEY), server.objects().keySet());
+    }
+
+    @Test
+    public void deletesObjectsNotInTheTreeWhenThereIsNoManifest() throws Exception {
+        // left by a deploy from before manifests were stored
+        server.put("index.html", PAGE.getBytes(StandardCharsets.UTF_8));
+        server.put("2019/old-post/index.html", PAGE.getBytes(StandardCharsets.UTF_8));
+        server.put("static/app-0123456789abcdef.js", new byte[10]);
+
+        write("index.html", PAGE);
+        write("static/app-fedcba9876543210.js", "console.log('hello');");
+        upload();
+
+        assertEquals(Set.of("index.html", "index.html.br", "index.html.gz",
+                            "static/app-fedcba9876543210.js", "static/app-fedcba9876543210.js.br", "static/app-fedcba9876543210.js.gz",
+                            AssetManifest.MANIFEST_KEY),
+                     server.objects().keySet());
+    }
+
+    private void write(String key, String content) throws IOException {
+        Path file = sourceDir.resolve(key);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private long storedSize(String... keys) {
+        long size = 0;
+        for (String key : keys) {
+            size += server.objects().get(key).content.length;
+        }
+        return size;
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private WebAssetUploader.UploadReport upload() throws Exception {
+        Path assetsDir = Files.createTempDirectory(temporaryFolder.getRoot().toPath(), "assets");
+        new WebAssetPackager(sourceDir, assetsDir).packageAssets();
+        return new WebAssetUploader(s3, BUCKET, assetsDir, 4).upload();
+    }
+}